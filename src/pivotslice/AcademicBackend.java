@@ -0,0 +1,44 @@
+package pivotslice;
+
+import java.util.List;
+
+import org.datacontract.schemas._2004._07.libra_service.ReferenceRelationship;
+
+import com.microsoft.research.Publication;
+import com.microsoft.research.query.AcademicSearchQueryFactory;
+
+public class AcademicBackend implements PublicationBackend {
+	
+	// the academic search web service, which answers at most 100 results per query, so larger ranges are
+	// asked as several queries
+	
+	private static final String appid = "1479ed99-1011-47b4-a0b7-588d7bded87f";
+	
+	private final AcademicSearchQueryFactory factory;
+	
+	///////////////////////////////////////////////////////////////////////////////////////////////////////////
+	// public methods
+	public AcademicBackend() {
+		factory = AcademicSearchQueryFactory.newInstance(appid);
+	}
+	
+	@Override
+	public List<Publication> search(String text, int start, int end) {
+		return factory.newPublicationSearchQuery().withFullTextQuery(text)
+			.withStartIndex(start).withEndIndex(end).list();
+	}
+	
+	@Override
+	public List<Publication> getCitations(Publication pub, int start, int end) {
+		return factory.newPublicationSearchQuery().withPublicationId(pub.getID().intValue())
+			.withReferenceRelationship(ReferenceRelationship.CITATION)
+			.withStartIndex(start).withEndIndex(end).list();
+	}
+	
+	@Override
+	public List<Publication> getReferences(Publication pub, int start, int end) {
+		return factory.newPublicationSearchQuery().withPublicationId(pub.getID().intValue())
+			.withReferenceRelationship(ReferenceRelationship.REFERENCE)
+			.withStartIndex(start).withEndIndex(end).list();
+	}
+}
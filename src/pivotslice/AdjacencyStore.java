@@ -0,0 +1,556 @@
+package pivotslice;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.ref.PhantomReference;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+public class AdjacencyStore {
+	// the citation graph in compressed sparse row layout, kept in a memory-mapped file:
+	//   int[n + 1] outOffsets, int[m] outTargets, int[n + 1] inOffsets, int[m] inTargets, long[n] ids
+	// rows are publication ordinals of the network; out edges are references and in edges are citations.
+	// this is the same layout as the adjacency section of a NetworkFile, followed by its id column.
+	// the edges added later are kept in a delta in the heap, layered over the file: a store built by
+	// append is a version sharing the file and the delta with the other versions, and it sees the rows
+	// and the delta edges up to its own counts. once the delta is a fair part of the graph, the next
+	// version is compacted into a file of its own
+	
+	private static final int minCompaction = 1 << 16;		// delta edges before the store is compacted
+	
+	private File file;
+	private long offset;		// of the section in the file
+	private int nodeCount, edgeCount;
+	
+	private IntBuffer outOffsets, outTargets, inOffsets, inTargets;
+	private LongBuffer ids;
+	
+	// the store holding the file, this one unless it is a version layered over it
+	private AdjacencyStore base = this;
+	private Delta delta;
+	private int rowCount, addedEdges;
+	
+	// temp files of the stores created here. a file is deleted once its store is no longer reachable,
+	// that is when no published network version or history state refers to it any more
+	private static final ReferenceQueue<AdjacencyStore> releasedStores = new ReferenceQueue<AdjacencyStore>();
+	private static final Set<StoreFile> storeFiles = new HashSet<StoreFile>();
+	private static final List<File> undeletedFiles = new ArrayList<File>();
+	
+	static {
+		Runtime.getRuntime().addShutdownHook(new Thread() {
+			public void run() {
+				synchronized (storeFiles) {
+					for (StoreFile f : storeFiles)
+						f.file.delete();
+					for (File f : undeletedFiles)
+						f.delete();
+				}
+			}
+		});
+	}
+	
+	///////////////////////////////////////////////////////////////////////////////////////////////////////////
+	// public methods
+	public AdjacencyStore() {
+		// an empty graph, not backed by a file
+		outOffsets = IntBuffer.wrap(new int[1]);
+		inOffsets = IntBuffer.wrap(new int[1]);
+		outTargets = IntBuffer.wrap(new int[0]);
+		inTargets = IntBuffer.wrap(new int[0]);
+		ids = LongBuffer.wrap(new long[0]);
+	}
+	
+	public static AdjacencyStore create(IdSpace nodeIDs, EdgeList edges) throws IOException {
+		// the rows are sorted in heap arrays before they are written, so this needs O(n + m) heap
+		// for a moment. network files skip this by copying their adjacency section (see copyOf)
+		int n = nodeIDs.size();
+		
+		// resolve edges to rows, dropping the ones leaving the network
+		int[] from = new int[edges.size];
+		int[] to = new int[edges.size];
+		int count = 0;
+		for (int k = 0; k < edges.size; k++) {
+			int s = nodeIDs.getOrdinal(edges.sources[k]);
+			int t = nodeIDs.getOrdinal(edges.targets[k]);
+			if (s != -1 && t != -1) {
+				from[count] = s;
+				to[count] = t;
+				count++;
+			}
+		}
+		return build(nodeIDs, n, from, to, count);
+	}
+	
+	public AdjacencyStore append(IdSpace nodeIDs, int n, EdgeList edges) throws IOException {
+		// the next version, with the rows up to n and the edges between them it does not have yet.
+		// this version does not change: the edges go to the delta, which the next version shares if
+		// this one is the latest over it, else it gets a copy of the delta edges this one sees
+		Delta d = delta == null ? new Delta() : delta;
+		int added = addedEdges;
+		synchronized (d) {
+			if (d.size() != added)
+				d = d.copy(added);
+			for (int k = 0; k < edges.size; k++) {
+				int s = nodeIDs.getOrdinal(edges.sources[k], n);
+				int t = nodeIDs.getOrdinal(edges.targets[k], n);
+				if (s != -1 && t != -1 && !hasReference(d, s, t)) {
+					d.add(s, t);
+					added++;
+				}
+			}
+		}
+		
+		AdjacencyStore next = new AdjacencyStore(base, added == 0 ? null : d, n, added);
+		if (added >= minCompaction && added > base.edgeCount / 4)
+			return next.compact(nodeIDs);
+		return next;
+	}
+	
+	public AdjacencyStore compact(IdSpace nodeIDs) throws IOException {
+		// the same graph in a file of its own, without a delta; the ids of the rows come from nodeIDs
+		if (delta == null && rowCount == base.nodeCount)
+			return base;
+		int m = getEdgeCount();
+		int[] from = new int[m];
+		int[] to = new int[m];
+		int count = 0;
+		for (int row = 0; row < rowCount; row++) {
+			for (int i = 0; i < getReferenceCount(row); i++) {
+				from[count] = row;
+				to[count] = getReference(row, i);
+				count++;
+			}
+		}
+		return build(nodeIDs, rowCount, from, to, count);
+	}
+	
+	public boolean extendsStore(AdjacencyStore older) {
+		// whether this version was appended over the older one, so that its added edges follow the older's
+		return older.base == base && (older.delta == null || older.delta == delta) 
+				&& older.rowCount <= rowCount && older.addedEdges <= addedEdges;
+	}
+	
+	// edges added over the file, as rows in the order they were added
+	public int getAddedEdgeCount() {
+		return addedEdges;
+	}
+	
+	public int getAddedSource(int e) {
+		return delta.sources.get(e);
+	}
+	
+	public int getAddedTarget(int e) {
+		return delta.targets.get(e);
+	}
+	
+	public static AdjacencyStore copyOf(FileChannel source, long position, int n, int m) throws IOException {
+		// copy an adjacency section between channels without passing it through the heap
+		AdjacencyStore store = createTempStore(n, m);
+		RandomAccessFile raf = new RandomAccessFile(store.file, "rw");
+		try {
+			long size = getFileSize(n, m);
+			FileChannel channel = raf.getChannel();
+			long copied = 0;
+			while (copied < size) {
+				long count = source.transferTo(position + copied, size - copied, channel);
+				if (count <= 0)
+					throw new IOException("Unexpected end of network file");
+				copied += count;
+			}
+		}
+		finally {
+			raf.close();
+		}
+		
+		store.map();
+		return store;
+	}
+	
+	public static AdjacencyStore open(File f, long position, int n, int m) throws IOException {
+		// maps a section of a file in place, the file must not change while the store is used
+		// (NetworkFile.Corpus checks it before each use)
+		AdjacencyStore store = new AdjacencyStore(f, n, m);
+		store.offset = position;
+		store.map();
+		return store;
+	}
+	
+	public static long getFileSize(int n, int m) {
+		return 4L * (2L * (n + 1) + 2L * m) + 8L * n;
+	}
+	
+	public long transferTo(WritableByteChannel target) throws IOException {
+		// the adjacency section of the file, for a store without a delta (see compact)
+		if (delta != null || rowCount != base.nodeCount)
+			throw new IllegalStateException("Compact the store before writing it");
+		if (base != this)
+			return base.transferTo(target);
+		if (file == null) {
+			// empty graph: a single zero offset on each side
+			ByteBuffer bytes = ByteBuffer.allocate(8);
+			while (bytes.hasRemaining())
+				target.write(bytes);
+			return 8;
+		}
+		
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			long size = getFileSize(nodeCount, edgeCount);
+			long copied = 0;
+			while (copied < size)
+				copied += channel.transferTo(offset + copied, size - copied, target);
+			return size;
+		}
+		finally {
+			raf.close();
+		}
+	}
+	
+	public int size() {
+		return rowCount;
+	}
+	
+	public int getEdgeCount() {
+		return base.edgeCount + addedEdges;
+	}
+	
+	public long getID(int row) {
+		// the id column covers the rows written to the file, the network knows the ids of the later ones
+		return base.ids.get(row);
+	}
+	
+	public void addEdgesTo(EdgeList edges, IdSpace nodeIDs) {
+		for (int row = 0; row < rowCount; row++) {
+			long id = nodeIDs.getID(row);
+			for (int i = 0; i < getReferenceCount(row); i++)
+				edges.add(id, nodeIDs.getID(getReference(row, i)));
+		}
+	}
+	
+	// references of the publication at the row, as rows: the ones in the file, then the added ones
+	public int getReferenceCount(int row) {
+		if (row < 0)
+			return 0;
+		int count = base.getRowLength(base.outOffsets, row);
+		return delta == null ? count : count + delta.outRows.getCount(row, addedEdges);
+	}
+	
+	public int getReference(int row, int i) {
+		int count = base.getRowLength(base.outOffsets, row);
+		if (i < count)
+			return base.outTargets.get(base.outOffsets.get(row) + i);
+		return delta.targets.get(delta.outRows.getEdge(row, i - count));
+	}
+	
+	// citations of the publication at the row, as rows
+	public int getCitationCount(int row) {
+		if (row < 0)
+			return 0;
+		int count = base.getRowLength(base.inOffsets, row);
+		return delta == null ? count : count + delta.inRows.getCount(row, addedEdges);
+	}
+	
+	public int getCitation(int row, int i) {
+		int count = base.getRowLength(base.inOffsets, row);
+		if (i < count)
+			return base.inTargets.get(base.inOffsets.get(row) + i);
+		return delta.sources.get(delta.inRows.getEdge(row, i - count));
+	}
+	
+	///////////////////////////////////////////////////////////////////////////////////////////////////////////
+	// private methods
+	private static AdjacencyStore build(IdSpace nodeIDs, int n, int[] from, int[] to, int count) throws IOException {
+		// out edges: bucket by source, then sort and deduplicate each row
+		int[] outOff = new int[n + 1];
+		for (int k = 0; k < count; k++)
+			outOff[from[k] + 1]++;
+		for (int i = 0; i < n; i++)
+			outOff[i + 1] += outOff[i];
+		int[] fill = Arrays.copyOf(outOff, n);
+		int[] outTgt = new int[count];
+		for (int k = 0; k < count; k++)
+			outTgt[fill[from[k]]++] = to[k];
+		
+		int m = 0;
+		int start = 0;
+		for (int i = 0; i < n; i++) {
+			int end = outOff[i + 1];
+			Arrays.sort(outTgt, start, end);
+			int rowStart = m;
+			for (int k = start; k < end; k++) {
+				if (m == rowStart || outTgt[m - 1] != outTgt[k])
+					outTgt[m++] = outTgt[k];
+			}
+			outOff[i] = rowStart;
+			start = end;
+		}
+		outOff[n] = m;
+		
+		// in edges: transpose of the out edges, rows come out sorted
+		int[] inOff = new int[n + 1];
+		for (int k = 0; k < m; k++)
+			inOff[outTgt[k] + 1]++;
+		for (int i = 0; i < n; i++)
+			inOff[i + 1] += inOff[i];
+		fill = Arrays.copyOf(inOff, n);
+		int[] inTgt = new int[m];
+		for (int i = 0; i < n; i++)
+			for (int k = outOff[i]; k < outOff[i + 1]; k++)
+				inTgt[fill[outTgt[k]]++] = i;
+		
+		// write the arrays straight into a new mapped file
+		AdjacencyStore store = createTempStore(n, m);
+		RandomAccessFile raf = new RandomAccessFile(store.file, "rw");
+		try {
+			raf.setLength(getFileSize(n, m));
+			FileChannel channel = raf.getChannel();
+			long pos = 0;
+			pos = putInts(channel, pos, outOff, n + 1);
+			pos = putInts(channel, pos, outTgt, m);
+			pos = putInts(channel, pos, inOff, n + 1);
+			pos = putInts(channel, pos, inTgt, m);
+			LongBuffer idColumn = channel.map(FileChannel.MapMode.READ_WRITE, pos, checkSize(8L * n)).asLongBuffer();
+			for (int i = 0; i < n; i++)
+				idColumn.put(nodeIDs.getID(i));
+		}
+		finally {
+			raf.close();
+		}
+		
+		store.map();
+		return store;
+	}
+	
+	private AdjacencyStore(File f, int n, int m) {
+		file = f;
+		nodeCount = n;
+		edgeCount = m;
+		rowCount = n;
+	}
+	
+	private AdjacencyStore(AdjacencyStore base, Delta delta, int rows, int added) {
+		// a version over the file of base
+		this.base = base;
+		this.delta = delta;
+		rowCount = rows;
+		addedEdges = added;
+	}
+	
+	private int getRowLength(IntBuffer offsets, int row) {
+		return row < nodeCount ? offsets.get(row + 1) - offsets.get(row) : 0;
+	}
+	
+	private boolean hasReference(Delta d, int from, int to) {
+		// in the file, where rows are sorted, or among all the edges of the delta
+		if (from < base.nodeCount) {
+			int lo = base.outOffsets.get(from), hi = base.outOffsets.get(from + 1);
+			while (lo < hi) {
+				int mid = (lo + hi) >>> 1;
+				int target = base.outTargets.get(mid);
+				if (target == to)
+					return true;
+				if (target < to)
+					lo = mid + 1;
+				else
+					hi = mid;
+			}
+		}
+		int count = d.outRows.getCount(from, d.size());
+		for (int i = 0; i < count; i++)
+			if (d.targets.get(d.outRows.getEdge(from, i)) == to)
+				return true;
+		return false;
+	}
+	
+	private static AdjacencyStore createTempStore(int n, int m) throws IOException {
+		deleteReleasedFiles();
+		AdjacencyStore store = new AdjacencyStore(File.createTempFile("pivotslice", ".csr"), n, m);
+		synchronized (storeFiles) {
+			storeFiles.add(new StoreFile(store));
+		}
+		return store;
+	}
+	
+	private static void deleteReleasedFiles() {
+		synchronized (storeFiles) {
+			Reference<? extends AdjacencyStore> ref;
+			while ((ref = releasedStores.poll()) != null) {
+				storeFiles.remove(ref);
+				undeletedFiles.add(((StoreFile)ref).file);
+			}
+			
+			// the mappings of a released store go away with its buffers, and on some platforms
+			// the file cannot be deleted before that, so failed deletes are retried next time
+			Iterator<File> iter = undeletedFiles.iterator();
+			while (iter.hasNext()) {
+				File f = iter.next();
+				if (f.delete() || !f.exists())
+					iter.remove();
+			}
+		}
+	}
+	
+	private static long putInts(FileChannel channel, long pos, int[] values, int length) throws IOException {
+		long size = checkSize(4L * length);
+		channel.map(FileChannel.MapMode.READ_WRITE, pos, size).asIntBuffer().put(values, 0, length);
+		return pos + size;
+	}
+	
+	private static long checkSize(long size) throws IOException {
+		if (size > Integer.MAX_VALUE)
+			throw new IOException("Citation graph too large to map");
+		return size;
+	}
+	
+	private void map() throws IOException {
+		int n = nodeCount, m = edgeCount;
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			// the mappings stay valid after the channel is closed
+			FileChannel channel = raf.getChannel();
+			long pos = offset;
+			outOffsets = mapRegion(channel, pos, 4L * (n + 1)).asIntBuffer();
+			pos += 4L * (n + 1);
+			outTargets = mapRegion(channel, pos, 4L * m).asIntBuffer();
+			pos += 4L * m;
+			inOffsets = mapRegion(channel, pos, 4L * (n + 1)).asIntBuffer();
+			pos += 4L * (n + 1);
+			inTargets = mapRegion(channel, pos, 4L * m).asIntBuffer();
+			pos += 4L * m;
+			ids = mapRegion(channel, pos, 8L * n).asLongBuffer();
+		}
+		finally {
+			raf.close();
+		}
+	}
+	
+	private static MappedByteBuffer mapRegion(FileChannel channel, long pos, long size) throws IOException {
+		return channel.map(FileChannel.MapMode.READ_ONLY, pos, checkSize(size));
+	}
+	
+	///////////////////////////////////////////////////////////////////////////////////////////////////////////
+	// inner classes
+	private static class Delta {
+		// the edges added over a file in the order they were added, and the edges leaving and
+		// entering each row. one writer appends at a time, and a version sees the first edges
+		private final AppendLog.Ints sources = new AppendLog.Ints();
+		private final AppendLog.Ints targets = new AppendLog.Ints();
+		private final Rows outRows = new Rows();
+		private final Rows inRows = new Rows();
+		
+		public int size() {
+			return sources.size();
+		}
+		
+		public void add(int from, int to) {
+			int e = sources.add(from);
+			targets.add(to);
+			outRows.add(from, e);
+			inRows.add(to, e);
+		}
+		
+		public Delta copy(int edges) {
+			// the first edges, for a version that is not the latest
+			Delta d = new Delta();
+			for (int e = 0; e < edges; e++)
+				d.add(sources.get(e), targets.get(e));
+			return d;
+		}
+	}
+	
+	private static class Rows {
+		// the edges of each row as edge + 1 in the order they were added, followed by zeros. a row is
+		// copied when it grows, so a reader sees at least the edges added before its version was published,
+		// and any later ones it sees are greater than its edge count or still zero
+		private volatile int[][] lists = new int[16][];
+		private int[] fill = new int[16];
+		
+		public int getCount(int row, int edges) {
+			// the edges of the row below the count
+			int[][] l = lists;
+			int[] list = row < l.length ? l[row] : null;
+			if (list == null)
+				return 0;
+			int lo = 0, hi = list.length;
+			while (lo < hi) {
+				int mid = (lo + hi) >>> 1;
+				if (list[mid] != 0 && list[mid] <= edges)
+					lo = mid + 1;
+				else
+					hi = mid;
+			}
+			return lo;
+		}
+		
+		public int getEdge(int row, int i) {
+			return lists[row][i] - 1;
+		}
+		
+		public void add(int row, int e) {
+			int[][] l = lists;
+			if (row >= l.length) {
+				l = Arrays.copyOf(l, Math.max(row + 1, l.length * 2));
+				fill = Arrays.copyOf(fill, l.length);
+			}
+			int[] list = l[row];
+			int n = fill[row];
+			if (list == null)
+				list = new int[2];
+			else if (n == list.length)
+				list = Arrays.copyOf(list, n * 2);
+			list[n] = e + 1;
+			fill[row] = n + 1;
+			l[row] = list;
+			lists = l;
+		}
+	}
+	
+	private static class StoreFile extends PhantomReference<AdjacencyStore> {
+		private final File file;
+		
+		public StoreFile(AdjacencyStore store) {
+			super(store, releasedStores);
+			file = store.file;
+		}
+	}
+	
+	public static class EdgeList {
+		// growable list of (publication, reference) id pairs used to build a store
+		private long[] sources = new long[16];
+		private long[] targets = new long[16];
+		private int size;
+		
+		public void add(long from, long to) {
+			if (size == sources.length) {
+				sources = Arrays.copyOf(sources, size * 2);
+				targets = Arrays.copyOf(targets, size * 2);
+			}
+			sources[size] = from;
+			targets[size] = to;
+			size++;
+		}
+		
+		public void addAll(EdgeList edges) {
+			for (int k = 0; k < edges.size; k++)
+				add(edges.sources[k], edges.targets[k]);
+		}
+		
+		public int size() {
+			return size;
+		}
+	}
+}
@@ -0,0 +1,89 @@
+package pivotslice;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+
+public class AppendLog<T> {
+	
+	// a list shared by the versions of a network: one writer at a time appends to it, and each version
+	// reads the entries below its own size while the later versions append after them. growing copies
+	// the array and sets it through a volatile field, so a reader that got a version sees its entries
+	
+	private volatile Object[] items = new Object[16];
+	private int size;
+	
+	///////////////////////////////////////////////////////////////////////////////////////////////////////////
+	// public methods
+	public int add(T item) {
+		if (size == items.length)
+			items = Arrays.copyOf(items, size * 2);
+		items[size] = item;
+		return size++;
+	}
+	
+	@SuppressWarnings("unchecked")
+	public T get(int index) {
+		return (T) items[index];
+	}
+	
+	// number of entries appended, for the writer
+	public int size() {
+		return size;
+	}
+	
+	public AppendLog<T> copy(int length) {
+		// the first entries in a log of their own
+		AppendLog<T> log = new AppendLog<T>();
+		log.items = Arrays.copyOf(items, Math.max(length, 16));
+		log.size = length;
+		return log;
+	}
+	
+	public List<T> asList(final int length) {
+		// the first entries, as a version sees them
+		return new AbstractList<T>() {
+			@Override
+			public T get(int index) {
+				if (index >= length)
+					throw new IndexOutOfBoundsException(String.valueOf(index));
+				return AppendLog.this.get(index);
+			}
+			
+			@Override
+			public int size() {
+				return length;
+			}
+		};
+	}
+	
+	///////////////////////////////////////////////////////////////////////////////////////////////////////////
+	// inner classes
+	public static class Ints {
+		// the same for int entries
+		private volatile int[] values = new int[16];
+		private int size;
+		
+		public int add(int value) {
+			if (size == values.length)
+				values = Arrays.copyOf(values, size * 2);
+			values[size] = value;
+			return size++;
+		}
+		
+		public int get(int index) {
+			return values[index];
+		}
+		
+		public int size() {
+			return size;
+		}
+		
+		public Ints copy(int length) {
+			Ints log = new Ints();
+			log.values = Arrays.copyOf(values, Math.max(length, 16));
+			log.size = length;
+			return log;
+		}
+	}
+}
@@ -0,0 +1,100 @@
+package pivotslice;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.microsoft.research.Publication;
+
+public class CachingBackend implements PublicationBackend {
+	
+	// answers the queries asked before from a query cache on disk, and the others from the backend it
+	// wraps, whose answers go into the cache. offline, the backend is not asked at all: answers are
+	// returned however old, and a query missing from the cache has no results. a session whose queries
+	// were cached is so replayed without the web service
+	
+	private final PublicationBackend backend;
+	private final QueryCache cache;
+	private volatile boolean offline;
+	private final AtomicBoolean writeFailed = new AtomicBoolean();		// the cache is no longer written to
+	
+	///////////////////////////////////////////////////////////////////////////////////////////////////////////
+	// public methods
+	public CachingBackend(PublicationBackend backend, QueryCache cache) {
+		this.backend = backend;
+		this.cache = cache;
+	}
+	
+	public PublicationBackend getBackend() {
+		return backend;
+	}
+	
+	public QueryCache getCache() {
+		return cache;
+	}
+	
+	public boolean isOffline() {
+		return offline;
+	}
+	
+	public void setOffline(boolean offline) {
+		this.offline = offline;
+	}
+	
+	public boolean hasWriteFailed() {
+		return writeFailed.get();
+	}
+	
+	@Override
+	public List<Publication> search(String text, int start, int end) throws Exception {
+		String key = "search " + start + "-" + end + " " + text;
+		List<Publication> result = cache.get(key, offline);
+		if (result == null) {
+			if (offline)
+				return Collections.emptyList();
+			result = backend.search(text, start, end);
+			put(key, result);
+		}
+		return result;
+	}
+	
+	@Override
+	public List<Publication> getCitations(Publication pub, int start, int end) throws Exception {
+		return getRelated(pub, true, start, end);
+	}
+	
+	@Override
+	public List<Publication> getReferences(Publication pub, int start, int end) throws Exception {
+		return getRelated(pub, false, start, end);
+	}
+	
+	///////////////////////////////////////////////////////////////////////////////////////////////////////////
+	// private methods
+	private List<Publication> getRelated(Publication pub, boolean citations, int start, int end) throws Exception {
+		String key = (citations ? "citations " : "references ") + start + "-" + end + " " + pub.getID();
+		List<Publication> result = cache.get(key, offline);
+		if (result == null) {
+			if (offline)
+				return Collections.emptyList();
+			result = citations ? backend.getCitations(pub, start, end) : backend.getReferences(pub, start, end);
+			put(key, result);
+		}
+		return result;
+	}
+	
+	private void put(String key, List<Publication> result) {
+		// a cache failing to write is no reason to fail the query. it would most likely fail again, full
+		// or closed, so the first failure is reported and the answers after it are no longer cached
+		if (writeFailed.get())
+			return;
+		try {
+			cache.put(key, result);
+		} catch (IOException e) {
+			if (writeFailed.compareAndSet(false, true)) {
+				System.err.println("Query cache no longer written to: " + e);
+				e.printStackTrace();
+			}
+		}
+	}
+}
@@ -0,0 +1,584 @@
+package pivotslice;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+public class CompressedBitmap implements Serializable, Cloneable {
+	private static final long serialVersionUID = -6042317780964523301L;
+	
+	// a set of non-negative ints split into chunks of 65536 by their high 16 bits (Roaring layout).
+	// each chunk is stored in whichever container is smallest for its content:
+	// a sorted array for sparse chunks, a 1024-word bitmap for dense ones, or a list of runs.
+	// set operations follow java.util.BitSet and modify this bitmap in place
+	
+	private static final int maxArraySize = 4096;
+	private static final int bitmapWords = 1024;
+	
+	private char[] keys = new char[4];
+	private Container[] containers = new Container[4];
+	private int size;
+	
+	///////////////////////////////////////////////////////////////////////////////////////////////////////////
+	// public methods
+	public static CompressedBitmap range(int start, int end) {
+		// [start, end) as run containers
+		CompressedBitmap bitmap = new CompressedBitmap();
+		int x = start;
+		while (x < end) {
+			int chunkEnd = Math.min(end, ((x >>> 16) + 1) << 16);
+			RunContainer run = new RunContainer();
+			run.addRun(x & 0xFFFF, chunkEnd - x);
+			bitmap.insert(bitmap.size, (char) (x >>> 16), run);
+			x = chunkEnd;
+		}
+		return bitmap;
+	}
+	
+	public void add(int x) {
+		char key = (char) (x >>> 16);
+		int i = (size > 0 && keys[size - 1] == key) ? size - 1 : findKey(key);
+		if (i < 0) {
+			i = -i - 1;
+			insert(i, key, new ArrayContainer());
+		}
+		containers[i] = containers[i].add((char) x);
+	}
+	
+	public boolean contains(int x) {
+		if (x < 0)
+			return false;
+		int i = findKey((char) (x >>> 16));
+		return i >= 0 && containers[i].contains((char) x);
+	}
+	
+	public int nextSetBit(int from) {
+		// the first member not less than from, or -1; iterate with
+		// for (int i = bitmap.nextSetBit(0); i >= 0; i = bitmap.nextSetBit(i + 1))
+		if (from < 0)
+			from = 0;
+		int i = findKey((char) (from >>> 16));
+		int low = from & 0xFFFF;
+		if (i < 0) {
+			i = -i - 1;
+			low = 0;
+		}
+		for (; i < size; i++) {
+			int v = containers[i].nextSetBit(low);
+			if (v >= 0)
+				return (keys[i] << 16) | v;
+			low = 0;
+		}
+		return -1;
+	}
+	
+	public int cardinality() {
+		int card = 0;
+		for (int i = 0; i < size; i++)
+			card += containers[i].cardinality();
+		return card;
+	}
+	
+	public boolean isEmpty() {
+		return size == 0;
+	}
+	
+	public int[] toArray() {
+		int[] values = new int[cardinality()];
+		int n = 0;
+		for (int i = 0; i < size; i++)
+			n = containers[i].fill(values, n, keys[i] << 16);
+		return values;
+	}
+	
+	public void and(CompressedBitmap other) {
+		int n = 0;
+		for (int i = 0; i < size; i++) {
+			int j = other.findKey(keys[i]);
+			if (j < 0)
+				continue;
+			Container c = containers[i].and(other.containers[j]);
+			if (c != null) {
+				keys[n] = keys[i];
+				containers[n++] = c;
+			}
+		}
+		truncate(n);
+	}
+	
+	public void andNot(CompressedBitmap other) {
+		int n = 0;
+		for (int i = 0; i < size; i++) {
+			int j = other.findKey(keys[i]);
+			Container c = j < 0 ? containers[i] : containers[i].andNot(other.containers[j]);
+			if (c != null) {
+				keys[n] = keys[i];
+				containers[n++] = c;
+			}
+		}
+		truncate(n);
+	}
+	
+	public void or(CompressedBitmap other) {
+		for (int j = 0; j < other.size; j++) {
+			int i = findKey(other.keys[j]);
+			if (i < 0)
+				insert(-i - 1, other.keys[j], other.containers[j].copy());
+			else
+				containers[i] = containers[i].or(other.containers[j]);
+		}
+	}
+	
+	public void xor(CompressedBitmap other) {
+		for (int j = 0; j < other.size; j++) {
+			int i = findKey(other.keys[j]);
+			if (i < 0)
+				insert(-i - 1, other.keys[j], other.containers[j].copy());
+			else {
+				Container c = containers[i].xor(other.containers[j]);
+				if (c == null)
+					remove(i);
+				else
+					containers[i] = c;
+			}
+		}
+	}
+	
+	@Override
+	public CompressedBitmap clone() {
+		CompressedBitmap bitmap = new CompressedBitmap();
+		bitmap.keys = Arrays.copyOf(keys, Math.max(size, 1));
+		bitmap.containers = new Container[bitmap.keys.length];
+		for (int i = 0; i < size; i++)
+			bitmap.containers[i] = containers[i].copy();
+		bitmap.size = size;
+		return bitmap;
+	}
+	
+	@Override
+	public boolean equals(Object o) {
+		if (!(o instanceof CompressedBitmap))
+			return false;
+		CompressedBitmap other = (CompressedBitmap) o;
+		if (size != other.size)
+			return false;
+		for (int i = 0; i < size; i++) {
+			if (keys[i] != other.keys[i] || containers[i].cardinality() != other.containers[i].cardinality())
+				return false;
+			if (!Arrays.equals(containers[i].toWords(), other.containers[i].toWords()))
+				return false;
+		}
+		return true;
+	}
+	
+	@Override
+	public int hashCode() {
+		int h = 0;
+		for (int i = 0; i < size; i++)
+			h = 31 * h + keys[i] * 17 + containers[i].cardinality();
+		return h;
+	}
+	
+	///////////////////////////////////////////////////////////////////////////////////////////////////////////
+	// private methods
+	private int findKey(char key) {
+		return Arrays.binarySearch(keys, 0, size, key);
+	}
+	
+	private void insert(int i, char key, Container c) {
+		if (size == keys.length) {
+			keys = Arrays.copyOf(keys, size * 2);
+			containers = Arrays.copyOf(containers, size * 2);
+		}
+		System.arraycopy(keys, i, keys, i + 1, size - i);
+		System.arraycopy(containers, i, containers, i + 1, size - i);
+		keys[i] = key;
+		containers[i] = c;
+		size++;
+	}
+	
+	private void remove(int i) {
+		System.arraycopy(keys, i + 1, keys, i, size - i - 1);
+		System.arraycopy(containers, i + 1, containers, i, size - i - 1);
+		containers[--size] = null;
+	}
+	
+	private void truncate(int n) {
+		for (int i = n; i < size; i++)
+			containers[i] = null;
+		size = n;
+	}
+	
+	private static Container fromWords(long[] words) {
+		// pick the smallest container for the chunk, null if it is empty
+		int card = 0;
+		int runs = 0;
+		long carry = 0;
+		for (long w : words) {
+			card += Long.bitCount(w);
+			runs += Long.bitCount(w & ~((w << 1) | carry));
+			carry = w >>> 63;
+		}
+		if (card == 0)
+			return null;
+		
+		if (runs * 4 < Math.min(card * 2, bitmapWords * 8)) {
+			RunContainer run = new RunContainer();
+			int start = nextBit(words, 0, true);
+			while (start >= 0) {
+				int end = nextBit(words, start, false);
+				run.addRun(start, end - start);
+				start = nextBit(words, end, true);
+			}
+			return run;
+		}
+		else if (card <= maxArraySize) {
+			ArrayContainer array = new ArrayContainer();
+			array.values = new char[card];
+			for (int k = 0; k < bitmapWords; k++) {
+				long w = words[k];
+				while (w != 0) {
+					array.values[array.size++] = (char) (k * 64 + Long.numberOfTrailingZeros(w));
+					w &= w - 1;
+				}
+			}
+			return array;
+		}
+		else {
+			BitmapContainer bitmap = new BitmapContainer();
+			bitmap.words = words;
+			bitmap.card = card;
+			return bitmap;
+		}
+	}
+	
+	private static int nextBit(long[] words, int from, boolean set) {
+		// the next set (or clear) bit at or after from; a clear search ends at the chunk size
+		int k = from >>> 6;
+		if (k >= bitmapWords)
+			return set ? -1 : bitmapWords * 64;
+		long w = (set ? words[k] : ~words[k]) & (-1L << from);
+		while (w == 0) {
+			if (++k == bitmapWords)
+				return set ? -1 : bitmapWords * 64;
+			w = set ? words[k] : ~words[k];
+		}
+		return k * 64 + Long.numberOfTrailingZeros(w);
+	}
+	
+	///////////////////////////////////////////////////////////////////////////////////////////////////////////
+	// inner classes
+	private static abstract class Container implements Serializable {
+		private static final long serialVersionUID = 3371569082410917744L;
+		
+		public abstract Container add(char x);
+		public abstract boolean contains(char x);
+		public abstract int nextSetBit(int from);
+		public abstract int cardinality();
+		public abstract int fill(int[] out, int pos, int high);
+		public abstract long[] toWords();
+		public abstract Container copy();
+		
+		public Container and(Container other) {
+			if (other instanceof ArrayContainer)
+				return other.and(this);
+			long[] w = toWords();
+			long[] o = other.toWords();
+			for (int k = 0; k < bitmapWords; k++)
+				w[k] &= o[k];
+			return fromWords(w);
+		}
+		
+		public Container andNot(Container other) {
+			long[] w = toWords();
+			long[] o = other.toWords();
+			for (int k = 0; k < bitmapWords; k++)
+				w[k] &= ~o[k];
+			return fromWords(w);
+		}
+		
+		public Container or(Container other) {
+			long[] w = toWords();
+			long[] o = other.toWords();
+			for (int k = 0; k < bitmapWords; k++)
+				w[k] |= o[k];
+			return fromWords(w);
+		}
+		
+		public Container xor(Container other) {
+			long[] w = toWords();
+			long[] o = other.toWords();
+			for (int k = 0; k < bitmapWords; k++)
+				w[k] ^= o[k];
+			return fromWords(w);
+		}
+	}
+	
+	private static class ArrayContainer extends Container {
+		private static final long serialVersionUID = -2370364727926113361L;
+		
+		private char[] values = new char[4];
+		private int size;
+		
+		@Override
+		public Container add(char x) {
+			int i = (size > 0 && values[size - 1] < x) ? -size - 1 : Arrays.binarySearch(values, 0, size, x);
+			if (i >= 0)
+				return this;
+			if (size == maxArraySize) {
+				BitmapContainer bitmap = new BitmapContainer();
+				bitmap.words = toWords();
+				bitmap.card = size;
+				return bitmap.add(x);
+			}
+			i = -i - 1;
+			if (size == values.length)
+				values = Arrays.copyOf(values, Math.min(size * 2, maxArraySize));
+			System.arraycopy(values, i, values, i + 1, size - i);
+			values[i] = x;
+			size++;
+			return this;
+		}
+		
+		@Override
+		public boolean contains(char x) {
+			return Arrays.binarySearch(values, 0, size, x) >= 0;
+		}
+		
+		@Override
+		public int nextSetBit(int from) {
+			int i = Arrays.binarySearch(values, 0, size, (char) from);
+			if (i < 0)
+				i = -i - 1;
+			return i < size ? values[i] : -1;
+		}
+		
+		@Override
+		public int cardinality() {
+			return size;
+		}
+		
+		@Override
+		public int fill(int[] out, int pos, int high) {
+			for (int i = 0; i < size; i++)
+				out[pos++] = high | values[i];
+			return pos;
+		}
+		
+		@Override
+		public long[] toWords() {
+			long[] words = new long[bitmapWords];
+			for (int i = 0; i < size; i++)
+				words[values[i] >>> 6] |= 1L << values[i];
+			return words;
+		}
+		
+		@Override
+		public Container copy() {
+			ArrayContainer array = new ArrayContainer();
+			array.values = Arrays.copyOf(values, Math.max(size, 1));
+			array.size = size;
+			return array;
+		}
+		
+		@Override
+		public Container and(Container other) {
+			// probe the small side
+			ArrayContainer array = new ArrayContainer();
+			array.values = new char[Math.max(size, 1)];
+			for (int i = 0; i < size; i++)
+				if (other.contains(values[i]))
+					array.values[array.size++] = values[i];
+			return array.size == 0 ? null : array;
+		}
+		
+		@Override
+		public Container andNot(Container other) {
+			ArrayContainer array = new ArrayContainer();
+			array.values = new char[Math.max(size, 1)];
+			for (int i = 0; i < size; i++)
+				if (!other.contains(values[i]))
+					array.values[array.size++] = values[i];
+			return array.size == 0 ? null : array;
+		}
+		
+		@Override
+		public Container or(Container other) {
+			if (!(other instanceof ArrayContainer) || size + other.cardinality() > maxArraySize)
+				return super.or(other);
+			
+			// merge two sorted arrays
+			ArrayContainer o = (ArrayContainer) other;
+			ArrayContainer array = new ArrayContainer();
+			array.values = new char[size + o.size];
+			int i = 0, j = 0;
+			while (i < size || j < o.size) {
+				char v;
+				if (j == o.size || (i < size && values[i] < o.values[j]))
+					v = values[i++];
+				else if (i == size || o.values[j] < values[i])
+					v = o.values[j++];
+				else {
+					v = values[i++];
+					j++;
+				}
+				array.values[array.size++] = v;
+			}
+			return array;
+		}
+	}
+	
+	private static class BitmapContainer extends Container {
+		private static final long serialVersionUID = 8850457722317394925L;
+		
+		private long[] words = new long[bitmapWords];
+		private int card;
+		
+		@Override
+		public Container add(char x) {
+			long bit = 1L << x;
+			if ((words[x >>> 6] & bit) == 0) {
+				words[x >>> 6] |= bit;
+				card++;
+			}
+			return this;
+		}
+		
+		@Override
+		public boolean contains(char x) {
+			return (words[x >>> 6] & (1L << x)) != 0;
+		}
+		
+		@Override
+		public int nextSetBit(int from) {
+			int k = from >>> 6;
+			if (k >= bitmapWords)
+				return -1;
+			long w = words[k] & (-1L << from);
+			while (true) {
+				if (w != 0)
+					return k * 64 + Long.numberOfTrailingZeros(w);
+				if (++k == bitmapWords)
+					return -1;
+				w = words[k];
+			}
+		}
+		
+		@Override
+		public int cardinality() {
+			return card;
+		}
+		
+		@Override
+		public int fill(int[] out, int pos, int high) {
+			for (int k = 0; k < bitmapWords; k++) {
+				long w = words[k];
+				while (w != 0) {
+					out[pos++] = high | (k * 64 + Long.numberOfTrailingZeros(w));
+					w &= w - 1;
+				}
+			}
+			return pos;
+		}
+		
+		@Override
+		public long[] toWords() {
+			return words.clone();
+		}
+		
+		@Override
+		public Container copy() {
+			BitmapContainer bitmap = new BitmapContainer();
+			bitmap.words = words.clone();
+			bitmap.card = card;
+			return bitmap;
+		}
+	}
+	
+	private static class RunContainer extends Container {
+		private static final long serialVersionUID = -4658012307468893735L;
+		
+		private char[] starts = new char[2];
+		private char[] lengths = new char[2];		// run length - 1
+		private int runs;
+		
+		public void addRun(int start, int length) {
+			if (runs == starts.length) {
+				starts = Arrays.copyOf(starts, runs * 2);
+				lengths = Arrays.copyOf(lengths, runs * 2);
+			}
+			starts[runs] = (char) start;
+			lengths[runs] = (char) (length - 1);
+			runs++;
+		}
+		
+		@Override
+		public Container add(char x) {
+			if (contains(x))
+				return this;
+			long[] words = toWords();
+			words[x >>> 6] |= 1L << x;
+			return fromWords(words);
+		}
+		
+		@Override
+		public boolean contains(char x) {
+			int i = findRun(x);
+			return i >= 0 && x <= starts[i] + lengths[i];
+		}
+		
+		@Override
+		public int nextSetBit(int from) {
+			int i = findRun(from);
+			if (i >= 0 && from <= starts[i] + lengths[i])
+				return from;
+			return i + 1 < runs ? starts[i + 1] : -1;
+		}
+		
+		@Override
+		public int cardinality() {
+			int card = 0;
+			for (int i = 0; i < runs; i++)
+				card += lengths[i] + 1;
+			return card;
+		}
+		
+		@Override
+		public int fill(int[] out, int pos, int high) {
+			for (int i = 0; i < runs; i++)
+				for (int v = starts[i]; v <= starts[i] + lengths[i]; v++)
+					out[pos++] = high | v;
+			return pos;
+		}
+		
+		@Override
+		public long[] toWords() {
+			long[] words = new long[bitmapWords];
+			for (int i = 0; i < runs; i++)
+				for (int v = starts[i]; v <= starts[i] + lengths[i]; v++)
+					words[v >>> 6] |= 1L << v;
+			return words;
+		}
+		
+		@Override
+		public Container copy() {
+			RunContainer run = new RunContainer();
+			run.starts = Arrays.copyOf(starts, Math.max(runs, 1));
+			run.lengths = Arrays.copyOf(lengths, Math.max(runs, 1));
+			run.runs = runs;
+			return run;
+		}
+		
+		private int findRun(int x) {
+			// index of the last run starting at or before x, -1 if none
+			int lo = 0, hi = runs - 1;
+			while (lo <= hi) {
+				int mid = (lo + hi) >>> 1;
+				if (starts[mid] <= x)
+					lo = mid + 1;
+				else
+					hi = mid - 1;
+			}
+			return hi;
+		}
+	}
+}
@@ -23,6 +23,7 @@ import java.io.IOException;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 
@@ -90,8 +91,9 @@ public class Constraint extends JPanel implements ComponentListener, MouseListen
 	
 	public void mergeConstraintData(ConstraintData newdata) {
 		if (constrData.getFacetType() == Facet.FacetType.CATEGORICAL) {
+			HashSet<Long> values = new HashSet<Long>(constrData.valueIDs);
 			for (Long val : newdata.valueIDs) {
-				if (!constrData.valueIDs.contains(val))
+				if (values.add(val))
 					constrData.valueIDs.add(val);
 			}
 		}
@@ -107,21 +109,20 @@ public class Constraint extends JPanel implements ComponentListener, MouseListen
 	}
 	
 	public boolean satisfyConstraint(Publication pub) {
-		if (constrData.isEmptyConstraint())
-			return true;
-		else {
-			if (constrData.getFacetType() == Facet.FacetType.CATEGORICAL) {
-				for (Long id : Facet.getCategoricalFacetValueIDs(pub, constrData.facetID))
-					if (constrData.valueIDs.contains(id))
-						return true;
-			}
-			else {
-				int val = Facet.getNumericalFacetValue(pub, constrData.facetID);
-				return constrData.fromValue <= val && constrData.toValue >= val; 
-			}
-		}
-		
-		return false;
+		// for a single publication; compile once with getPredicate to test many
+		PublicationPredicate predicate = getPredicate();
+		return predicate == null || predicate.test(PivotSlice.dataSource.getNetwork().getOrdinal(pub));
+	}
+	
+	public PublicationPredicate getPredicate() {
+		// null if the constraint accepts all
+		return constrData.compile(PivotSlice.dataSource.getFacetIndex());
+	}
+	
+	public CompressedBitmap getPublicationSet() {
+		// ordinals of the publications satisfying the constraint, null if it accepts all
+		PublicationPredicate predicate = getPredicate();
+		return predicate == null ? null : predicate.select();
 	}
 	
 	public void layoutVisual() {	
@@ -383,6 +384,16 @@ public class Constraint extends JPanel implements ComponentListener, MouseListen
 				return fromValue == -1 && toValue == -1; 
 		}
 		
+		public PublicationPredicate compile(FacetIndex index) {
+			// null if the constraint accepts all
+			if (isEmptyConstraint())
+				return null;
+			if (getFacetType() == Facet.FacetType.CATEGORICAL)
+				return new PublicationPredicate.Categorical(index, facetID, valueIDs);
+			else
+				return new PublicationPredicate.Range(index, facetID, fromValue, toValue);
+		}
+		
 		public Facet.FacetType getFacetType() {
 			return Facet.getFacetType(facetID);
 		}
@@ -0,0 +1,226 @@
+package pivotslice;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import com.microsoft.research.Publication;
+
+public class CrawlScheduler implements FetchEngine.Receiver {
+	
+	// expands the citation graph several hops out from seed publications as a single job. a hop asks for
+	// the relationships of the publications the previous hop added, up to a result limit each in pages
+	// fetched concurrently, and the publications reached that the network does not have join the frontier.
+	// the frontier is a priority queue, by citation count or by links to the network, ordered when a hop
+	// takes from it as the links grow while the answers arrive. a hop adds the best of the frontier within
+	// its budget and what is left of the global budget, and asks for both relationships of what it adds, so
+	// these are linked to the whole network; the publications of the last hop are asked for the same reason.
+	// pausing holds the crawl once the queries in flight have returned, resuming goes on from there
+	
+	public static enum Priority {CITATIONS, LINKS};
+	
+	public static final int defaultHops = 2;
+	public static final int defaultBudget = 50000;
+	public static final int defaultResultLimit = 1000;
+	
+	private final DataSource dataSource;
+	private final List<Publication> seeds;
+	private final boolean citations, references;		// the relationships crawled
+	private int hops = defaultHops;
+	private Priority priority = Priority.CITATIONS;
+	private int budget = defaultBudget;
+	private int hopBudget = Integer.MAX_VALUE;
+	private int resultLimit = defaultResultLimit;
+	
+	private final HashMap<Long, Candidate> frontier = new HashMap<Long, Candidate>();
+	private DataSource.Ingest ingest;
+	private boolean reaching;		// the answers add to the frontier
+	private volatile int hop, added;
+	private boolean paused;
+	
+	///////////////////////////////////////////////////////////////////////////////////////////////////////////
+	// public methods
+	public CrawlScheduler(DataSource dataSource, Collection<Publication> seeds, boolean citations, boolean references) {
+		this.dataSource = dataSource;
+		this.seeds = new ArrayList<Publication>(seeds);
+		this.citations = citations;
+		this.references = references;
+	}
+	
+	public void setHops(int hops) {
+		this.hops = hops;
+	}
+	
+	public void setPriority(Priority priority) {
+		this.priority = priority;
+	}
+	
+	public void setBudget(int budget) {
+		this.budget = budget;
+	}
+	
+	public void setHopBudget(int hopBudget) {
+		this.hopBudget = hopBudget;
+	}
+	
+	public void setResultLimit(int resultLimit) {
+		this.resultLimit = resultLimit;
+	}
+	
+	public int getHop() {
+		return hop;
+	}
+	
+	public int getAdded() {
+		return added;
+	}
+	
+	public synchronized boolean isPaused() {
+		return paused;
+	}
+	
+	public synchronized void setPaused(boolean paused) {
+		this.paused = paused;
+		notifyAll();
+	}
+	
+	public void run(DataSource.NetworkListener listener, DataSource.ProgressTask task) throws IOException {
+		// one step for each hop and one to link the last; the seeds are only asked for the relationships crawled
+		ingest = dataSource.ingest(listener);
+		List<Publication> expanding = seeds;
+		for (hop = 1; hop <= hops && !expanding.isEmpty(); hop++) {
+			reaching = true;
+			dataSource.fetchRelated(expanding, citations || hop > 1, references || hop > 1, resultLimit, this,
+					new StepProgress(task, hop - 1, hops + 1));
+			expanding = admit(Math.min(hopBudget, budget - added));
+		}
+		
+		reaching = false;
+		dataSource.fetchRelated(expanding, true, true, resultLimit, this, new StepProgress(task, hops, hops + 1));
+		ingest.flush();
+	}
+	
+	@Override
+	public void receive(Publication pub, boolean citations, List<Publication> related) throws IOException {
+		waitWhilePaused();
+		DataSource.Network network = dataSource.getNetwork();
+		boolean crawled = reaching && (citations ? this.citations : this.references);
+		for (Publication other : related) {
+			long from = citations ? other.getID() : pub.getID();
+			long to = citations ? pub.getID() : other.getID();
+			if (network.containsPublication(other.getID())) {
+				ingest.addEdge(from, to);
+				continue;
+			}
+			
+			// edges to the frontier wait until their publication is added
+			Candidate candidate = frontier.get(other.getID());
+			if (candidate == null) {
+				if (!crawled)
+					continue;
+				candidate = new Candidate(other);
+				frontier.put(other.getID(), candidate);
+			}
+			candidate.addEdge(from, to);
+		}
+		ingest.flushIfDue();
+	}
+	
+	///////////////////////////////////////////////////////////////////////////////////////////////////////////
+	// private methods
+	private List<Publication> admit(int count) throws IOException {
+		// the best of the frontier, with their edges to the network, published before they are expanded
+		PriorityQueue<Candidate> queue = new PriorityQueue<Candidate>(frontier.values());
+		List<Publication> admitted = new ArrayList<Publication>();
+		while (admitted.size() < count && !queue.isEmpty()) {
+			Candidate candidate = queue.poll();
+			frontier.remove(candidate.pub.getID());
+			ingest.add(candidate.pub);
+			for (int i = 0; i < candidate.links; i++)
+				ingest.addEdge(candidate.edges[2 * i], candidate.edges[2 * i + 1]);
+			admitted.add(candidate.pub);
+		}
+		ingest.flush();
+		added += admitted.size();
+		return admitted;
+	}
+	
+	private void waitWhilePaused() throws IOException {
+		synchronized (this) {
+			if (!paused)
+				return;
+		}
+		
+		// what has arrived is shown while paused
+		ingest.flush();
+		synchronized (this) {
+			try {
+				while (paused)
+					wait();
+			} catch (InterruptedException e) {
+				throw new InterruptedIOException();
+			}
+		}
+	}
+	
+	///////////////////////////////////////////////////////////////////////////////////////////////////////////
+	// inner classes
+	private class Candidate implements Comparable<Candidate> {
+		// a publication of the frontier and its edges to the network, as (publication, reference) id pairs
+		private final Publication pub;
+		private final long citationCount;
+		private long[] edges = new long[2];
+		private int links;
+		
+		public Candidate(Publication pub) {
+			this.pub = pub;
+			citationCount = pub.getCitationCount() == null ? 0 : pub.getCitationCount();
+		}
+		
+		public void addEdge(long from, long to) {
+			if (2 * links == edges.length)
+				edges = Arrays.copyOf(edges, edges.length * 2);
+			edges[2 * links] = from;
+			edges[2 * links + 1] = to;
+			links++;
+		}
+		
+		@Override
+		public int compareTo(Candidate other) {
+			// the best first, then the other priority, then by id so that a crawl is repeatable
+			int c = priority == Priority.CITATIONS ? compare(other.citationCount, citationCount)
+					: compare(other.links, links);
+			if (c == 0)
+				c = priority == Priority.CITATIONS ? compare(other.links, links)
+						: compare(other.citationCount, citationCount);
+			return c != 0 ? c : compare(pub.getID(), other.pub.getID());
+		}
+		
+		private int compare(long a, long b) {
+			return a < b ? -1 : (a == b ? 0 : 1);
+		}
+	}
+	
+	private static class StepProgress implements DataSource.ProgressTask {
+		// the progress of a step, as a part of the whole crawl
+		private final DataSource.ProgressTask task;
+		private final int step, steps;
+		
+		public StepProgress(DataSource.ProgressTask task, int step, int steps) {
+			this.task = task;
+			this.step = step;
+			this.steps = steps;
+		}
+		
+		@Override
+		public void advanceProgress(int progress) {
+			if (task != null)
+				task.advanceProgress((step * 100 + progress) / steps);
+		}
+	}
+}
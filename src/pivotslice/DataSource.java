@@ -1,104 +1,143 @@
 package pivotslice;
 
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileOutputStream;
-import java.io.FileReader;
 import java.io.FileWriter;
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
 import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
-import java.io.Serializable;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Type;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
-import org.datacontract.schemas._2004._07.libra_service.ReferenceRelationship;
+import javax.swing.SwingUtilities;
 
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
-import com.google.gson.JsonIOException;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
 import com.microsoft.research.Author;
 import com.microsoft.research.Keyword;
-import com.microsoft.research.PagedList;
 import com.microsoft.research.Publication;
-import com.microsoft.research.query.AcademicSearchQuery;
-import com.microsoft.research.query.AcademicSearchQueryFactory;
-import com.microsoft.research.query.PublicationSearchQuery;
 
 public class DataSource {
 	
-	private static final String appid = "1479ed99-1011-47b4-a0b7-588d7bded87f";
-	
-	private AcademicSearchQueryFactory factory;
-	private Network network = new Network();
-	private ArrayList<HashMap<Long, Object>> attributeMaps = new ArrayList<HashMap<Long, Object>>(4);
+	private FetchEngine fetchEngine = new FetchEngine(FetchEngine.defaultConcurrency);
+	private volatile PublicationBackend backend = new AcademicBackend();
+	// the published version of the network, with its facet index.
+	// a version is not changed once published: writers build the next one, off the event dispatch
+	// thread if they like, and publish replaces it in a single swap. the next version shares what
+	// the published one has and appends to it (see Network)
+	private volatile Network network;
+	private int versions;
 	
 	public DataSource() {
-		factory = AcademicSearchQueryFactory.newInstance(appid);
-		for (int i = 0; i < 4; i++)		// the number of categorical facets: hard-coded
-			attributeMaps.add(new HashMap<Long, Object>());
+		Network empty = new Network();
+		setVersion(empty);
+		network = empty;
+	}
+	
+	public PublicationBackend getBackend() {
+		return backend;
 	}
 	
-	public AcademicSearchQueryFactory getQueryFactory() {
-		return factory;
+	public void setBackend(PublicationBackend newBackend) {
+		backend = newBackend;
 	}
 	
-	public PublicationSearchQuery getNewQuery() { 
-		return  factory.newPublicationSearchQuery();
+	public FetchEngine getFetchEngine() {
+		return fetchEngine;
 	}
 	
-	public PagedList<Publication> executeQuery(AcademicSearchQuery<Publication> query) {
-		return query.list(); 
+	public List<Publication> search(String text, int start, int end) throws Exception {
+		return backend.search(text, start, end);
+	}
+	
+	public void fetchRelated(List<Publication> publications, boolean citations, boolean references, 
+			FetchEngine.Receiver receiver, ProgressTask task) throws IOException {
+		fetchEngine.fetch(publications, citations, references, backend, receiver, task);
+	}
+	
+	public void fetchRelated(List<Publication> publications, boolean citations, boolean references, int resultLimit, 
+			FetchEngine.Receiver receiver, ProgressTask task) throws IOException {
+		fetchEngine.fetch(publications, citations, references, resultLimit, backend, receiver, task);
 	}
 	
 	public Network getNetwork() {
+		// an operation reading the network several times off the event dispatch thread keeps the version it got
 		return network;
 	}
 	
-	public HashMap<Long, Object> getAttributeMaps(int fid) {
-		switch(fid) {
-			case 0:
-				return attributeMaps.get(0);
-			case 1:
-				return attributeMaps.get(1);
-			case 2:
-				return attributeMaps.get(2);
-			case 4:
-				return attributeMaps.get(3);
-			default:
-				return null;
-		}
+	public Object getAttribute(int fid, long id) {
+		return network.getAttribute(fid, id);
 	}
 	
-	public void writeObjects(ObjectOutputStream obs) throws IOException {
-		obs.writeObject(network);
-		obs.writeObject(attributeMaps);
+	public List<Object> getAttributes(int fid) {
+		return network.getAttributes(fid);
 	}
 	
-	public void readObjects(ObjectInputStream obs) throws IOException, ClassNotFoundException {
-		network = (Network) obs.readObject();
-		attributeMaps = (ArrayList<HashMap<Long, Object>>) obs.readObject();
+	public FacetIndex getFacetIndex() {
+		return network.getFacetIndex();
+	}
+	
+	public boolean restoreNetwork(Network restored) throws IOException {
+		// publishes a version kept from before as it is, false if it is the current one. it reads the data
+		// shared with the versions published since in its numbering up to its own size, and the next writer
+		// copies the data into a numbering of its own, as these versions may have appended to it
+		if (restored == network)
+			return false;
+		publish(null, restored, null);
+		return true;
 	}
 	
 	public void initNetwork(File f) throws Exception {
+		initNetwork(f, null);
+	}
+	
+	public void initNetwork(File f, ProgressTask task) throws Exception {
+		Network newNetwork;
 		if (f.getName().endsWith(".json")) {	// json format
-			FileReader fin = new FileReader(f);
-			Gson gson = new GsonBuilder().create();
-			network = gson.fromJson(fin, Network.class);
-			fin.close();
+			newNetwork = readNetworkJson(f, task);
+		}
+		else if (NetworkFile.isNetworkFile(f)) {	// columnar binary format
+			newNetwork = NetworkFile.read(f, task);
 		}
-		else {	// binary format
+		else {	// legacy binary format
+			newNetwork = new Network();
 			ObjectInputStream obin = new ObjectInputStream(new FileInputStream(f));
-			network.graphNodes = (HashMap<Long, Publication>)obin.readObject();
-			network.graphEdgesIn = (HashMap<Long, HashSet<Long>>)obin.readObject();
-			network.graphEdgesOut = (HashMap<Long, HashSet<Long>>)obin.readObject();
+			HashMap<Long, Publication> pubs = (HashMap<Long, Publication>)obin.readObject();
+			HashMap<Long, HashSet<Long>> edgesIn = (HashMap<Long, HashSet<Long>>)obin.readObject();
+			HashMap<Long, HashSet<Long>> edgesOut = (HashMap<Long, HashSet<Long>>)obin.readObject();
 			obin.close();
+			
+			AdjacencyStore.EdgeList edges = new AdjacencyStore.EdgeList();
+			for (Map.Entry<Long, HashSet<Long>> entry : edgesOut.entrySet())
+				for (Long id : entry.getValue())
+					edges.add(entry.getKey(), id);
+			for (Map.Entry<Long, HashSet<Long>> entry : edgesIn.entrySet())
+				for (Long id : entry.getValue())
+					edges.add(id, entry.getKey());
+			for (Publication pub : pubs.values())
+				newNetwork.addPublication(pub);
+			newNetwork.graphEdges = AdjacencyStore.create(newNetwork.lineage.ids, edges);
 		}
-		updateAttributeMaps();
+		updateFacetIndex(newNetwork);
+		publish(null, newNetwork, null);
 		
 		/*
 		HashMap<String, Publication> graphNodes = null;
@@ -137,141 +176,600 @@ public class DataSource {
 		*/
 	}
 	
-	public void addToNetwork(List<Publication> publications, ProgressTask task) {
-		// insert into the network
-		network.newGraphNodes.clear();
-		for(Publication pub : publications) {
-			Long id = pub.getID();
-			if (!network.graphNodes.containsKey(id)) {
-				network.newGraphNodes.put(id, pub);
-				network.graphNodes.put(id, pub);
-				network.graphEdgesIn.put(id, new HashSet<Long>());
-				network.graphEdgesOut.put(id, new HashSet<Long>());
+	private Network readNetworkJson(File f, ProgressTask task) throws IOException {
+		// walk the document token by token, adding each publication to the network as it is read, so that
+		// only the network itself is kept in memory. the edges are kept as id pairs until the store is built
+		Network newNetwork = new Network();
+		ArrayList<Long> newIDs = new ArrayList<Long>();		// new publications read before their entry
+		AdjacencyStore.EdgeList edges = new AdjacencyStore.EdgeList();
+		Gson gson = new GsonBuilder().create();
+		JsonReader reader = new JsonReader(new BufferedReader(new InputStreamReader(
+				new ProgressInputStream(new FileInputStream(f), f.length(), task))));
+		
+		try {
+			reader.beginObject();
+			while (reader.hasNext()) {
+				String name = reader.nextName();
+				if (name.equals("graphNodes")) 
+					readPublications(reader, gson, newNetwork);
+				else if (name.equals("newGraphNodes"))
+					readNewPublications(reader, newNetwork, newIDs);
+				else if (name.equals("graphEdgesOut"))
+					readEdges(reader, edges, true);
+				else if (name.equals("graphEdgesIn"))
+					readEdges(reader, edges, false);
+				else
+					reader.skipValue();
 			}
+			reader.endObject();
+		}
+		finally {
+			reader.close();
 		}
 		
-		int i = 1;
-		for (Publication pub : publications) {
-			// citations
-			PagedList<Publication> response = factory.newPublicationSearchQuery().withPublicationId(pub.getID().intValue())
-				.withReferenceRelationship(ReferenceRelationship.CITATION)
-				.withStartIndex(1).withEndIndex(100).list();
-			
-			for (Publication citepub : response) {
-				if (network.graphNodes.containsKey(citepub.getID())) {
-					network.graphEdgesOut.get(citepub.getID()).add(pub.getID());	
-					network.graphEdgesIn.get(pub.getID()).add(citepub.getID());
-				}
-			}
-			
-			// references
-			response = factory.newPublicationSearchQuery().withPublicationId(pub.getID().intValue())
-					.withReferenceRelationship(ReferenceRelationship.REFERENCE)
-					.withStartIndex(1).withEndIndex(100).list();
-			
-			for (Publication refpub : response) {
-				if (network.graphNodes.containsKey(refpub.getID())) {
-					network.graphEdgesOut.get(pub.getID()).add(refpub.getID()); 
-					network.graphEdgesIn.get(refpub.getID()).add(pub.getID());
-				}	
-			}
-			
-			task.advanceProgress(i * 100 / publications.size());
-			i++;
+		for (long id : newIDs) {
+			int ordinal = newNetwork.getOrdinal(id);
+			if (ordinal != -1)
+				newNetwork.newPublications.add(ordinal);
 		}
+		// both edge maps describe the same graph, the store keeps their union
+		newNetwork.graphEdges = AdjacencyStore.create(newNetwork.lineage.ids, edges);
 		
-		updateAttributeMaps();
+		return newNetwork;
 	}
 	
-	public void pruneNetwork(Set<Publication> pubs) {
-		network.graphNodes.clear();
-		for (Publication pub : pubs) {
-			network.graphNodes.put(pub.getID(), pub);
+	private static void readPublications(JsonReader reader, Gson gson, Network network) throws IOException {
+		if (reader.peek() == JsonToken.NULL) {
+			reader.nextNull();
+			return;
 		}
 		
-		HashMap<Long, HashSet<Long>> newEdgeOut = new HashMap<Long, HashSet<Long>>();
-		HashMap<Long, HashSet<Long>> newEdgeIn = new HashMap<Long, HashSet<Long>>();
-		for (Publication pub : pubs) {
-			HashSet<Long> edges = new HashSet<Long>();
-			for (Long id : network.graphEdgesOut.get(pub.getID())) {
-				if (network.graphNodes.containsKey(id)) 
-					edges.add(id);
-			}
-			newEdgeOut.put(pub.getID(), edges);
-			
-			edges = new HashSet<Long>();
-			for (Long id : network.graphEdgesIn.get(pub.getID())) {
-				if (network.graphNodes.containsKey(id)) 
-					edges.add(id);
-			}
-			newEdgeIn.put(pub.getID(), edges);
+		reader.beginObject();
+		while (reader.hasNext()) {
+			reader.nextName();
+			Publication pub = gson.fromJson(reader, Publication.class);
+			if (pub != null)
+				network.addPublication(pub);
+		}
+		reader.endObject();
+	}
+	
+	private static void readNewPublications(JsonReader reader, Network network, List<Long> unresolved) 
+			throws IOException {
+		// the new ones among the publications; their entries repeat the graph nodes and are skipped.
+		// the ids read before the graph nodes are resolved once these are read too
+		if (reader.peek() == JsonToken.NULL) {
+			reader.nextNull();
+			return;
 		}
-		network.graphEdgesOut = newEdgeOut;
-		network.graphEdgesIn = newEdgeIn;
-		
-		network.newGraphNodes.clear();
 		
-		updateAttributeMaps();
+		reader.beginObject();
+		while (reader.hasNext()) {
+			long id = Long.parseLong(reader.nextName());
+			reader.skipValue();
+			int ordinal = network.getOrdinal(id);
+			if (ordinal != -1)
+				network.newPublications.add(ordinal);
+			else
+				unresolved.add(id);
+		}
+		reader.endObject();
 	}
 	
-	public void updateAttributeMaps() {
-		for (HashMap<Long, Object> map : attributeMaps)
-			map.clear();
+	private static void readEdges(JsonReader reader, AdjacencyStore.EdgeList edges, boolean outgoing) throws IOException {
+		if (reader.peek() == JsonToken.NULL) {
+			reader.nextNull();
+			return;
+		}
 		
-		for (Publication pub : network.graphNodes.values()) {
-			for (Author au : pub.getAuthor()) {
-				if (!attributeMaps.get(0).containsKey(au.getID()))
-					attributeMaps.get(0).put(au.getID(), au);
+		reader.beginObject();
+		while (reader.hasNext()) {
+			long id = Long.parseLong(reader.nextName());
+			if (reader.peek() == JsonToken.NULL) 
+				reader.nextNull();
+			else {
+				reader.beginArray();
+				while (reader.hasNext()) {
+					if (outgoing)
+						edges.add(id, reader.nextLong());
+					else
+						edges.add(reader.nextLong(), id);
+				}
+				reader.endArray();
 			}
-			if (pub.getJournal() != null && !attributeMaps.get(1).containsKey(pub.getJournal().getID())) {
-				attributeMaps.get(1).put(pub.getJournal().getID(), pub.getJournal());
+		}
+		reader.endObject();
+	}
+	
+	public void addToNetwork(List<Publication> publications, NetworkListener listener, ProgressTask task) 
+			throws IOException {
+		// the publications the network does not have yet, each once, with their edges
+		Ingest ingest = new Ingest(listener);
+		for (Publication pub : publications)
+			ingest.add(pub);
+		fetchRelated(new ArrayList<Publication>(ingest.found.values()), true, true, ingest, task);
+		ingest.flush();
+	}
+	
+	public void expand(Collection<Publication> seeds, boolean citations, NetworkListener listener, ProgressTask task) 
+			throws IOException {
+		// the citations or the references of the seeds, then the edges of the publications they reach that
+		// the network does not have yet. a publication reached from several seeds is asked for once, and
+		// the edges between the seeds and the publications come with the first answers
+		Ingest ingest = new Ingest(listener);
+		ingest.reaching = true;
+		fetchRelated(new ArrayList<Publication>(seeds), citations, !citations, ingest, task);
+		ingest.reaching = false;
+		ingest.flush();
+		
+		if (task != null)
+			task.advanceProgress(1);
+		fetchRelated(new ArrayList<Publication>(ingest.found.values()), true, true, ingest, task);
+		ingest.flush();
+	}
+	
+	Ingest ingest(NetworkListener listener) {
+		// for an operation adding publications in its own way, such as a crawl
+		return new Ingest(listener);
+	}
+	
+	private Network insert(Network previous, Collection<Publication> publications, AdjacencyStore.EdgeList fetched, 
+			Map<Long, Publication> added, NetworkListener listener) throws IOException {
+		// insert into the next version of the network, the current one is read meanwhile.
+		// if another writer published first, insert into its version instead. the new publications
+		// are the ones added before by the same operation too, previous is the version it published last
+		Network current, next;
+		do {
+			current = network;
+			next = current.next();
+			boolean built = false;
+			try {
+				if (current == previous && previous != null)
+					next.newPublications = current.newPublications.clone();
+				else {
+					next.newPublications = new CompressedBitmap();
+					for (Publication pub : added.values()) {
+						int ordinal = next.getOrdinal(pub);
+						if (ordinal != -1)
+							next.newPublications.add(ordinal);
+					}
+				}
+				for(Publication pub : publications) {
+					if (next.getOrdinal(pub) == -1)
+						next.newPublications.add(next.addPublication(pub));		// appended, existing ordinals keep their place
+				}
+				
+				next.graphEdges = current.graphEdges.append(next.lineage.ids, next.count, fetched);
+				updateFacetIndex(next);
+				built = true;
 			}
-			if (pub.getConference() != null && !attributeMaps.get(2).containsKey(pub.getConference().getID())) {
-				attributeMaps.get(2).put(pub.getConference().getID(), pub.getConference());
+			finally {
+				next.lineage.release(built ? next : null);
 			}
-			for (Keyword key : pub.getKeyword()) {
-				if (!attributeMaps.get(3).containsKey(key.getID()))
-					attributeMaps.get(3).put(key.getID(), key);
+		} while (!publish(current, next, listener));
+		
+		for (Publication pub : publications)
+			added.put(pub.getID(), pub);
+		return next;
+	}
+	
+	public void pruneNetwork(Set<Publication> pubs) throws IOException {
+		AdjacencyStore.EdgeList edges = new AdjacencyStore.EdgeList();
+		Network current = network;
+		current.graphEdges.addEdgesTo(edges, current.lineage.ids);
+		
+		// the remaining publications get new ordinals
+		Network next = new Network();
+		for (Publication pub : pubs) {
+			next.addPublication(pub);
+		}
+		
+		// edges leaving the remaining publications are dropped by the new store
+		next.graphEdges = AdjacencyStore.create(next.lineage.ids, edges);
+		
+		updateFacetIndex(next);
+		publish(null, next, null);
+	}
+	
+	private static void updateFacetIndex(Network network) {
+		// publications are only appended to the next versions of a version, so index the ones added since
+		FacetIndex facetIndex = network.facetIndex;
+		for (int ordinal = facetIndex.size(); ordinal < network.count; ordinal++)
+			facetIndex.addPublication(network.getPublication(ordinal), ordinal);
+		facetIndex.updateDegrees(network.graphEdges);
+		facetIndex.prepare();
+	}
+	
+	private boolean publish(final Network base, final Network next, final NetworkListener listener) 
+			throws IOException {
+		// replaces the version next was built from, or any version if base is null; false if base was
+		// replaced meanwhile. on the event dispatch thread, so that each of its events reads a single version,
+		// and the listener gets the replaced version and the new one before any other event
+		final boolean[] published = new boolean[1];
+		Runnable swap = new Runnable() {
+			@Override
+			public void run() {
+				if (base != null && network != base)
+					return;
+				setVersion(next);
+				network = next;
+				published[0] = true;
+				if (listener != null)
+					listener.networkPublished(base, next);
 			}
+		};
+		if (SwingUtilities.isEventDispatchThread()) {
+			swap.run();
+			return published[0];
 		}
+		try {
+			SwingUtilities.invokeAndWait(swap);
+		} catch (InterruptedException e) {
+			throw new InterruptedIOException();
+		} catch (InvocationTargetException e) {
+			throw new RuntimeException(e.getCause());
+		}
+		return published[0];
+	}
+	
+	private void setVersion(Network next) {
+		// a copy keeps the numbering of the version it was copied from, a new network starts its own.
+		// a version published again keeps both
+		if (next.version != 0)
+			return;
+		next.version = ++versions;
+		if (next.numbering == 0)
+			next.numbering = next.version;
 	}
 	
 	public void saveNetwork(File file) throws Exception {
-		network.newGraphNodes.clear();
+		// the saved publications are no longer new
+		Network saved = network;
+		if (saved.hasNewPublications()) {
+			Network current = saved;
+			saved = current.withoutNewPublications();
+			publish(current, saved, null);
+		}
 		
 		if (file.getName().endsWith(".json")) {
 			Gson gson = new GsonBuilder().create();
-			FileWriter fw = new FileWriter(file);
-			gson.toJson(network, fw);
-			fw.flush();
-			fw.close();
+			JsonWriter writer = new JsonWriter(new BufferedWriter(new FileWriter(file)));
+			try {
+				writer.beginObject();
+				writer.name("graphNodes");
+				writePublications(writer, gson, saved.getPublications());
+				writer.name("graphEdgesOut");
+				writeEdges(writer, saved, true);
+				writer.name("graphEdgesIn");
+				writeEdges(writer, saved, false);
+				writer.name("newGraphNodes");
+				writePublications(writer, gson, new ArrayList<Publication>());
+				writer.endObject();
+			}
+			finally {
+				writer.close();
+			}
 			//gson.toJson(network, new FileWriter(file));
 		}
 		else {
-			ObjectOutputStream obout = new ObjectOutputStream(new FileOutputStream(file));
-			obout.writeObject(network.graphNodes);
-			obout.writeObject(network.graphEdgesIn);
-			obout.writeObject(network.graphEdgesOut);
-			obout.close();
+			NetworkFile.write(saved, file);
+		}
+	}
+	
+	private static void writePublications(JsonWriter writer, Gson gson, List<Publication> pubs) throws IOException {
+		// as a map from id to publication
+		writer.beginObject();
+		for (Publication pub : pubs) {
+			writer.name(String.valueOf(pub.getID()));
+			gson.toJson(pub, Publication.class, writer);
 		}
+		writer.endObject();
 	}
 	
-	public static class Network implements Serializable {
-		private static final long serialVersionUID = 5242465010409928475L;
+	private static void writeEdges(JsonWriter writer, Network network, boolean outgoing) throws IOException {
+		AdjacencyStore store = network.graphEdges;
+		writer.beginObject();
+		for (int row = 0; row < store.size(); row++) {
+			writer.name(String.valueOf(network.getID(row)));
+			writer.beginArray();
+			int count = outgoing ? store.getReferenceCount(row) : store.getCitationCount(row);
+			for (int i = 0; i < count; i++)
+				writer.value(network.getID(outgoing ? store.getReference(row, i) : store.getCitation(row, i)));
+			writer.endArray();
+		}
+		writer.endObject();
+	}
+	
+	public static class Network {
+		
+		// a version of the network. the publications, their ids and the facet index logs are shared
+		// by the versions of a numbering: the later versions append to them, and this one reads the
+		// first count. only the latest version of a numbering is appended to, by one writer at a time;
+		// the next version of an older one copies what that one has and starts a numbering of its own
+		
+		private Lineage lineage;
+		private int count;
+		// references and citations, the rows are the ordinals
+		public AdjacencyStore graphEdges;
+		// ordinals of the newly added publications, not changed once published
+		private CompressedBitmap newPublications;
+		private FacetIndex facetIndex;
+		// the version, and the first version of its numbering: the next versions of a version only append
+		// publications, so an ordinal means the same publication in all the versions of a numbering
+		private int version, numbering;
+		
+		public Network() {
+			// a network to fill before it is published
+			lineage = new Lineage(new IdSpace(), new AppendLog<Publication>());
+			lineage.tip = this;
+			graphEdges = new AdjacencyStore();
+			newPublications = new CompressedBitmap();
+			facetIndex = new FacetIndex();
+		}
+		
+		public int addPublication(Publication pub) {
+			// appended to a network being built, the ordinal of the publication
+			int ordinal = lineage.ids.add(pub.getID());
+			if (ordinal == count) {
+				lineage.publications.add(pub);
+				count++;
+			}
+			return ordinal;
+		}
 		
-		// publications
-		public HashMap<Long, Publication> graphNodes = new HashMap<Long, Publication>();
-		// references
-		public HashMap<Long, HashSet<Long>> graphEdgesOut = new HashMap<Long, HashSet<Long>>();	
-		// citations
-		public HashMap<Long, HashSet<Long>> graphEdgesIn = new HashMap<Long, HashSet<Long>>();
-		// newly added publications
-		public HashMap<Long, Publication> newGraphNodes = new HashMap<Long, Publication>();
+		public int getPublicationCount() {
+			return count;
+		}
+		
+		public Publication getPublication(int ordinal) {
+			return lineage.publications.get(ordinal);
+		}
+		
+		public Publication findPublication(long id) {
+			// null if the network does not have it
+			int ordinal = getOrdinal(id);
+			return ordinal == -1 ? null : getPublication(ordinal);
+		}
+		
+		public boolean containsPublication(long id) {
+			return getOrdinal(id) != -1;
+		}
+		
+		public List<Publication> getPublications() {
+			// in ordinal order
+			return lineage.publications.asList(count);
+		}
+		
+		public int getOrdinal(Publication pub) {
+			return getOrdinal(pub.getID());
+		}
+		
+		public int getOrdinal(long id) {
+			return lineage.ids.getOrdinal(id, count);
+		}
+		
+		public long getID(int ordinal) {
+			return lineage.ids.getID(ordinal);
+		}
+		
+		public boolean hasNewPublications() {
+			return !newPublications.isEmpty();
+		}
+		
+		public boolean isNew(Publication pub) {
+			int ordinal = getOrdinal(pub);
+			return ordinal != -1 && newPublications.contains(ordinal);
+		}
+		
+		public Object getAttribute(int fid, long id) {
+			return facetIndex.getValue(fid, id);
+		}
+		
+		public List<Object> getAttributes(int fid) {
+			return facetIndex.getValues(fid);
+		}
+		
+		public FacetIndex getFacetIndex() {
+			return facetIndex;
+		}
+		
+		public AdjacencyStore getCompactedEdges() throws IOException {
+			// the edges without a delta, to be written out
+			return graphEdges.compact(lineage.ids);
+		}
+		
+		public int getVersion() {
+			return version;
+		}
+		
+		public int getNumbering() {
+			return numbering;
+		}
+		
+		private Network next() {
+			// a version to append to, sharing what this one has if this is the latest of its numbering
+			// and no other writer appends to it; the writer releases the lineage once it is built
+			if (!lineage.claim(this)) {
+				Network next = fork();
+				next.lineage.claim(next);
+				return next;
+			}
+			Network next = new Network(lineage, this);
+			next.facetIndex = facetIndex.next();
+			next.numbering = numbering;
+			return next;
+		}
+		
+		private Network fork() {
+			// the same publications in a numbering of its own. the edge store copies its delta when appended to
+			Network next = new Network(new Lineage(lineage.ids.copy(count), lineage.publications.copy(count)), this);
+			next.facetIndex = facetIndex.fork();
+			next.lineage.tip = next;
+			return next;
+		}
+		
+		private Network withoutNewPublications() {
+			// the same data, without any publication marked as new
+			Network next = new Network(lineage, this);
+			next.newPublications = new CompressedBitmap();
+			next.facetIndex = facetIndex;
+			next.numbering = numbering;
+			return next;
+		}
+		
+		private Network(Lineage lineage, Network base) {
+			this.lineage = lineage;
+			count = base.count;
+			graphEdges = base.graphEdges;
+			newPublications = base.newPublications;
+		}
+		
+		private boolean hasSameData(Network other) {
+			return other != null && count == other.count && graphEdges == other.graphEdges 
+					&& facetIndex == other.facetIndex;
+		}
 	}
 	
+	private static class Lineage {
+		// the publications and ids shared by the versions of a numbering, and the version whose data
+		// was appended last. a writer claims it to append, and releases it with the version it built
+		private final IdSpace ids;
+		private final AppendLog<Publication> publications;
+		private Network tip;
+		private boolean appending;
+		
+		public Lineage(IdSpace ids, AppendLog<Publication> publications) {
+			this.ids = ids;
+			this.publications = publications;
+		}
+		
+		public synchronized boolean claim(Network base) {
+			if (appending || !base.hasSameData(tip))
+				return false;
+			appending = true;
+			return true;
+		}
+		
+		public synchronized void release(Network next) {
+			// null if the writer failed midway, having appended part of its data that no version has
+			tip = next;
+			appending = false;
+		}
+	}
 	
 	public static interface ProgressTask {
 		public void advanceProgress(int progress);
 	}
 	
+	public static interface NetworkListener {
+		// called on the event dispatch thread as a version is published over the previous one
+		public void networkPublished(Network previous, Network next);
+	}
+	
+	class Ingest implements FetchEngine.Receiver {
+		// the publications an operation adds and the edges of its answers. with a listener they are published
+		// in batches while the answers arrive, the first at once and the others a batch interval apart, so the
+		// canvas shows them early; otherwise only when flushed at the end. publications are added from the
+		// answers only while reaching, later answers bring edges between those publications
+		private static final long batchInterval = 250;
+		
+		private final NetworkListener listener;
+		private final LinkedHashMap<Long, Publication> found = new LinkedHashMap<Long, Publication>();
+		private final HashMap<Long, Publication> added = new HashMap<Long, Publication>();
+		private ArrayList<Publication> pending = new ArrayList<Publication>();
+		private AdjacencyStore.EdgeList edges = new AdjacencyStore.EdgeList();
+		private boolean reaching;
+		private long published;
+		private Network last;
+		
+		public Ingest(NetworkListener listener) {
+			this.listener = listener;
+		}
+		
+		public void add(Publication pub) {
+			if (!network.containsPublication(pub.getID()) && !found.containsKey(pub.getID())) {
+				found.put(pub.getID(), pub);
+				pending.add(pub);
+			}
+		}
+		
+		public void addEdge(long from, long to) {
+			edges.add(from, to);
+		}
+		
+		@Override
+		public void receive(Publication pub, boolean citations, List<Publication> related) throws IOException {
+			for (Publication other : related) {
+				if (citations)
+					edges.add(other.getID(), pub.getID());
+				else
+					edges.add(pub.getID(), other.getID());
+				if (reaching)
+					add(other);
+			}
+			flushIfDue();
+		}
+		
+		public void flushIfDue() throws IOException {
+			if (listener != null && System.currentTimeMillis() - published >= batchInterval)
+				flush();
+		}
+		
+		public void flush() throws IOException {
+			if (pending.isEmpty() && edges.size() == 0)
+				return;
+			last = insert(last, pending, edges, added, listener);
+			pending = new ArrayList<Publication>();
+			edges = new AdjacencyStore.EdgeList();
+			published = System.currentTimeMillis();
+		}
+	}
+	
+	private static class ProgressInputStream extends FilterInputStream {
+		private final long totalBytes;
+		private final ProgressTask task;
+		private long readBytes;
+		private int progress;
+		
+		public ProgressInputStream(InputStream in, long total, ProgressTask progressTask) {
+			super(in);
+			totalBytes = total;
+			task = progressTask;
+		}
+		
+		@Override
+		public int read() throws IOException {
+			int b = super.read();
+			if (b != -1)
+				advance(1);
+			return b;
+		}
+		
+		@Override
+		public int read(byte[] buffer, int offset, int length) throws IOException {
+			int n = super.read(buffer, offset, length);
+			if (n > 0)
+				advance(n);
+			return n;
+		}
+		
+		@Override
+		public long skip(long n) throws IOException {
+			long skipped = super.skip(n);
+			advance(skipped);
+			return skipped;
+		}
+		
+		private void advance(long n) {
+			readBytes += n;
+			if (task == null || totalBytes <= 0)
+				return;
+			int p = (int) (readBytes * 100 / totalBytes);
+			if (p != progress) {
+				progress = p;
+				task.advanceProgress(Math.min(progress, 100));
+			}
+		}
+	}
+	
 }
@@ -0,0 +1,400 @@
+package pivotslice;
+
+import java.awt.geom.QuadCurve2D;
+import java.awt.geom.Rectangle2D;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+import pivotslice.GraphCanvas.VisualStatus;
+import pivotslice.GraphCell.NodeVisual;
+
+public class EdgeStore {
+	
+	// the aggregated edges between node visuals of the canvas. the node visuals of each graph cell
+	// are registered with a dense index; an edge is keyed by the pair of indices packed in a long and
+	// found by open addressing, so counting a citation between two visuals allocates nothing.
+	// the attributes of the edges are parallel arrays by edge index, and each node links its out and
+	// in edges so that the edges of one cell are dropped without touching the others, and the edges
+	// of a hovered node are found by its degree. edges with a status other than DEFAULT are listed,
+	// so clearing the highlights only touches those.
+	// a pipeline job builds its edges into a copy of the store shown, which the event dispatch thread swaps in.
+	// the nodes are registered on the event dispatch thread when the job commits, the nodes they replace are
+	// retired then, with their edges removed on the pipeline; so only the event dispatch thread sets the
+	// edgeIndex of a node, and a retired index is not given to another node before its edges are gone
+	
+	private static final VisualStatus[] statusValues = VisualStatus.values();
+	
+	private NodeVisual[] nodes = new NodeVisual[16];
+	private int[] firstOut = new int[16];		// -1 for none
+	private int[] firstIn = new int[16];
+	private int[] nodeTotals = new int[16];		// edge counts of the node, out edges and crossing in edges
+	private int[] freeNodes = new int[16];
+	private int[] retiredNodes = new int[16];
+	private int nodeEnd, freeNodeCount, retiredNodeCount;
+	private IdentityHashMap<GraphCell, int[]> cellNodes = new IdentityHashMap<GraphCell, int[]>();		// node indices
+	
+	private long[] keys = new long[16];
+	private int[] slots = new int[32];		// open addressing on keys, holds edge index + 1 or 0 if empty
+	private int[] fromNodes = new int[16];	// -1 for a free edge index
+	private int[] toNodes = new int[16];
+	private int[] outNext = new int[16], outPrev = new int[16];
+	private int[] inNext = new int[16], inPrev = new int[16];
+	private int[] counts = new int[16];
+	private byte[] status = new byte[16];
+	private boolean[] crossing = new boolean[16];
+	private QuadCurve2D.Double[] lines = new QuadCurve2D.Double[16];
+	private Rectangle2D.Double[] rects = new Rectangle2D.Double[16];
+	private int[] freeEdges = new int[16];
+	private int edgeEnd, freeEdgeCount, size;
+	private int[] statusEdges = new int[16];		// edges whose status was set other than DEFAULT
+	private int statusCount;
+	
+	///////////////////////////////////////////////////////////////////////////////////////////////////////////
+	// public methods
+	public EdgeStore copy() {
+		// the edges and their status as they are, for a job to change
+		EdgeStore copy = new EdgeStore();
+		copy.nodes = nodes.clone();
+		copy.firstOut = firstOut.clone();
+		copy.firstIn = firstIn.clone();
+		copy.nodeTotals = nodeTotals.clone();
+		copy.freeNodes = freeNodes.clone();
+		copy.retiredNodes = retiredNodes.clone();
+		copy.nodeEnd = nodeEnd;
+		copy.freeNodeCount = freeNodeCount;
+		copy.retiredNodeCount = retiredNodeCount;
+		copy.cellNodes = new IdentityHashMap<GraphCell, int[]>(cellNodes);
+		copy.keys = keys.clone();
+		copy.slots = slots.clone();
+		copy.fromNodes = fromNodes.clone();
+		copy.toNodes = toNodes.clone();
+		copy.outNext = outNext.clone();
+		copy.outPrev = outPrev.clone();
+		copy.inNext = inNext.clone();
+		copy.inPrev = inPrev.clone();
+		copy.counts = counts.clone();
+		copy.status = status.clone();
+		copy.crossing = crossing.clone();
+		copy.lines = lines.clone();
+		copy.rects = rects.clone();
+		copy.freeEdges = freeEdges.clone();
+		copy.edgeEnd = edgeEnd;
+		copy.freeEdgeCount = freeEdgeCount;
+		copy.size = size;
+		copy.statusEdges = statusEdges.clone();
+		copy.statusCount = statusCount;
+		return copy;
+	}
+	
+	public boolean hasCell(GraphCell cell) {
+		// whether the cell is registered with exactly its current node visuals, under the indices they have
+		int[] registered = cellNodes.get(cell);
+		if (registered == null || registered.length != cell.nodeVisuals.size())
+			return false;
+		int i = 0;
+		for (NodeVisual node : cell.nodeVisuals) {
+			int n = registered[i++];
+			if (nodes[n] != node || node.edgeIndex != n)
+				return false;
+		}
+		return true;
+	}
+	
+	public void registerCells(List<GraphCell> cells, Set<GraphCell> dirtyCells) {
+		// on the event dispatch thread when a job commits: retires the cells no longer in the canvas and
+		// the dirty cells, then registers the current nodes of the dirty cells, without any edges
+		Set<GraphCell> cellSet = Collections.newSetFromMap(new IdentityHashMap<GraphCell, Boolean>());
+		cellSet.addAll(cells);
+		ArrayList<GraphCell> retired = new ArrayList<GraphCell>();
+		for (GraphCell cell : cellNodes.keySet())
+			if (!cellSet.contains(cell) || dirtyCells.contains(cell))
+				retired.add(cell);
+		for (GraphCell cell : retired) {
+			for (int n : cellNodes.remove(cell)) {
+				nodes[n] = null;
+				if (retiredNodeCount == retiredNodes.length)
+					retiredNodes = Arrays.copyOf(retiredNodes, retiredNodeCount * 2);
+				retiredNodes[retiredNodeCount++] = n;
+			}
+		}
+		for (GraphCell cell : dirtyCells) {
+			int[] registered = new int[cell.nodeVisuals.size()];
+			int i = 0;
+			for (NodeVisual node : cell.nodeVisuals)
+				registered[i++] = addNode(node);
+			cellNodes.put(cell, registered);
+		}
+	}
+	
+	public void removeRetiredNodes() {
+		// on the pipeline, before the edges of the dirty cells are added
+		for (int i = 0; i < retiredNodeCount; i++) {
+			int n = retiredNodes[i];
+			while (firstOut[n] != -1)
+				removeEdge(firstOut[n]);
+			while (firstIn[n] != -1)
+				removeEdge(firstIn[n]);
+			if (freeNodeCount == freeNodes.length)
+				freeNodes = Arrays.copyOf(freeNodes, freeNodeCount * 2);
+			freeNodes[freeNodeCount++] = n;
+		}
+		retiredNodeCount = 0;
+	}
+	
+	public int getEdgeTotal(GraphCell cell) {
+		// the edge counts of the cell, with the edges crossing in or out of it
+		int[] registered = cellNodes.get(cell);
+		if (registered == null)
+			return 0;
+		int total = 0;
+		for (int n : registered)
+			total += nodeTotals[n];
+		return total;
+	}
+	
+	public int find(NodeVisual from, NodeVisual to) {
+		// index of the edge, -1 if none
+		return slots[findSlot(getKey(from, to))] - 1;
+	}
+	
+	public int add(NodeVisual from, NodeVisual to, QuadCurve2D.Double line, Rectangle2D.Double rect) {
+		// a new edge with a count of one, drawn as a curve or as a square
+		long key = getKey(from, to);
+		int slot = findSlot(key);
+		if (slots[slot] != 0)
+			return slots[slot] - 1;
+		
+		int e;
+		if (freeEdgeCount > 0)
+			e = freeEdges[--freeEdgeCount];
+		else {
+			if (edgeEnd == keys.length)
+				grow(edgeEnd * 2);
+			e = edgeEnd++;
+		}
+		int f = from.edgeIndex, t = to.edgeIndex;
+		keys[e] = key;
+		fromNodes[e] = f;
+		toNodes[e] = t;
+		counts[e] = 0;
+		status[e] = (byte) VisualStatus.DEFAULT.ordinal();
+		crossing[e] = from.cell != to.cell;
+		lines[e] = line;
+		rects[e] = rect;
+		slots[slot] = e + 1;
+		size++;
+		
+		outPrev[e] = -1;
+		outNext[e] = firstOut[f];
+		if (firstOut[f] != -1)
+			outPrev[firstOut[f]] = e;
+		firstOut[f] = e;
+		inPrev[e] = -1;
+		inNext[e] = firstIn[t];
+		if (firstIn[t] != -1)
+			inPrev[firstIn[t]] = e;
+		firstIn[t] = e;
+		
+		incrementCount(e);
+		if (size * 2 > slots.length)
+			rehash(slots.length * 2);
+		return e;
+	}
+	
+	public int size() {
+		return size;
+	}
+	
+	// out and in edges of a node, -1 at the end or if the node is not registered
+	public int getFirstOutEdge(NodeVisual node) {
+		return isRegistered(node) ? firstOut[node.edgeIndex] : -1;
+	}
+	
+	public int getNextOutEdge(int edge) {
+		return outNext[edge];
+	}
+	
+	public int getFirstInEdge(NodeVisual node) {
+		return isRegistered(node) ? firstIn[node.edgeIndex] : -1;
+	}
+	
+	public int getNextInEdge(int edge) {
+		return inNext[edge];
+	}
+	
+	public int nextEdge(int from) {
+		// index of the first edge at or after from, -1 if none
+		for (int e = from; e < edgeEnd; e++)
+			if (fromNodes[e] != -1)
+				return e;
+		return -1;
+	}
+	
+	public NodeVisual getFromNode(int edge) {
+		return nodes[fromNodes[edge]];
+	}
+	
+	public NodeVisual getToNode(int edge) {
+		return nodes[toNodes[edge]];
+	}
+	
+	public int getCount(int edge) {
+		return counts[edge];
+	}
+	
+	public void incrementCount(int edge) {
+		counts[edge]++;
+		nodeTotals[fromNodes[edge]]++;
+		if (crossing[edge])
+			nodeTotals[toNodes[edge]]++;
+	}
+	
+	public VisualStatus getStatus(int edge) {
+		return statusValues[status[edge]];
+	}
+	
+	public void setStatus(int edge, VisualStatus s) {
+		if (s != VisualStatus.DEFAULT && status[edge] == VisualStatus.DEFAULT.ordinal()) {
+			if (statusCount == statusEdges.length)
+				statusEdges = Arrays.copyOf(statusEdges, statusCount * 2);
+			statusEdges[statusCount++] = edge;
+		}
+		status[edge] = (byte) s.ordinal();
+	}
+	
+	public void clearStatus() {
+		// back to DEFAULT, the indices of removed edges are free or reused with DEFAULT
+		for (int i = 0; i < statusCount; i++)
+			status[statusEdges[i]] = (byte) VisualStatus.DEFAULT.ordinal();
+		statusCount = 0;
+	}
+	
+	public boolean isCrossing(int edge) {
+		// whether the edge goes from one cell to another
+		return crossing[edge];
+	}
+	
+	public QuadCurve2D.Double getLine(int edge) {
+		return lines[edge];
+	}
+	
+	public Rectangle2D.Double getRect(int edge) {
+		return rects[edge];
+	}
+	
+	///////////////////////////////////////////////////////////////////////////////////////////////////////////
+	// private methods
+	private static long getKey(NodeVisual from, NodeVisual to) {
+		return ((long) from.edgeIndex << 32) | (to.edgeIndex & 0xFFFFFFFFL);
+	}
+	
+	private boolean isRegistered(NodeVisual node) {
+		int n = node.edgeIndex;
+		return n >= 0 && n < nodeEnd && nodes[n] == node;
+	}
+	
+	private int addNode(NodeVisual node) {
+		int n;
+		if (freeNodeCount > 0)
+			n = freeNodes[--freeNodeCount];
+		else {
+			if (nodeEnd == nodes.length) {
+				int capacity = nodeEnd * 2;
+				nodes = Arrays.copyOf(nodes, capacity);
+				firstOut = Arrays.copyOf(firstOut, capacity);
+				firstIn = Arrays.copyOf(firstIn, capacity);
+				nodeTotals = Arrays.copyOf(nodeTotals, capacity);
+			}
+			n = nodeEnd++;
+		}
+		node.edgeIndex = n;
+		nodes[n] = node;
+		firstOut[n] = -1;
+		firstIn[n] = -1;
+		nodeTotals[n] = 0;
+		return n;
+	}
+	
+	private void removeEdge(int e) {
+		int f = fromNodes[e], t = toNodes[e];
+		nodeTotals[f] -= counts[e];
+		if (crossing[e])
+			nodeTotals[t] -= counts[e];
+		
+		if (outPrev[e] != -1)
+			outNext[outPrev[e]] = outNext[e];
+		else
+			firstOut[f] = outNext[e];
+		if (outNext[e] != -1)
+			outPrev[outNext[e]] = outPrev[e];
+		if (inPrev[e] != -1)
+			inNext[inPrev[e]] = inNext[e];
+		else
+			firstIn[t] = inNext[e];
+		if (inNext[e] != -1)
+			inPrev[inNext[e]] = inPrev[e];
+		
+		removeSlot(findSlot(keys[e]));
+		fromNodes[e] = -1;
+		lines[e] = null;
+		rects[e] = null;
+		if (freeEdgeCount == freeEdges.length)
+			freeEdges = Arrays.copyOf(freeEdges, freeEdgeCount * 2);
+		freeEdges[freeEdgeCount++] = e;
+		size--;
+	}
+	
+	private int getHome(long key) {
+		long h = key * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32)) & (slots.length - 1);
+	}
+	
+	private int findSlot(long key) {
+		int mask = slots.length - 1;
+		int slot = getHome(key);
+		while (slots[slot] != 0 && keys[slots[slot] - 1] != key)
+			slot = (slot + 1) & mask;
+		return slot;
+	}
+	
+	private void removeSlot(int hole) {
+		// shift back the entries after the hole whose probe passed it, so no tombstones are needed
+		int mask = slots.length - 1;
+		int next = (hole + 1) & mask;
+		while (slots[next] != 0) {
+			int home = getHome(keys[slots[next] - 1]);
+			if (((next - home) & mask) >= ((next - hole) & mask)) {
+				slots[hole] = slots[next];
+				hole = next;
+			}
+			next = (next + 1) & mask;
+		}
+		slots[hole] = 0;
+	}
+	
+	private void rehash(int capacity) {
+		slots = new int[capacity];
+		for (int e = 0; e < edgeEnd; e++)
+			if (fromNodes[e] != -1)
+				slots[findSlot(keys[e])] = e + 1;
+	}
+	
+	private void grow(int capacity) {
+		keys = Arrays.copyOf(keys, capacity);
+		fromNodes = Arrays.copyOf(fromNodes, capacity);
+		toNodes = Arrays.copyOf(toNodes, capacity);
+		outNext = Arrays.copyOf(outNext, capacity);
+		outPrev = Arrays.copyOf(outPrev, capacity);
+		inNext = Arrays.copyOf(inNext, capacity);
+		inPrev = Arrays.copyOf(inPrev, capacity);
+		counts = Arrays.copyOf(counts, capacity);
+		status = Arrays.copyOf(status, capacity);
+		crossing = Arrays.copyOf(crossing, capacity);
+		lines = Arrays.copyOf(lines, capacity);
+		rects = Arrays.copyOf(rects, capacity);
+	}
+}
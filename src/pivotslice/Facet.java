@@ -41,6 +41,7 @@ public class Facet implements Serializable {
 		if (f.facetType == FacetType.CATEGORICAL) 
 			return;
 		
+		final DataSource.Network network = PivotSlice.dataSource.getNetwork();
 		Collections.sort(pubs, new Comparator<Publication>() {
 			@Override
 			public int compare(Publication pub1, Publication pub2) {
@@ -59,12 +60,12 @@ public class Facet implements Serializable {
 					v2 = pub2.getReferenceCount().intValue();
 					break;
 				case 7:
-					v1 = PivotSlice.dataSource.getNetwork().graphEdgesIn.get(pub1.getID()).size();
-					v2 = PivotSlice.dataSource.getNetwork().graphEdgesIn.get(pub2.getID()).size();
+					v1 = network.graphEdges.getCitationCount(network.getOrdinal(pub1));
+					v2 = network.graphEdges.getCitationCount(network.getOrdinal(pub2));
 					break;
 				case 8:
-					v1 = PivotSlice.dataSource.getNetwork().graphEdgesOut.get(pub1.getID()).size();
-					v2 = PivotSlice.dataSource.getNetwork().graphEdgesOut.get(pub2.getID()).size();
+					v1 = network.graphEdges.getReferenceCount(network.getOrdinal(pub1));
+					v2 = network.graphEdges.getReferenceCount(network.getOrdinal(pub2));
 					break;
 				}
 				
@@ -92,6 +93,7 @@ public class Facet implements Serializable {
 	}
 	
 	public static int getNumericalFacetValue(Publication pub, int facetID) {
+		DataSource.Network network = PivotSlice.dataSource.getNetwork();
 		switch (facetID) {
 		case 3:
 			return pub.getYear().intValue();
@@ -100,9 +102,9 @@ public class Facet implements Serializable {
 		case 6:
 			return pub.getReferenceCount().intValue();
 		case 7:
-			return PivotSlice.dataSource.getNetwork().graphEdgesIn.get(pub.getID()).size();
+			return network.graphEdges.getCitationCount(network.getOrdinal(pub));
 		case 8:
-			return PivotSlice.dataSource.getNetwork().graphEdgesOut.get(pub.getID()).size();
+			return network.graphEdges.getReferenceCount(network.getOrdinal(pub));
 		default:
 			return -1;
 		}
@@ -150,7 +152,7 @@ public class Facet implements Serializable {
 	}
 	
 	public static String getCategoricalFacetString(Long id, int facetID) {
-		Object ob = PivotSlice.dataSource.getAttributeMaps(facetID).get(id);
+		Object ob = PivotSlice.dataSource.getAttribute(facetID, id);
 		switch (facetID) {
 		case 0:
 			Author au = (Author)ob;
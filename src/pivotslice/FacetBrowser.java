@@ -13,10 +13,8 @@ import java.awt.event.ComponentEvent;
 import java.awt.event.ComponentListener;
 import java.awt.event.MouseEvent;
 import java.awt.event.MouseListener;
-import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
 
 import javax.swing.BorderFactory;
 import javax.swing.JPanel;
@@ -95,34 +93,63 @@ public class FacetBrowser extends JPanel implements ComponentListener, MouseList
 		return facets;
 	}
 	
-	public void writeObjects(ObjectOutputStream obs) throws IOException {
-		obs.writeObject(facets);
-		obs.writeObject(filters);
+	public BrowserState saveState(BrowserState previous) {
+		// the filters as they were in the previous state share its records, and an unchanged browser its state
+		NodesFilter.FilterState[] states = new NodesFilter.FilterState[filters.size()];
+		boolean changed = previous == null || previous.filters.length != states.length
+				|| !Arrays.asList(previous.facets).equals(facets);
+		for (int i = 0; i < states.length; i++) {
+			if (previous != null)
+				states[i] = findState(filters.get(i), previous.filters);
+			if (states[i] == null)
+				states[i] = filters.get(i).getState();
+			changed = changed || states[i] != previous.filters[i];
+		}
+		return changed ? new BrowserState(facets.toArray(new Facet[facets.size()]), states) : previous;
 	}
 	
-	public void readObjects(ObjectInputStream obs) throws IOException, ClassNotFoundException {
+	public boolean restoreState(BrowserState state) {
+		// keeps the filters that are as recorded, with the publications they cached, and creates the others.
+		// false if the browser was already in the state
+		boolean changed = !Arrays.asList(state.facets).equals(facets);
 		facets.clear();
-		for (Facet f : (ArrayList<Facet>) obs.readObject()) {
-			facets.add(Facet.availableFacets[f.facetID]);
-		}
+		facets.addAll(Arrays.asList(state.facets));
 		
-		filters = (ArrayList<NodesFilter>) obs.readObject();
+		ArrayList<NodesFilter> unused = new ArrayList<NodesFilter>(filters);
+		ArrayList<NodesFilter> restored = new ArrayList<NodesFilter>();
+		for (NodesFilter.FilterState fstate : state.filters) {
+			NodesFilter filter = null;
+			for (NodesFilter f : unused) {
+				if (f.matches(fstate)) {
+					filter = f;
+					break;
+				}
+			}
+			if (filter != null)
+				unused.remove(filter);
+			else
+				filter = new NodesFilter(this, fstate);
+			changed = changed || restored.size() >= filters.size() || filters.get(restored.size()) != filter;
+			restored.add(filter);
+		}
+		if (!changed && restored.size() == filters.size())
+			return false;
 		
+		filters = restored;
 		this.removeAll();
-		for (NodesFilter f : filters) {
-			f.parentBrowser = this;
+		for (NodesFilter f : filters)
 			this.add(f);
-		}
-		
-		NodesFilter.rootFrame = rootFrame;
-		Constraint.rootFrame = rootFrame;
-		
 		layoutVisuals();
+		return true;
 	}
 	
 	public boolean satisfyFilterConstraints(Publication pub, int index) {
 		return filters.get(index).satisfyConstraint(pub);
 	}
+	
+	public CompressedBitmap getFilterPublications(int index) {
+		return filters.get(index).getPublicationSet();
+	}
 
 //	public void clearFilterSelection() {
 //		for (NodesFilter f : filters) {
@@ -538,9 +565,28 @@ public class FacetBrowser extends JPanel implements ComponentListener, MouseList
 			}
 		}
 	}
+	
+	private static NodesFilter.FilterState findState(NodesFilter filter, NodesFilter.FilterState[] states) {
+		for (NodesFilter.FilterState state : states) {
+			if (filter.matches(state))
+				return state;
+		}
+		return null;
+	}
 
 	///////////////////////////////////////////////////////////////////////////////////////////////////////////
 	// inner classes
+	public static class BrowserState {
+		// the facets and the filters of a browser as recorded in the history
+		private final Facet[] facets;
+		private final NodesFilter.FilterState[] filters;
+		
+		private BrowserState(Facet[] facets, NodesFilter.FilterState[] filters) {
+			this.facets = facets;
+			this.filters = filters;
+		}
+	}
+	
 	private class FacetBrowserDropHandler extends DropTargetAdapter implements DropTargetListener {
 
 		private DropTarget dropTarget;
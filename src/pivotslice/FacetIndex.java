@@ -0,0 +1,258 @@
+package pivotslice;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+import com.microsoft.research.Author;
+import com.microsoft.research.Keyword;
+import com.microsoft.research.Publication;
+
+public class FacetIndex {
+	
+	// inverted index of the categorical facets: for each facet value, the ordinals of the
+	// publications having it. numerical facets are kept as sorted columns instead.
+	// the forward direction, the value ordinals of each publication, is kept alongside
+	// so that a single publication can be tested without going through Facet.
+	// the index of a network version shares the value ids, the value lists and the column logs
+	// with the indexes of the later versions, which append to them, and reads them up to its own size.
+	// postings bitmaps are not changed once built: they hold the publications below the fold size,
+	// the ones indexed after it are found from the value lists, and once these are a fair part of
+	// the index they are folded into new bitmaps, copying only the bitmaps of their values
+	
+	public static final int[] categoricalFacets = {0, 1, 2, 4};
+	public static final int[] numericalFacets = {3, 5, 6, 7, 8};
+	private static final int[] loggedFacets = {3, 5, 6};		// the others are degrees in the edge store
+	private static final int minUnfolded = 4096;
+	
+	private ArrayList<IdSpace> valueIDs = new ArrayList<IdSpace>(categoricalFacets.length);
+	private ArrayList<AppendLog<Object>> values = new ArrayList<AppendLog<Object>>(categoricalFacets.length);
+	private ArrayList<ValueLists> valueLists = new ArrayList<ValueLists>(categoricalFacets.length);
+	private int[] valueCounts = new int[categoricalFacets.length];
+	private CompressedBitmap[][] postings = new CompressedBitmap[categoricalFacets.length][0];
+	private int foldSize;
+	private AppendLog.Ints[] logs = new AppendLog.Ints[numericalFacets[numericalFacets.length - 1] + 1];
+	private NumericColumn[] columns = new NumericColumn[logs.length];
+	private AdjacencyStore degreeSource = new AdjacencyStore();
+	private int size;
+	
+	///////////////////////////////////////////////////////////////////////////////////////////////////////////
+	// public methods
+	public FacetIndex() {
+		for (int i = 0; i < categoricalFacets.length; i++) {
+			valueIDs.add(new IdSpace());
+			values.add(new AppendLog<Object>());
+			valueLists.add(new ValueLists());
+		}
+		for (int fid : loggedFacets) {
+			logs[fid] = new AppendLog.Ints();
+			columns[fid] = new NumericColumn(logs[fid], 0, null);
+		}
+		columns[7] = new NumericColumn(degreeSource, true, 0);
+		columns[8] = new NumericColumn(degreeSource, false, 0);
+	}
+	
+	public static int getCategoricalIndex(int fid) {
+		switch(fid) {
+			case 0:
+				return 0;
+			case 1:
+				return 1;
+			case 2:
+				return 2;
+			case 4:
+				return 3;
+			default:
+				return -1;
+		}
+	}
+	
+	public FacetIndex next() {
+		// an index to append to while this one is read, sharing what this one has
+		return new FacetIndex(this);
+	}
+	
+	public FacetIndex fork() {
+		// the same publications in logs of their own, to append to while the later indexes of this one read theirs
+		FacetIndex index = new FacetIndex(this);
+		for (int i = 0; i < categoricalFacets.length; i++) {
+			index.valueIDs.set(i, valueIDs.get(i).copy(valueCounts[i]));
+			index.values.set(i, values.get(i).copy(valueCounts[i]));
+			index.valueLists.set(i, valueLists.get(i).copy(size));
+		}
+		for (int fid : loggedFacets) {
+			index.logs[fid] = logs[fid].copy(size);
+			index.columns[fid] = new NumericColumn(index.logs[fid], size, null);
+		}
+		return index;
+	}
+	
+	public void addPublication(Publication pub, int ordinal) {
+		for (Author au : pub.getAuthor())
+			addValue(0, au.getID(), au);
+		if (pub.getJournal() != null)
+			addValue(1, pub.getJournal().getID(), pub.getJournal());
+		if (pub.getConference() != null)
+			addValue(2, pub.getConference().getID(), pub.getConference());
+		for (Keyword key : pub.getKeyword())
+			addValue(3, key.getID(), key);
+		for (ValueLists lists : valueLists)
+			lists.endPublication();
+		
+		logs[3].add(pub.getYear() == null ? NumericColumn.NULL_VALUE : pub.getYear().intValue());
+		logs[5].add(pub.getCitationCount() == null ? NumericColumn.NULL_VALUE : pub.getCitationCount().intValue());
+		logs[6].add(pub.getReferenceCount() == null ? NumericColumn.NULL_VALUE : pub.getReferenceCount().intValue());
+		
+		size = ordinal + 1;
+	}
+	
+	public void updateDegrees(AdjacencyStore edges) {
+		// new edges also change the degrees of publications indexed before, the columns read them from the store
+		degreeSource = edges;
+	}
+	
+	// number of publications indexed so far
+	public int size() {
+		return size;
+	}
+	
+	public void prepare() {
+		// done before the index is published, so that the queries on it do not change it
+		for (int fid : loggedFacets) {
+			if (columns[fid].size() != size)
+				columns[fid] = new NumericColumn(logs[fid], size, columns[fid]);
+		}
+		columns[7] = new NumericColumn(degreeSource, true, size);
+		columns[8] = new NumericColumn(degreeSource, false, size);
+		if (size - foldSize >= Math.max(minUnfolded, size / 8))
+			foldPostings();
+	}
+	
+	public int getValueOrdinal(int fid, long valueID) {
+		// -1 if no publication indexed has the value
+		int index = getCategoricalIndex(fid);
+		return index == -1 ? -1 : valueIDs.get(index).getOrdinal(valueID, valueCounts[index]);
+	}
+	
+	public Object getValue(int fid, long valueID) {
+		// the author, journal, conference or keyword with the id
+		int value = getValueOrdinal(fid, valueID);
+		return value == -1 ? null : values.get(getCategoricalIndex(fid)).get(value);
+	}
+	
+	public List<Object> getValues(int fid) {
+		int index = getCategoricalIndex(fid);
+		return index == -1 ? null : values.get(index).asList(valueCounts[index]);
+	}
+	
+	public CompressedBitmap getPostings(int fid, int valueOrdinal) {
+		// publications below the fold size having the value, null if none; the bitmap is shared, do not change it
+		CompressedBitmap[] bitmaps = postings[getCategoricalIndex(fid)];
+		return valueOrdinal < bitmaps.length ? bitmaps[valueOrdinal] : null;
+	}
+	
+	public int getFoldSize() {
+		return foldSize;
+	}
+	
+	public ValueLists getValueLists(int fid) {
+		int index = getCategoricalIndex(fid);
+		return index == -1 ? null : valueLists.get(index);
+	}
+	
+	public NumericColumn getNumericColumn(int fid) {
+		return fid >= 0 && fid < columns.length ? columns[fid] : null;
+	}
+	
+	public CompressedBitmap getAllPublications() {
+		return CompressedBitmap.range(0, size);
+	}
+	
+	///////////////////////////////////////////////////////////////////////////////////////////////////////////
+	// private methods
+	private FacetIndex(FacetIndex index) {
+		valueIDs = new ArrayList<IdSpace>(index.valueIDs);
+		values = new ArrayList<AppendLog<Object>>(index.values);
+		valueLists = new ArrayList<ValueLists>(index.valueLists);
+		valueCounts = index.valueCounts.clone();
+		postings = index.postings.clone();
+		foldSize = index.foldSize;
+		logs = index.logs.clone();
+		columns = index.columns.clone();
+		degreeSource = index.degreeSource;
+		size = index.size;
+	}
+	
+	private void addValue(int index, long valueID, Object value) {
+		int ordinal = valueIDs.get(index).add(valueID);
+		if (ordinal == valueCounts[index]) {
+			values.get(index).add(value);
+			valueCounts[index]++;
+		}
+		valueLists.get(index).add(ordinal);
+	}
+	
+	private void foldPostings() {
+		// the publications indexed since the last fold into the bitmaps of their values. the bitmaps
+		// of the other values are shared with the indexes of the earlier versions
+		for (int index = 0; index < categoricalFacets.length; index++) {
+			CompressedBitmap[] old = postings[index];
+			CompressedBitmap[] bitmaps = Arrays.copyOf(old, valueCounts[index]);
+			BitSet copied = new BitSet();
+			ValueLists lists = valueLists.get(index);
+			for (int ordinal = foldSize; ordinal < size; ordinal++) {
+				for (int k = lists.getStart(ordinal); k < lists.getEnd(ordinal); k++) {
+					int value = lists.getValue(k);
+					if (!copied.get(value)) {
+						copied.set(value);
+						bitmaps[value] = value < old.length && old[value] != null ? old[value].clone() : new CompressedBitmap();
+					}
+					bitmaps[value].add(ordinal);
+				}
+			}
+			postings[index] = bitmaps;
+		}
+		foldSize = size;
+	}
+	
+	///////////////////////////////////////////////////////////////////////////////////////////////////////////
+	// inner classes
+	public static class ValueLists {
+		// value ordinals of each publication of one facet, in compressed sparse row layout,
+		// shared by the indexes of the versions like the other logs
+		private AppendLog.Ints offsets = new AppendLog.Ints();
+		private AppendLog.Ints values = new AppendLog.Ints();
+		
+		private ValueLists() {
+			offsets.add(0);
+		}
+		
+		public int getStart(int ordinal) {
+			return offsets.get(ordinal);
+		}
+		
+		public int getEnd(int ordinal) {
+			return offsets.get(ordinal + 1);
+		}
+		
+		public int getValue(int position) {
+			return values.get(position);
+		}
+		
+		private ValueLists copy(int size) {
+			ValueLists lists = new ValueLists();
+			lists.offsets = offsets.copy(size + 1);
+			lists.values = values.copy(offsets.get(size));
+			return lists;
+		}
+		
+		private void add(int value) {
+			values.add(value);
+		}
+		
+		private void endPublication() {
+			offsets.add(values.size());
+		}
+	}
+}
@@ -0,0 +1,234 @@
+package pivotslice;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import com.microsoft.research.Publication;
+
+public class FetchEngine {
+	
+	// runs the citation and reference queries of many publications concurrently on a bounded pool.
+	// a fetch keeps at most the concurrency limit of queries in flight and submits the next one when one
+	// returns. results are handed over on the thread calling fetch in the order they arrive, so the caller
+	// merges them without locking. each distinct query is asked once: a fetch asks it once however many times
+	// it is listed, and joins it when another fetch has it in flight, the answer going to all the fetches.
+	// the results of a publication beyond the first page are asked as further queries, run like the others
+	
+	public static final int defaultConcurrency = 8;
+	public static final int pageSize = 100;		// results of a query, the most the web service answers
+	
+	private final ThreadPoolExecutor executor;
+	private volatile int concurrency;
+	private final ConcurrentHashMap<Key, Request> inFlight = new ConcurrentHashMap<Key, Request>();
+	
+	///////////////////////////////////////////////////////////////////////////////////////////////////////////
+	// public methods
+	public FetchEngine(int concurrency) {
+		this.concurrency = Math.max(1, concurrency);
+		executor = new ThreadPoolExecutor(this.concurrency, this.concurrency, 30, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "FetchEngine");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		executor.allowCoreThreadTimeOut(true);
+	}
+	
+	public int getConcurrency() {
+		return concurrency;
+	}
+	
+	public synchronized void setConcurrency(int n) {
+		// the core size may not exceed the maximum size at any time
+		n = Math.max(1, n);
+		if (n > executor.getMaximumPoolSize()) {
+			executor.setMaximumPoolSize(n);
+			executor.setCorePoolSize(n);
+		}
+		else {
+			executor.setCorePoolSize(n);
+			executor.setMaximumPoolSize(n);
+		}
+		concurrency = n;
+	}
+	
+	public void fetch(List<Publication> publications, boolean citations, boolean references, PublicationBackend backend,
+			Receiver receiver, DataSource.ProgressTask task) throws IOException {
+		fetch(publications, citations, references, pageSize, backend, receiver, task);
+	}
+	
+	public void fetch(List<Publication> publications, boolean citations, boolean references, int resultLimit, 
+			PublicationBackend backend, Receiver receiver, DataSource.ProgressTask task) throws IOException {
+		// the citations and/or the references of each distinct publication, up to resultLimit of each, a page
+		// per query; stops at the first failed query
+		LinkedHashMap<Key, Publication> queries = new LinkedHashMap<Key, Publication>();
+		for (Publication pub : publications) {
+			if (citations)
+				addPages(queries, backend, pub, true, pub.getCitationCount(), resultLimit);
+			if (references)
+				addPages(queries, backend, pub, false, pub.getReferenceCount(), resultLimit);
+		}
+		
+		ArrayList<Key> keys = new ArrayList<Key>(queries.keySet());
+		int total = keys.size();
+		BlockingQueue<Request> arrived = new LinkedBlockingQueue<Request>();
+		HashMap<Request, Publication> joined = new HashMap<Request, Publication>(total * 2);
+		int submitted = 0, received = 0;
+		
+		try {
+			while (received < total) {
+				int limit = concurrency;
+				while (submitted - received < limit && submitted < total) {
+					Key key = keys.get(submitted);
+					joined.put(join(key, queries.get(key), arrived), queries.get(key));
+					submitted++;
+				}
+				
+				Request request = arrived.take();
+				receiver.receive(joined.get(request), request.key.citations, request.get());
+				received++;
+				if (task != null)
+					task.advanceProgress(received * 100 / total);
+			}
+		} catch (InterruptedException e) {
+			throw new InterruptedIOException();
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException)
+				throw (IOException) e.getCause();
+			throw new IOException(e.getCause());
+		} finally {
+			for (Request request : joined.keySet())
+				request.leave(arrived);
+		}
+	}
+	
+	///////////////////////////////////////////////////////////////////////////////////////////////////////////
+	// private methods
+	private static void addPages(LinkedHashMap<Key, Publication> queries, PublicationBackend backend, 
+			Publication pub, boolean citations, Long count, int limit) {
+		// the pages the count of the publication calls for, at least the first as the count may be unknown
+		long total = count == null ? 0 : Math.min(count, limit);
+		for (int start = 1; start == 1 || start <= total; start += pageSize) {
+			Key key = new Key(backend, pub.getID(), citations, start, Math.min(start + pageSize - 1, limit));
+			if (!queries.containsKey(key))
+				queries.put(key, pub);
+		}
+	}
+	
+	private Request join(Key key, Publication pub, BlockingQueue<Request> arrived) {
+		// the query in flight for the key, or a new one when there is none or it was just cancelled
+		while (true) {
+			Request request = inFlight.get(key);
+			if (request == null) {
+				Request created = new Request(key, pub);
+				request = inFlight.putIfAbsent(key, created);
+				if (request == null) {
+					created.join(arrived);
+					executor.execute(created);
+					return created;
+				}
+			}
+			if (request.join(arrived))
+				return request;
+			inFlight.remove(key, request);
+		}
+	}
+	
+	///////////////////////////////////////////////////////////////////////////////////////////////////////////
+	// inner classes
+	public static interface Receiver {
+		public void receive(Publication pub, boolean citations, List<Publication> related) throws IOException;
+	}
+	
+	private static class Key {
+		private final PublicationBackend backend;
+		private final long id;
+		private final boolean citations;
+		private final int start, end;
+		
+		public Key(PublicationBackend backend, long id, boolean citations, int start, int end) {
+			this.backend = backend;
+			this.id = id;
+			this.citations = citations;
+			this.start = start;
+			this.end = end;
+		}
+		
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof Key))
+				return false;
+			Key other = (Key) obj;
+			return backend == other.backend && id == other.id && citations == other.citations 
+					&& start == other.start && end == other.end;
+		}
+		
+		@Override
+		public int hashCode() {
+			int hash = System.identityHashCode(backend) * 31 + (int) (id ^ (id >>> 32));
+			hash = (hash * 31 + start) * 31 + end;
+			return hash * 2 + (citations ? 1 : 0);
+		}
+	}
+	
+	private class Request extends FutureTask<List<Publication>> {
+		// a query and the queues of the fetches waiting for it. it is cancelled when the last of them leaves
+		// before it is done, the running query is left to finish as an interrupt would close the channels
+		// of a local backend
+		private final Key key;
+		private final ArrayList<BlockingQueue<Request>> waiters = new ArrayList<BlockingQueue<Request>>(1);
+		
+		public Request(final Key key, final Publication pub) {
+			super(new Callable<List<Publication>>() {
+				@Override
+				public List<Publication> call() throws Exception {
+					return key.citations ? key.backend.getCitations(pub, key.start, key.end) 
+							: key.backend.getReferences(pub, key.start, key.end);
+				}
+			});
+			this.key = key;
+		}
+		
+		public synchronized boolean join(BlockingQueue<Request> arrived) {
+			if (isCancelled())
+				return false;
+			if (isDone())
+				arrived.add(this);
+			else
+				waiters.add(arrived);
+			return true;
+		}
+		
+		public synchronized void leave(BlockingQueue<Request> arrived) {
+			waiters.remove(arrived);
+			if (waiters.isEmpty() && !isDone())
+				cancel(false);
+		}
+		
+		@Override
+		protected void done() {
+			inFlight.remove(key, this);
+			synchronized (this) {
+				for (BlockingQueue<Request> arrived : waiters)
+					arrived.add(this);
+				waiters.clear();
+			}
+		}
+	}
+}
@@ -22,14 +22,16 @@ import java.awt.geom.Line2D;
 import java.awt.geom.QuadCurve2D;
 import java.awt.geom.Rectangle2D;
 import java.awt.image.BufferedImage;
-import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 import javax.swing.JFileChooser;
 import javax.swing.JLayeredPane;
@@ -38,16 +40,15 @@ import javax.swing.JOptionPane;
 import javax.swing.JPanel;
 import javax.swing.JPopupMenu;
 import javax.swing.JSeparator;
-import javax.swing.SwingUtilities;
 import javax.swing.Timer;
 
-import pivotslice.GraphCell.EdgeVisual;
 import pivotslice.GraphCell.NodeVisual;
 
 
 import com.microsoft.research.Publication;
 
-public class GraphCanvas extends JPanel implements ComponentListener, MouseListener, MouseMotionListener {
+public class GraphCanvas extends JPanel implements ComponentListener, MouseListener, MouseMotionListener, 
+		DataSource.NetworkListener {
 	
 	public static enum VisualStatus {DEFAULT, BRUSHED, HOVERED, SELECTED};
 	public static enum GraphCellOp {ADD, REMOVE, UPDATE, RELAYOUT};
@@ -70,6 +71,7 @@ public class GraphCanvas extends JPanel implements ComponentListener, MouseListe
 	private static final Color bkgrTextColor = new Color(0, 0, 0, 120);
 	private static final Color cellSelColor = new Color(220, 20, 60);
 	private static final BasicStroke defaultStroke = new BasicStroke(1);
+	private static final ForkJoinPool layoutPool = new ForkJoinPool();
 	
 	public boolean initialized = false;
 	
@@ -82,6 +84,7 @@ public class GraphCanvas extends JPanel implements ComponentListener, MouseListe
 	private NodeVisual hoveredNode, preHoveredNode;
 	private HashSet<NodeVisual> selectedNodes = new HashSet<NodeVisual>();
 	private HashSet<NodeVisual> selectedNgbrNodes = new HashSet<NodeVisual>();
+	private ArrayList<NodeVisual> highlightedNodes = new ArrayList<NodeVisual>();		// nodes with a status other than DEFAULT
 	private HashSet<Publication> selectedPublications = new HashSet<Publication>();
 	private GraphCell hoveredCell, selectedCell;
 	private boolean lassoSelection;
@@ -90,6 +93,19 @@ public class GraphCanvas extends JPanel implements ComponentListener, MouseListe
 	private Polygon selectionArea = new Polygon();
 	
 	private ArrayList<GraphCellRow> graphCellRows = new ArrayList<GraphCellRow>();
+	private AdjacencyStore drawnGraphEdges;		// the citations the edge drawings shown were created from
+	private int drawnNumbering;
+	private DataSource.Network distributedNetwork;		// the version whose publications were put into the cells
+	private boolean ingesting;		// publications are being added, the state is recorded once they are all in
+	private NodeGrid nodeGrid = new NodeGrid();		// node circles for hit testing
+	// changes waiting for the next pipeline job, kept until a job commits them
+	private Set<GraphCell> rebuildCells = Collections.newSetFromMap(new IdentityHashMap<GraphCell, Boolean>());
+	private Set<GraphCell> relayoutCells = Collections.newSetFromMap(new IdentityHashMap<GraphCell, Boolean>());
+	private Set<GraphCell> growCells = Collections.newSetFromMap(new IdentityHashMap<GraphCell, Boolean>());
+	private ArrayList<GraphCell> removedCells = new ArrayList<GraphCell>();		// still in the node visual index
+	private boolean reindexCells;		// index the visuals of all the cells again
+	private boolean edgesReady;		// the edges shown are those of the visuals committed, on the event dispatch thread
+	private boolean restoredSelection;		// the selection is shown again once the restored visuals are committed
 	
 	private boolean highlightRepaint = false;
 	private BufferedImage graphEdgesImage;
@@ -157,15 +173,18 @@ public class GraphCanvas extends JPanel implements ComponentListener, MouseListe
 	}
 	
 	public void initGraphCanvas() {
+		GraphCell.renderPipeline.nextGeneration();
 		if (graphCellRows.size() != 0)
 			graphCellRows.clear();
+		reindexCells = true;
 		graphCellRows.add(new GraphCellRow());
 		graphCellRows.get(0).graphCells.add(new GraphCell(0, 0));
 		
 		DataSource.Network network = PivotSlice.dataSource.getNetwork();
 		GraphCell defaultCell = getGraphCell(0, 0);
-		defaultCell.publications.addAll(network.graphNodes.values());	
-		defaultCell.createAndLayoutNodeVisuals();
+		defaultCell.publications.addAll(network.getPublications());	
+		distributedNetwork = network;
+		rebuildCells.add(defaultCell);
 		
 		Dimension dim = this.getSize();		
 		graphEdgesImage = new BufferedImage(dim.width, dim.height, BufferedImage.TYPE_INT_ARGB); 
@@ -178,94 +197,165 @@ public class GraphCanvas extends JPanel implements ComponentListener, MouseListe
 		selectedCell = defaultCell;
 		selectedPublications.clear();
 		
-		createDrawings();
-		highlightSelectedNodes();
-			
-		initialized = true;
-		
-		rootFrame.gridPanel.updateDrawings();
-		repaintImmediately();
+		// initialized once the first job commits, and the state is recorded once it finishes
+		renderDrawings(false, true);
 		//repaintAnimation();
 	}
 	
-	public void writeObjects(ObjectOutputStream obs) throws IOException {
-		obs.writeObject(graphCellRows);
-		obs.writeObject(selectedCell);
-		obs.writeObject(selectedNodes);
-		obs.writeObject(selectedNgbrNodes);
-	}
-	
-	public void readObjects(ObjectInputStream obs) throws IOException, ClassNotFoundException {
-		graphCellRows = (ArrayList<GraphCellRow>) obs.readObject();
-		selectedCell = (GraphCell) obs.readObject();
-		selectedNodes = (HashSet<NodeVisual>) obs.readObject();
-		selectedNgbrNodes = (HashSet<NodeVisual>) obs.readObject();
+	public CanvasState saveState(CanvasState previous) {
+		// the cells as they were in the previous state share its records
+		CellState[][] cells = new CellState[getRowLength()][getColLength()];
+		for (int i = 0; i < getRowLength(); i++) {
+			for (int j = 0; j < getColLength(); j++) {
+				GraphCell cell = getGraphCell(i, j);
+				CellState recorded = null;
+				if (previous != null && i < previous.cells.length && j < previous.cells[i].length)
+					recorded = previous.cells[i][j];
+				cells[i][j] = recorded != null && recorded.matches(cell) ? recorded : new CellState(cell);
+			}
+		}
 		
-		SwingUtilities.invokeLater(new Runnable(){
-			@Override
-			public void run() {
-				createDrawings();
-				rootFrame.gridPanel.updateDrawings();
-				repaintImmediately();
-			}	
-		});
+		long[] selectedIds = new long[selectedPublications.size()];
+		int i = 0;
+		for (Publication pub : selectedPublications)
+			selectedIds[i++] = pub.getID();
+		return new CanvasState(cells, selectedCell == null ? -1 : selectedCell.gridy, 
+				selectedCell == null ? -1 : selectedCell.gridx, selectedIds);
 	}
 	
-	public void reDistributeNodesToAllGraphCells() {
-		// called when the data model is changed
+	public void restoreState(CanvasState state, boolean redistribute) {
+		// once the network and the filters are restored. new cells are filled if either changed, otherwise
+		// only the cells not as recorded are rebuilt; the visuals get their recorded positions back
+		GraphCell.renderPipeline.nextGeneration();
+		if (redistribute) {
+			graphCellRows.clear();
+			for (int i = 0; i < rootFrame.facetBrowserY.getNodesFilters().size(); i++) {
+				GraphCellRow row = new GraphCellRow();
+				for (int j = 0; j < rootFrame.facetBrowserX.getNodesFilters().size(); j++)
+					row.graphCells.add(new GraphCell(i, j));
+				graphCellRows.add(row);
+			}
+			reindexCells = true;
+		}
 		for (int i = 0; i < getRowLength(); i++) {
 			for (int j = 0; j < getColLength(); j++) {
-				getGraphCell(i, j).publications.clear();
+				GraphCell cell = getGraphCell(i, j);
+				CellState recorded = state.cells[i][j];
+				if (!redistribute && recorded.matches(cell))
+					continue;
+				cell.xAggr = recorded.xAggr;
+				cell.yAggr = recorded.yAggr;
+				cell.matrixLayout = recorded.matrixLayout;
+				cell.restoredPositions = recorded.positions;
+				rebuildCells.add(cell);
 			}
 		}
 		
+		selectedCell = state.selectedRow == -1 ? null : getGraphCell(state.selectedRow, state.selectedCol);
+		selectedPublications.clear();
 		DataSource.Network network = PivotSlice.dataSource.getNetwork();
-		for (Publication pub : network.graphNodes.values()) {
-			boolean found = false;
-			// double constraint cells
+		for (long id : state.selectedIds) {
+			Publication pub = network.findPublication(id);
+			if (pub != null)
+				selectedPublications.add(pub);
+		}
+		restoredSelection = true;
+		
+		if (redistribute)
+			distributeNodesToAllGraphCells();
+		renderDrawings(false, false);
+		rootFrame.gridPanel.updateDrawings();
+	}
+	
+	public void reDistributeNodesToAllGraphCells() {
+		// called when the data model is changed
+		GraphCell.renderPipeline.nextGeneration();
+		distributeNodesToAllGraphCells();
+		renderDrawings(true, false);
+	}
+	
+	@Override
+	public void networkPublished(DataSource.Network previous, DataSource.Network next) {
+		// while publications are added, each version puts the new ones into the cells whose filters they
+		// satisfy, testing the new publications only. the cells that got publications grow their visuals,
+		// the others stay as they are. a change to other data than the cells were filled from redistributes
+		if (!initialized)
+			return;
+		ingesting = true;
+		if (!isDistributed(previous) || previous.getNumbering() != next.getNumbering()) {
+			reDistributeNodesToAllGraphCells();
+			return;
+		}
+		
+		// the job in flight lays out the cells as they were when it was submitted, it is replaced
+		GraphCell.renderPipeline.nextGeneration();
+		PublicationPredicate[] rowPredicates = new PublicationPredicate[getRowLength()];
+		PublicationPredicate[] colPredicates = new PublicationPredicate[getColLength()];
+		CompressedBitmap[] rowSets = new CompressedBitmap[getRowLength()];
+		CompressedBitmap[] colSets = new CompressedBitmap[getColLength()];
+		for (int i = 1; i < getRowLength(); i++) {
+			rowPredicates[i] = rootFrame.facetBrowserY.getNodesFilter(i).getPredicate();
+			rowSets[i] = new CompressedBitmap();
+		}
+		for (int j = 1; j < getColLength(); j++) {
+			colPredicates[j] = rootFrame.facetBrowserX.getNodesFilter(j).getPredicate();
+			colSets[j] = new CompressedBitmap();
+		}
+		
+		// as distributed: the double constraint cells, else the single constraint cells, else the default cell
+		ArrayList<Integer> rows = new ArrayList<Integer>();
+		ArrayList<Integer> cols = new ArrayList<Integer>();
+		for (int ordinal = previous.getPublicationCount(); ordinal < next.getPublicationCount(); ordinal++) {
+			rows.clear();
+			cols.clear();
 			for (int i = 1; i < getRowLength(); i++) {
-				for (int j = 1; j < getColLength(); j++) {
-					if (rootFrame.facetBrowserX.satisfyFilterConstraints(pub, j) && 
-								rootFrame.facetBrowserY.satisfyFilterConstraints(pub, i)) {
-						getGraphCell(i, j).publications.add(pub);
-						found = true;
-					}
+				if (rowPredicates[i].test(ordinal)) {
+					rowSets[i].add(ordinal);
+					rows.add(i);
 				}
 			}
-			// single constraint cells
-			if (!found) {
-				found = false;
-				for (int i = 1; i < getRowLength(); i++) {
-					if (rootFrame.facetBrowserY.satisfyFilterConstraints(pub, i)) {
-						getGraphCell(i, 0).publications.add(pub);
-						found = true;
-					}
+			for (int j = 1; j < getColLength(); j++) {
+				if (colPredicates[j].test(ordinal)) {
+					colSets[j].add(ordinal);
+					cols.add(j);
 				}
-				
-				for (int j = 1; j < getColLength(); j++) {
-					if (rootFrame.facetBrowserX.satisfyFilterConstraints(pub, j)) {
-						getGraphCell(0, j).publications.add(pub);
-						found = true;
-					}
+			}
+			if (rows.isEmpty())
+				rows.add(0);
+			if (cols.isEmpty())
+				cols.add(0);
+			
+			Publication pub = next.getPublication(ordinal);
+			for (int i : rows) {
+				for (int j : cols) {
+					GraphCell cell = getGraphCell(i, j);
+					cell.publications.add(pub);
+					growCells.add(cell);
 				}
-				// no constraint cell - the default cell	
-				if (!found)
-					getGraphCell(0, 0).publications.add(pub);
 			}
-				
 		}
 		
-		for (int i = 0; i < getRowLength(); i++) {
-			for (int j = 0; j < getColLength(); j++) {
-				getGraphCell(i, j).createAndLayoutNodeVisuals();
-			}
-		}
+		for (int i = 1; i < getRowLength(); i++)
+			rootFrame.facetBrowserY.getNodesFilter(i).addDistributedPublications(previous.getFacetIndex(), rowSets[i]);
+		for (int j = 1; j < getColLength(); j++)
+			rootFrame.facetBrowserX.getNodesFilter(j).addDistributedPublications(previous.getFacetIndex(), colSets[j]);
+		distributedNetwork = next;
 		
-		createDrawings();
-		repaintAnimation();
+		renderDrawings(true, false);
+	}
+	
+	public void finishIngest() {
+		// once all the publications are added; the state is recorded when the last drawings settle
+		ingesting = false;
+		if (!isDistributed(PivotSlice.dataSource.getNetwork()))
+			reDistributeNodesToAllGraphCells();
+		else
+			renderDrawings(true, false);
 	}
 	
 	public void performDataChangeToGraphCells(boolean isRow, int index, GraphCellOp op) {
+		// the job in flight lays out the cells as they were when it was submitted, it is replaced
+		GraphCell.renderPipeline.nextGeneration();
 		switch(op) {
 		case ADD:
 			if (isRow) {
@@ -298,6 +388,7 @@ public class GraphCanvas extends JPanel implements ComponentListener, MouseListe
 		case REMOVE:
 			if (isRow) {
 				GraphCellRow row = graphCellRows.remove(index);
+				removedCells.addAll(row.graphCells);
 				// update index
 				for (int i = index; i < graphCellRows.size(); i++) {
 					for (GraphCell cell : graphCellRows.get(i).graphCells) {
@@ -309,18 +400,11 @@ public class GraphCanvas extends JPanel implements ComponentListener, MouseListe
 					GraphCell defaultCell = getGraphCell(0, i);
 					// remove duplicates
 					for (Publication pub : row.graphCells.get(i).publications) {
-						boolean duplicated = false;
-						for (int j = 1; j < graphCellRows.size(); j++) {
-							if (getGraphCell(j, i).nodeVisualMap.containsKey(pub.getID())) {
-								duplicated = true;
-								break;
-							}
-						}
-						if (!duplicated)
+						if (!isInOtherFilterCell(true, -1, i, pub))
 							defaultCell.publications.add(pub);
 					}
 					
-					defaultCell.createAndLayoutNodeVisuals();
+					rebuildCells.add(defaultCell);
 				}
 				
 				if (selectedCell != null && index == selectedCell.gridy) {
@@ -331,6 +415,7 @@ public class GraphCanvas extends JPanel implements ComponentListener, MouseListe
 				for (int i = 0; i < getRowLength(); i++) {
 					GraphCell defaultCell = getGraphCell(i, 0);
 					GraphCell cell = graphCellRows.get(i).graphCells.remove(index);
+					removedCells.add(cell);
 					// update index
 					for (int j = index; j < graphCellRows.get(i).graphCells.size(); j++) {
 						graphCellRows.get(i).graphCells.get(j).gridx = j;
@@ -338,18 +423,11 @@ public class GraphCanvas extends JPanel implements ComponentListener, MouseListe
 					
 					// remove duplicates
 					for (Publication pub : cell.publications) {
-						boolean duplicated = false;
-						for (int j = 1; j < graphCellRows.get(i).graphCells.size(); j++) {
-							if (getGraphCell(i, j).nodeVisualMap.containsKey(pub.getID())) {
-								duplicated = true;
-								break;
-							}
-						}
-						if (!duplicated)
+						if (!isInOtherFilterCell(false, -1, i, pub))
 							defaultCell.publications.add(pub);
 					}
 					
-					defaultCell.createAndLayoutNodeVisuals();	
+					rebuildCells.add(defaultCell);
 					
 					if (selectedCell != null && index == selectedCell.gridx) {
 						selectedCell = null;
@@ -360,29 +438,21 @@ public class GraphCanvas extends JPanel implements ComponentListener, MouseListe
 			break;
 			
 		case UPDATE:
-			redistributePublications(isRow, index);
+			updatePublications(isRow, index);
 			
 			break;
 			
 		case RELAYOUT:
-			if (isRow) {
-				for(GraphCell cell : graphCellRows.get(index).graphCells) {
-					cell.createAndLayoutNodeVisuals();
-				}
-			}
-			else {
-				for(int i = 0; i < graphCellRows.size(); i++) {
-					getGraphCell(i, index).createAndLayoutNodeVisuals();		
-				}
-			}
+			int cellCount = isRow ? getColLength() : getRowLength();
+			for (int i = 0; i < cellCount; i++)
+				rebuildCells.add(getFilterCell(isRow, index, i));
 			
 			break;
 		}
 	}
 	
 	public void performAnimatedRendering() {
-		createDrawings();
-		repaintAnimation();
+		renderDrawings(true, false);
 	}
 	
 	public int getRowLength() {
@@ -409,21 +479,9 @@ public class GraphCanvas extends JPanel implements ComponentListener, MouseListe
 		return selectedPublications;
 	}
 	
-	public GraphCell getGraphCellContainsNode(NodeVisual node) {
-		for (int i = 0; i < graphCellRows.size(); i++) {
-			ArrayList<GraphCell> rowCells = graphCellRows.get(i).graphCells;
-			for (int j = 0; j < rowCells.size(); j++) {
-				if (rowCells.get(j).bounds.contains(node.xrender, node.yrender))
-					return rowCells.get(j);
-			}
-		}
-		
-		return null;
-	}
-	
 	public void setPublicationSelected(Long pubid) {
 		selectedPublications.clear();
-		selectedPublications.add(PivotSlice.dataSource.getNetwork().graphNodes.get(pubid));
+		selectedPublications.add(PivotSlice.dataSource.getNetwork().findPublication(pubid));
 		
 		highlightSelectedNodes();
 	}
@@ -436,41 +494,41 @@ public class GraphCanvas extends JPanel implements ComponentListener, MouseListe
 			if (rootFrame.facetBrowserX.getNodesFilters().get(selectedCell.gridx).isCollapsed 
 					|| isCollapsed == selectedCell.xAggr)
 				return;
+			GraphCell.renderPipeline.nextGeneration();
 			selectedCell.xAggr = isCollapsed;
 		}
 		else {
 			if (rootFrame.facetBrowserY.getNodesFilters().get(selectedCell.gridy).isCollapsed
 					|| isCollapsed == selectedCell.yAggr)
 				return;
+			GraphCell.renderPipeline.nextGeneration();
 			selectedCell.yAggr = isCollapsed;
 		}
 		
-		selectedCell.createAndLayoutNodeVisuals();
-		createDrawings();
-		repaintAnimation();
+		rebuildCells.add(selectedCell);
+		renderDrawings(true, false);
 	}
 	
 	public void setMatrixView(boolean selected) {
 		if (selectedCell != null && selectedCell.matrixLayout != selected) {
+			GraphCell.renderPipeline.nextGeneration();
 			selectedCell.matrixLayout = selected;
-			selectedCell.createAndLayoutNodeVisuals();
-			createDrawings();
-			repaintAnimation();
+			rebuildCells.add(selectedCell);
+			renderDrawings(true, false);
 		}
 	}
 	
 	public void reLayoutNodeVisuals() {
 		if (selectedCell != null)
-			selectedCell.reLayoutNodeVisuals();
-		createDrawings();
-		repaintAnimation();
+			relayoutCells.add(selectedCell);
+		renderDrawings(true, false);
 	}
 	
 	public void setShowLinks(boolean internal, boolean crossing) {
+		GraphCell.renderPipeline.nextGeneration();
 		internalLink = internal;
 		crossingLink = crossing;
-		createDrawings();
-		repaintImmediately();
+		renderDrawings(false, false);
 	}
 	///////////////////////////////////////////////////////////////////////////////////////////////////////////
 	// events handlers
@@ -485,16 +543,15 @@ public class GraphCanvas extends JPanel implements ComponentListener, MouseListe
 		if (!initialized)
 			return;
 
+		// the edge image is replaced by the job
 		Dimension dim = this.getSize();
-		graphEdgesImage = new BufferedImage(dim.width, dim.height, BufferedImage.TYPE_INT_ARGB);
 		highlightEdgesImage = new BufferedImage(dim.width, dim.height, BufferedImage.TYPE_INT_ARGB);
 		backgroundLayer.setBounds(0, 0, dim.width, dim.height);
 		graphLayer.setBounds(0, 0, dim.width, dim.height);
 		highlightLayer.setBounds(0, 0, dim.width, dim.height);
 		selectionLayer.setBounds(0, 0, dim.width, dim.height);
 		
-		createDrawings();
-		repaintImmediately();
+		renderDrawings(false, false);
 	}
 
 	@Override
@@ -524,26 +581,15 @@ public class GraphCanvas extends JPanel implements ComponentListener, MouseListe
 		}
 		
 		// find the node and cell being hovered over
-		searchnode:
-		for (int i = 0; i < graphCellRows.size(); i++) {
-			ArrayList<GraphCell> rowCells = graphCellRows.get(i).graphCells;
-			for (int j = 0; j < rowCells.size(); j++) {
-				GraphCell cell = rowCells.get(j);
-				if (!cell.bounds.contains(p))
-					continue;
-				if (cell != hoveredCell) {
-					hoveredCell = cell;
-					highlightRepaint = true;
-				}
-				// for each node visual
-				for (NodeVisual node :cell.nodeVisuals) {
-					if (node.circle.contains(p)) {
-						node.status = VisualStatus.HOVERED;
-						hoveredNode = node;
-						break searchnode;
-					}
-				}
+		GraphCell cell = getGraphCellAt(p);
+		if (cell != null) {
+			if (cell != hoveredCell) {
+				hoveredCell = cell;
+				highlightRepaint = true;
 			}
+			hoveredNode = nodeGrid.find(p.x, p.y, cell);
+			if (hoveredNode != null)
+				setVisualStatus(hoveredNode, VisualStatus.HOVERED);
 		}
 		/*
 		// find graph cell being hovered over
@@ -586,23 +632,13 @@ public class GraphCanvas extends JPanel implements ComponentListener, MouseListe
 						}	
 				}
 				
-				// for each graph cell
-				for (int i = 0; i < graphCellRows.size(); i++) {
-					ArrayList<GraphCell> rowCells = graphCellRows.get(i).graphCells;
-					for (int j = 0; j < rowCells.size(); j++) {
-						GraphCell cell = rowCells.get(j);
-						if (cell.bounds.contains(p)) 
-							selectedCell = cell;
-						
-						if (!me.isControlDown()) {
-							// for each node visual
-							for (NodeVisual node : cell.nodeVisuals) {
-								if (selectionArea.contains(node.xrender, node.yrender)) {		
-									selectedPublications.addAll(node.pubs);
-								}	
-							}
-						}
-					}
+				selectedCell = getGraphCellAt(p);
+				if (!me.isControlDown()) {
+					// the node visuals in the area
+					ArrayList<NodeVisual> nodes = new ArrayList<NodeVisual>();
+					nodeGrid.findInShape(selectionArea, nodes);
+					for (NodeVisual node : nodes)
+						selectedPublications.addAll(node.pubs);
 				}
 				
 				highlightSelectedNodes();
@@ -636,44 +672,20 @@ public class GraphCanvas extends JPanel implements ComponentListener, MouseListe
 					selectedPublications.addAll(node.pubs);
 				
 				// find the cell and/or node being selected
-				searchNode:
-				for (int i = 0; i < graphCellRows.size(); i++) {
-					ArrayList<GraphCell> rowCells = graphCellRows.get(i).graphCells;
-					for (int j = 0; j < rowCells.size(); j++) {
-						GraphCell cell = rowCells.get(j);
-						if (!cell.bounds.contains(p))
-							continue;
-						selectedCell = cell;
-						if (previous)
-							break searchNode;
-						// for each node visual
-						for (NodeVisual node : cell.nodeVisuals) {
-							if (node.circle.contains(p)) {
-								selectedPublications.addAll(node.pubs);
-								break searchNode;
-							}
-						}
-					}
+				selectedCell = getGraphCellAt(p);
+				if (selectedCell != null && !previous) {
+					NodeVisual node = nodeGrid.find(p.x, p.y, selectedCell);
+					if (node != null)
+						selectedPublications.addAll(node.pubs);
 				}
 			}
 			else {
 				// find the node and cell being selected
-				searchNode:
-				for (int i = 0; i < graphCellRows.size(); i++) {
-					ArrayList<GraphCell> rowCells = graphCellRows.get(i).graphCells;
-					for (int j = 0; j < rowCells.size(); j++) {
-						GraphCell cell = rowCells.get(j);
-						if (!cell.bounds.contains(p))
-							continue;
-						selectedCell = cell;
-						// for each node visual
-						for (NodeVisual node : cell.nodeVisuals) {
-							if (node.circle.contains(p)) {
-								selectedPublications.addAll(node.pubs);
-								break searchNode;
-							}
-						}
-					}
+				selectedCell = getGraphCellAt(p);
+				if (selectedCell != null) {
+					NodeVisual node = nodeGrid.find(p.x, p.y, selectedCell);
+					if (node != null)
+						selectedPublications.addAll(node.pubs);
 				}
 			}
 			
@@ -797,22 +809,23 @@ public class GraphCanvas extends JPanel implements ComponentListener, MouseListe
 		}
 	}
 	
-	private void drawGraphEdges(Graphics2D g2) {
-		for (EdgeVisual edge : GraphCell.edgeVisuals.values()) {
-			if (edge.line != null) {
-				if (crossingLink && edge.isCrossing || internalLink && !edge.isCrossing) {
+	private void drawGraphEdges(Graphics2D g2, EdgeStore edges) {
+		for (int e = edges.nextEdge(0); e != -1; e = edges.nextEdge(e + 1)) {
+			QuadCurve2D.Double line = edges.getLine(e);
+			if (line != null) {
+				if (crossingLink && edges.isCrossing(e) || internalLink && !edges.isCrossing(e)) {
 					g2.setColor(edgeInitColor);
-					g2.setStroke(new BasicStroke((float) (Math.log(edge.count) + 1)));
+					g2.setStroke(new BasicStroke((float) (Math.log(edges.getCount(e)) + 1)));
 					
 					// link
-					g2.draw(edge.line);
+					g2.draw(line);
 					
 					// arrow
 					Graphics2D g = (Graphics2D)g2.create();
 					
 					AffineTransform transform = g2.getTransform();
-				    double angle = Math.atan2(edge.line.y2 - edge.line.ctrly, edge.line.x2 - edge.line.ctrlx);
-				    transform.translate(edge.line.x2, edge.line.y2 - nodeSize);
+				    double angle = Math.atan2(line.y2 - line.ctrly, line.x2 - line.ctrlx);
+				    transform.translate(line.x2, line.y2 - nodeSize);
 				    transform.rotate(angle - Math.PI / 2, 0, nodeSize);  	 
 				    
 				    g.setTransform(transform);
@@ -825,74 +838,154 @@ public class GraphCanvas extends JPanel implements ComponentListener, MouseListe
 			}
 			else {
 				g2.setColor(edgeInitColorMat);
-				g2.fill(edge.rect);
+				g2.fill(edges.getRect(e));
 			}
 		}
 	}
 	
 	private void drawGraphEdgesTopLayer(Graphics2D g2) {		
-		for (EdgeVisual edge : GraphCell.edgeVisuals.values()) {
-			if (selectedNodes.contains(edge.edgeNodes.fromNode) || edge.edgeNodes.fromNode == hoveredNode)
-				g2.setColor(edgeEmphColorIn);
-			else if (selectedNodes.contains(edge.edgeNodes.toNode) || edge.edgeNodes.toNode == hoveredNode)
-				g2.setColor(edgeEmphColorOut);
-			else
-				continue;
-			
-			if (edge.line != null) {
-				if (edge.edgeNodes.fromNode != hoveredNode && edge.edgeNodes.toNode != hoveredNode
-						&& hoveredCell != null && hoveredCell != selectedCell) {				
-					GraphCell fromCell = getGraphCellContainsNode(edge.edgeNodes.fromNode);
-					GraphCell toCell = getGraphCellContainsNode(edge.edgeNodes.toNode);
-					if (!(fromCell == hoveredCell && toCell == selectedCell) 
-							&& !(toCell == hoveredCell && fromCell == selectedCell))
-						g2.setColor(edgeInitColorEm);
-						
-				}
-				
-				// link
-				g2.setStroke(new BasicStroke((float) (Math.log(edge.count) + 1)));
-				g2.draw(edge.line);
-				
-				// arrow
-				Graphics2D g = (Graphics2D)g2.create();
-				
-				AffineTransform transform = g2.getTransform();
-			    double angle = Math.atan2(edge.line.y2 - edge.line.ctrly, edge.line.x2 - edge.line.ctrlx);
-			    transform.translate(edge.line.x2, edge.line.y2 - nodeSize);
-			    transform.rotate(angle - Math.PI / 2, 0, nodeSize);  	 	  
-			    g.setTransform(transform);	    
-			    
-			    g.draw(arrowHead);
-			    g.fill(arrowHead);
-			    
-			    g.dispose();
+		// the edges of the selected and hovered nodes, each once
+		if (!edgesReady)
+			return;
+		EdgeStore edges = GraphCell.edgeVisuals;
+		ArrayList<NodeVisual> nodes = new ArrayList<NodeVisual>(selectedNodes);
+		if (hoveredNode != null && !selectedNodes.contains(hoveredNode))
+			nodes.add(hoveredNode);
+		for (NodeVisual node : nodes) {
+			for (int e = edges.getFirstOutEdge(node); e != -1; e = edges.getNextOutEdge(e))
+				drawGraphEdgeTopLayer(g2, e, edgeEmphColorIn);
+			for (int e = edges.getFirstInEdge(node); e != -1; e = edges.getNextInEdge(e)) {
+				NodeVisual fromNode = edges.getFromNode(e);
+				if (!selectedNodes.contains(fromNode) && fromNode != hoveredNode)
+					drawGraphEdgeTopLayer(g2, e, edgeEmphColorOut);
 			}
-			else {
-				g2.fill(edge.rect);
-				g2.setColor(Color.black);
-				g2.draw(edge.rect);
+		}
+	}
+	
+	private void drawGraphEdgeTopLayer(Graphics2D g2, int e, Color color) {
+		EdgeStore edges = GraphCell.edgeVisuals;
+		NodeVisual fromNode = edges.getFromNode(e);
+		NodeVisual toNode = edges.getToNode(e);
+		QuadCurve2D.Double line = edges.getLine(e);
+		g2.setColor(color);
+		
+		if (line != null) {
+			if (fromNode != hoveredNode && toNode != hoveredNode
+					&& hoveredCell != null && hoveredCell != selectedCell) {				
+				if (!(fromNode.cell == hoveredCell && toNode.cell == selectedCell) 
+						&& !(toNode.cell == hoveredCell && fromNode.cell == selectedCell))
+					g2.setColor(edgeInitColorEm);
+					
 			}
+			
+			// link
+			g2.setStroke(new BasicStroke((float) (Math.log(edges.getCount(e)) + 1)));
+			g2.draw(line);
+			
+			// arrow
+			Graphics2D g = (Graphics2D)g2.create();
+			
+			AffineTransform transform = g2.getTransform();
+		    double angle = Math.atan2(line.y2 - line.ctrly, line.x2 - line.ctrlx);
+		    transform.translate(line.x2, line.y2 - nodeSize);
+		    transform.rotate(angle - Math.PI / 2, 0, nodeSize);  	 	  
+		    g.setTransform(transform);	    
+		    
+		    g.draw(arrowHead);
+		    g.fill(arrowHead);
+		    
+		    g.dispose();
+		}
+		else {
+			g2.fill(edges.getRect(e));
+			g2.setColor(Color.black);
+			g2.draw(edges.getRect(e));
 		}
 	}
 	
-	private void createDrawings() {
-		Dimension dim = this.getSize();
-		// node drawings
+	private void renderDrawings(boolean animated, boolean initial) {
+		// hands the cells to a new pipeline job, which replaces the one in flight
+		int generation = GraphCell.renderPipeline.nextGeneration();
+		ArrayList<GraphCell> cells = getGraphCells();
+		updateCellBounds(cells);
+		ArrayList<GraphCell.LayoutInput> rebuild = new ArrayList<GraphCell.LayoutInput>();
+		ArrayList<GraphCell.LayoutInput> grow = new ArrayList<GraphCell.LayoutInput>();
+		ArrayList<GraphCell.LayoutInput> relayout = new ArrayList<GraphCell.LayoutInput>();
+		NodeVisualIndex previousVisuals = GraphCell.nodeVisualIndex.snapshot();
+		for (GraphCell cell : cells) {
+			// a cell laid out again with publications added is rebuilt
+			if (rebuildCells.contains(cell) || (growCells.contains(cell) && relayoutCells.contains(cell)))
+				rebuild.add(new GraphCell.LayoutInput(cell, previousVisuals));
+			else if (growCells.contains(cell))
+				grow.add(new GraphCell.LayoutInput(cell, previousVisuals));
+			else if (relayoutCells.contains(cell))
+				relayout.add(new GraphCell.LayoutInput(cell, previousVisuals));
+		}
+		
+		// the job lays out the cells from their publications and filters as they are now, and reads
+		// the version of the network the cells were filled from, even if a newer one is published
+		GraphCell.renderPipeline.submit(generation, new RenderJob(generation, PivotSlice.dataSource.getNetwork(), 
+				cells, rebuild, grow, relayout, animated, initial, this.getSize()));
+	}
+	
+	private void updateCellBounds(List<GraphCell> cells) {
+		for (GraphCell cell : cells) {
+			NodesFilter xFilter = rootFrame.facetBrowserX.getNodesFilters().get(cell.gridx);
+			NodesFilter yFilter = rootFrame.facetBrowserY.getNodesFilters().get(cell.gridy);
+			cell.bounds = new Rectangle2D.Double(xFilter.getBounds().getMinX(), yFilter.getBounds().getMinY(), 
+					xFilter.getBounds().getWidth(), yFilter.getBounds().getHeight());
+		}
+	}
+	
+	private EdgeStore commitDrawings(DataSource.Network network, List<GraphCell> cells, List<GraphCell> laidOutCells, 
+			Set<GraphCell> dirtyCells) {
+		// swaps in the visuals laid out by a job and positions the nodes, while the job waits. returns the
+		// edge store the job rebuilds the edges of the dirty cells in, which is swapped in when it finishes
+		NodeVisualIndex index = GraphCell.nodeVisualIndex;
+		if (reindexCells) {
+			index.clear();
+			for (GraphCell cell : cells)
+				index.replace(network, null, cell.nodeVisualMap);
+		}
+		else {
+			for (GraphCell cell : removedCells)
+				index.removeAll(network, cell.nodeVisualMap);
+		}
+		reindexCells = false;
+		removedCells.clear();
+		for (GraphCell cell : laidOutCells)
+			cell.commitNodeVisuals();
+		rebuildCells.clear();
+		growCells.clear();
+		relayoutCells.clear();
+		
+		// node drawings. edges are only added to the versions of a numbering, so the drawings of the edges
+		// shown are kept, and the cells with new edges between the nodes drawn before are dirty.
+		// an earlier version of the numbering, restored from the history, has fewer edges
+		EdgeStore drawn = GraphCell.edgeVisuals;
+		boolean keepEdges = network.graphEdges == drawnGraphEdges || (drawnGraphEdges != null 
+				&& network.getNumbering() == drawnNumbering 
+				&& network.graphEdges.getEdgeCount() >= drawnGraphEdges.getEdgeCount());
+		if (keepEdges && network.graphEdges != drawnGraphEdges)
+			addCellsWithNewEdges(drawnGraphEdges, network.graphEdges, dirtyCells);
+		updateCellBounds(cells);
 		for (GraphCellRow cellrow : graphCellRows) {
 			for (GraphCell cell : cellrow.graphCells) {
-				NodesFilter xFilter = rootFrame.facetBrowserX.getNodesFilters().get(cell.gridx);
-				NodesFilter yFilter = rootFrame.facetBrowserY.getNodesFilters().get(cell.gridy);
-				cell.bounds = new Rectangle2D.Double(xFilter.getBounds().getMinX(), yFilter.getBounds().getMinY(), 
-						xFilter.getBounds().getWidth(), yFilter.getBounds().getHeight());
+				// a cell is dirty if it was rebuilt or any of its nodes moved
+				boolean dirty = !keepEdges || !drawn.hasCell(cell);
 				
 				for (NodeVisual node : cell.nodeVisuals) {
+					// a node still animated moves on from where it is shown
 					if (node.xrender != 0)
-						node.xrenderp = node.xrender;
+						node.xrenderp = timer.isRunning() ? node.circle.getCenterX() : node.xrender;
 					if (node.yrender != 0)
-						node.yrenderp = node.yrender;
+						node.yrenderp = timer.isRunning() ? node.circle.getCenterY() : node.yrender;
 					node.xrender = cell.bounds.x + cellMargin + (cell.bounds.width - 2 * cellMargin) * node.xpos;
 					node.yrender = cell.bounds.y + cellMargin + (cell.bounds.height - 2 *cellMargin) * node.ypos;	
+					if (node.xrender != node.xrenderp || node.yrender != node.yrenderp)
+						dirty = true;
+					if (node.status != VisualStatus.DEFAULT)
+						highlightedNodes.add(node);
 					double r = nodeSize * (2 * Math.log(node.pubs.size()) + 1);
 					if (node.circle == null) {
 						node.circle = new Ellipse2D.Double(node.xrenderp - r, node.yrenderp - r, r * 2,  r * 2);
@@ -903,154 +996,267 @@ public class GraphCanvas extends JPanel implements ComponentListener, MouseListe
 						node.circle.width = node.circle.height =  r * 2;
 					}
 					
-					if (PivotSlice.dataSource.getNetwork().newGraphNodes.size() > 0) {
+					node.isNew = false;
+					if (network.hasNewPublications()) {
 						for (Publication pub : node.pubs) 
-							if (PivotSlice.dataSource.getNetwork().newGraphNodes.containsKey(pub.getID())) {
+							if (network.isNew(pub)) {
 								node.isNew = true;
 								break;
 							}
 					}
 				}
+				
+				if (dirty)
+					dirtyCells.add(cell);
 			}
 		}
 		
-		// edge drawings
-		GraphCell.edgeVisuals.clear();
-		// for each graph cell
-		for (int i = 0; i < graphCellRows.size(); i++) {
-			ArrayList<GraphCell> rowCells = graphCellRows.get(i).graphCells;
-			for (int j = 0; j < rowCells.size(); j++) {
-				rowCells.get(j).edgeTotal = 0;
-				// for each visual node in the cell
-				for (NodeVisual fromNode : rowCells.get(j).nodeVisuals) {
-					createEdgesFromNodeVisual(fromNode, rowCells.get(j));
-				}
+		// the job's own copy, the store shown is left as it is until the job finishes
+		EdgeStore edges = keepEdges && dirtyCells.size() < cells.size() ? drawn.copy() : new EdgeStore();
+		edges.registerCells(cells, dirtyCells);
+		
+		edgesReady = false;
+		initialized = true;
+		indexNodeCircles();
+		return edges;
+	}
+	
+	private void distributeNodesToAllGraphCells() {
+		// fills the cells from the network and the filters, the pipeline lays them out
+		distributedNetwork = PivotSlice.dataSource.getNetwork();
+		for (int i = 0; i < getRowLength(); i++) {
+			for (int j = 0; j < getColLength(); j++) {
+				getGraphCell(i, j).publications.clear();
 			}
 		}
 		
-		for (EdgeVisual edge : GraphCell.edgeVisuals.values()) {
-			GraphCell fromCell = getGraphCellContainsNode(edge.edgeNodes.fromNode);
-			GraphCell toCell = getGraphCellContainsNode(edge.edgeNodes.toNode);
-			if (fromCell == null || toCell == null)
-				continue;
-			
-			fromCell.edgeTotal += edge.count;
-			if (toCell != fromCell) {
-				toCell.edgeTotal += edge.count;
-				edge.isCrossing = true;
+		// publications of each filter from the facet index
+		CompressedBitmap[] rowSets = new CompressedBitmap[getRowLength()];
+		CompressedBitmap[] colSets = new CompressedBitmap[getColLength()];
+		CompressedBitmap anyRow = new CompressedBitmap();
+		CompressedBitmap anyCol = new CompressedBitmap();
+		for (int i = 1; i < getRowLength(); i++) {
+			rowSets[i] = rootFrame.facetBrowserY.getFilterPublications(i);
+			rootFrame.facetBrowserY.getNodesFilter(i).setDistributedPublications(rowSets[i].clone());
+			anyRow.or(rowSets[i]);
+		}
+		for (int j = 1; j < getColLength(); j++) {
+			colSets[j] = rootFrame.facetBrowserX.getFilterPublications(j);
+			rootFrame.facetBrowserX.getNodesFilter(j).setDistributedPublications(colSets[j].clone());
+			anyCol.or(colSets[j]);
+		}
+		
+		// cell sets, in the order of the cells
+		GraphCell[] cells = new GraphCell[getRowLength() * getColLength()];
+		CompressedBitmap[] cellSets = new CompressedBitmap[cells.length];
+		for (int i = 0; i < getRowLength(); i++)
+			for (int j = 0; j < getColLength(); j++)
+				cells[i * getColLength() + j] = getGraphCell(i, j);
+		
+		// double constraint cells
+		CompressedBitmap anyDouble = anyRow.clone();
+		anyDouble.and(anyCol);
+		for (int i = 1; i < getRowLength(); i++) {
+			for (int j = 1; j < getColLength(); j++) {
+				CompressedBitmap cellSet = rowSets[i].clone();
+				cellSet.and(colSets[j]);
+				cellSets[i * getColLength() + j] = cellSet;
 			}
 		}
+		// single constraint cells, for publications not in any double constraint cell
+		for (int i = 1; i < getRowLength(); i++) {
+			rowSets[i].andNot(anyDouble);
+			cellSets[i * getColLength()] = rowSets[i];
+		}
+		for (int j = 1; j < getColLength(); j++) {
+			colSets[j].andNot(anyDouble);
+			cellSets[j] = colSets[j];
+		}
+		// no constraint cell - the default cell
+		CompressedBitmap rest = PivotSlice.dataSource.getFacetIndex().getAllPublications();
+		rest.andNot(anyRow);
+		rest.andNot(anyCol);
+		cellSets[0] = rest;
 		
-		repaintEdgesToImage();
+		// fill the cells here, the pipeline lays them out
+		for (int i = 0; i < cells.length; i++) {
+			addPublications(cells[i], cellSets[i]);
+			rebuildCells.add(cells[i]);
+		}
+	}
+	
+	private boolean isDistributed(DataSource.Network network) {
+		// publications are only appended to the versions of a numbering
+		return distributedNetwork != null && distributedNetwork.getNumbering() == network.getNumbering() 
+				&& distributedNetwork.getPublicationCount() == network.getPublicationCount();
+	}
+	
+	private void addCellsWithNewEdges(AdjacencyStore drawn, AdjacencyStore store, Set<GraphCell> cells) {
+		// the cells of the publications drawn before with new references to each other. edges to the
+		// publications added since are created with the cells these are added to
+		NodeVisualIndex index = GraphCell.nodeVisualIndex;
+		if (store.extendsStore(drawn)) {
+			// only the edges added since
+			for (int e = drawn.getAddedEdgeCount(); e < store.getAddedEdgeCount(); e++) {
+				int row = store.getAddedSource(e);
+				if (row < drawn.size() && store.getAddedTarget(e) < drawn.size())
+					for (int v = 0; v < index.getCount(row); v++)
+						cells.add(index.get(row, v).cell);
+			}
+			return;
+		}
+		
+		// compacted since, compare the rows
+		for (int row = 0; row < drawn.size(); row++) {
+			int count = 0;
+			for (int r = 0; r < store.getReferenceCount(row); r++) {
+				if (store.getReference(row, r) < drawn.size())
+					count++;
+			}
+			if (count == drawn.getReferenceCount(row))
+				continue;
+			for (int v = 0; v < index.getCount(row); v++)
+				cells.add(index.get(row, v).cell);
+		}
+	}
+	
+	private void createEdgeDrawings(int generation, DataSource.Network network, NodeVisualIndex index, 
+			EdgeStore edges, Set<GraphCell> dirtyCells) {
+		// on the pipeline, into the job's store. only the edges incident to the dirty cells are rebuilt,
+		// the index is the snapshot taken when the job committed
+		edges.removeRetiredNodes();
+		for (GraphCell cell : dirtyCells) {
+			for (NodeVisual node : cell.nodeVisuals) {
+				GraphCell.renderPipeline.checkCurrent(generation);
+				createEdgesFromNodeVisual(network, index, edges, node, cell);
+				createEdgesToNodeVisual(network, index, edges, node, cell, dirtyCells);
+			}
+		}
 	}
 
-	private void createEdgesFromNodeVisual(NodeVisual fromNode, GraphCell fromCell) {
-		DataSource.Network network = PivotSlice.dataSource.getNetwork();
+	private void createEdgesFromNodeVisual(DataSource.Network network, NodeVisualIndex index, EdgeStore edges, 
+			NodeVisual fromNode, GraphCell fromCell) {
 		// for each publication in the node
 		for (Publication pub : fromNode.pubs) {
-			for (Long toID : network.graphEdgesOut.get(pub.getID())) {
-				// for each graph cell, search for the toNode
-				for (int i = 0; i < graphCellRows.size(); i++) {
-					ArrayList<GraphCell> rowCells = graphCellRows.get(i).graphCells;
-					for (int j = 0; j < rowCells.size(); j++) {
-						GraphCell cell = rowCells.get(j);
-						// see if the toNode exists
-						NodeVisual toNode = cell.nodeVisualMap.get(toID);
-						if (toNode != null && toNode != fromNode) {
-							EdgeVisual.Edge ed = new EdgeVisual.Edge();
-							ed.fromNode = fromNode;
-							ed.toNode = toNode;
-							
-							if (GraphCell.edgeVisuals.containsKey(ed)) {
-								GraphCell.edgeVisuals.get(ed).count++;
-								continue;
-							}
-							
-							if (fromCell.matrixLayout && fromCell == cell) {
-								// square-shaped edge
-								Rectangle2D.Double rect = new Rectangle2D.Double(fromNode.xrender - edgeSize, 
-										toNode.yrender - edgeSize, edgeSize * 2, edgeSize * 2);
-								
-								EdgeVisual ev = new EdgeVisual(fromNode, toNode, rect);
-								GraphCell.edgeVisuals.put(ev.edgeNodes, ev);
-							}
-							else {	
-								// curve-shaped edge
-								double angle = Math.atan2(toNode.yrender - fromNode.yrender, 
-										toNode.xrender - fromNode.xrender) - Math.PI /2;
-								double bend = Math.abs(toNode.yrender - fromNode.yrender) + Math.abs(toNode.xrender - fromNode.xrender);
-								bend = Math.log(bend + 1) * edgeBending + 8;
-								double ctrlx = fromNode.xrender * 0.9 + toNode.xrender * 0.1 + bend * Math.cos(angle);
-								double ctrly = fromNode.yrender * 0.9 + toNode.yrender * 0.1 + bend * Math.sin(angle);
-								QuadCurve2D.Double line = new QuadCurve2D.Double(fromNode.xrender, fromNode.yrender, 
-										ctrlx, ctrly, toNode.xrender, toNode.yrender);
-								
-								EdgeVisual ev = new EdgeVisual(fromNode, toNode, line);
-								GraphCell.edgeVisuals.put(ev.edgeNodes, ev);
-							}
-						}
-					}
+			int row = network.getOrdinal(pub);
+			for (int r = 0; r < network.graphEdges.getReferenceCount(row); r++) {
+				int to = network.graphEdges.getReference(row, r);
+				// the toNodes in all graph cells
+				for (int v = 0; v < index.getCount(to); v++) {
+					NodeVisual toNode = index.get(to, v);
+					if (toNode != fromNode)
+						createEdge(edges, fromNode, fromCell, toNode, toNode.cell);
 				}
 			}
 		}
 	}
 	
-	private void clearVisualStatus() {
-		// for each graph cell
-		for (int i = 0; i < graphCellRows.size(); i++) {
-			ArrayList<GraphCell> rowCells = graphCellRows.get(i).graphCells;
-			for (int j = 0; j < rowCells.size(); j++) {
-				// for each node visual
-				for (NodeVisual node : rowCells.get(j).nodeVisuals) {
-					if (selectedNodes.contains(node))
-						node.status = VisualStatus.SELECTED;
-					else if (selectedNgbrNodes.contains(node))
-						node.status = VisualStatus.BRUSHED;
-					else
-						node.status = VisualStatus.DEFAULT;
+	private void createEdgesToNodeVisual(DataSource.Network network, NodeVisualIndex index, EdgeStore edges, 
+			NodeVisual toNode, GraphCell toCell, Set<GraphCell> dirtyCells) {
+		// the edges from the nodes of the cells that are not rebuilt, the others create their own
+		for (Publication pub : toNode.pubs) {
+			int row = network.getOrdinal(pub);
+			for (int c = 0; c < network.graphEdges.getCitationCount(row); c++) {
+				int from = network.graphEdges.getCitation(row, c);
+				for (int v = 0; v < index.getCount(from); v++) {
+					NodeVisual fromNode = index.get(from, v);
+					if (!dirtyCells.contains(fromNode.cell))
+						createEdge(edges, fromNode, fromNode.cell, toNode, toCell);
 				}
 			}
 		}
+	}
+	
+	private void createEdge(EdgeStore edges, NodeVisual fromNode, GraphCell fromCell, NodeVisual toNode, 
+			GraphCell toCell) {
+		int e = edges.find(fromNode, toNode);
+		if (e != -1) {
+			edges.incrementCount(e);
+			return;
+		}
 		
-		for (EdgeVisual edge : GraphCell.edgeVisuals.values()) {
-			if (selectedNodes.size() != 0 && (selectedNodes.contains(edge.edgeNodes.fromNode) 
-					|| selectedNodes.contains(edge.edgeNodes.toNode)))
-				edge.status = VisualStatus.SELECTED;
-			else
-				edge.status = VisualStatus.DEFAULT;
+		if (fromCell.matrixLayout && fromCell == toCell) {
+			// square-shaped edge
+			Rectangle2D.Double rect = new Rectangle2D.Double(fromNode.xrender - edgeSize, 
+					toNode.yrender - edgeSize, edgeSize * 2, edgeSize * 2);
+			
+			edges.add(fromNode, toNode, null, rect);
+		}
+		else {	
+			// curve-shaped edge
+			double angle = Math.atan2(toNode.yrender - fromNode.yrender, 
+					toNode.xrender - fromNode.xrender) - Math.PI /2;
+			double bend = Math.abs(toNode.yrender - fromNode.yrender) + Math.abs(toNode.xrender - fromNode.xrender);
+			bend = Math.log(bend + 1) * edgeBending + 8;
+			double ctrlx = fromNode.xrender * 0.9 + toNode.xrender * 0.1 + bend * Math.cos(angle);
+			double ctrly = fromNode.yrender * 0.9 + toNode.yrender * 0.1 + bend * Math.sin(angle);
+			QuadCurve2D.Double line = new QuadCurve2D.Double(fromNode.xrender, fromNode.yrender, 
+					ctrlx, ctrly, toNode.xrender, toNode.yrender);
+			
+			edges.add(fromNode, toNode, line, null);
+		}
+	}
+	
+	private void clearVisualStatus() {
+		// only the nodes and edges highlighted since the last clear
+		for (NodeVisual node : highlightedNodes)
+			node.status = VisualStatus.DEFAULT;
+		highlightedNodes.clear();
+		
+		for (NodeVisual node : selectedNgbrNodes)
+			setVisualStatus(node, VisualStatus.BRUSHED);
+		for (NodeVisual node : selectedNodes)
+			setVisualStatus(node, VisualStatus.SELECTED);
+		
+		// the edges once the pipeline built them
+		if (!edgesReady)
+			return;
+		EdgeStore edges = GraphCell.edgeVisuals;
+		edges.clearStatus();
+		for (NodeVisual node : selectedNodes) {
+			for (int e = edges.getFirstOutEdge(node); e != -1; e = edges.getNextOutEdge(e))
+				edges.setStatus(e, VisualStatus.SELECTED);
+			for (int e = edges.getFirstInEdge(node); e != -1; e = edges.getNextInEdge(e))
+				edges.setStatus(e, VisualStatus.SELECTED);
 		}
 	}
 	
+	private void setVisualStatus(NodeVisual node, VisualStatus status) {
+		node.status = status;
+		highlightedNodes.add(node);
+	}
+	
 	///////////////////////////////////////////////////////////////////////////////////////////////////////////
 	// private methods - tooling
 	private void highlightHoveredNode() {
 		// set status
 		if (hoveredNode != null && !selectedNodes.contains(hoveredNode)) {		
-			hoveredNode.status = VisualStatus.HOVERED;
-			// for each edge
-			for (EdgeVisual edge : GraphCell.edgeVisuals.values()) {
-				if (edge.edgeNodes.fromNode == hoveredNode &&  !selectedNodes.contains(edge.edgeNodes.toNode)) {
-					edge.status = VisualStatus.HOVERED;
-					edge.edgeNodes.toNode.status = VisualStatus.BRUSHED;
+			setVisualStatus(hoveredNode, VisualStatus.HOVERED);
+			// for each edge of the node, once the pipeline built them
+			EdgeStore edges = GraphCell.edgeVisuals;
+			if (edgesReady) {
+				for (int e = edges.getFirstOutEdge(hoveredNode); e != -1; e = edges.getNextOutEdge(e)) {
+					if (!selectedNodes.contains(edges.getToNode(e))) {
+						edges.setStatus(e, VisualStatus.HOVERED);
+						setVisualStatus(edges.getToNode(e), VisualStatus.BRUSHED);
+					}
 				}
-				else if (edge.edgeNodes.toNode == hoveredNode && !selectedNodes.contains(edge.edgeNodes.fromNode)) {
-					edge.status = VisualStatus.HOVERED;
-					edge.edgeNodes.fromNode.status = VisualStatus.BRUSHED;
+				for (int e = edges.getFirstInEdge(hoveredNode); e != -1; e = edges.getNextInEdge(e)) {
+					if (!selectedNodes.contains(edges.getFromNode(e))) {
+						edges.setStatus(e, VisualStatus.HOVERED);
+						setVisualStatus(edges.getFromNode(e), VisualStatus.BRUSHED);
+					}
 				}
 			}
 			
-			// for each cell, find duplicated node
-			for (int i = 0; i < graphCellRows.size(); i++) {
-				ArrayList<GraphCell> rowCells = graphCellRows.get(i).graphCells;
-				for (int j = 0; j < rowCells.size(); j++) {
-					if (rowCells.get(j) == hoveredCell)
-						continue;
-					for (Publication pub : hoveredNode.pubs) {
-						NodeVisual dupNode = rowCells.get(j).nodeVisualMap.get(pub.getID());
-						if (dupNode != null) {
-							dupNode.status = VisualStatus.HOVERED;
-						}
-					}
+			// find duplicated node in the other cells
+			NodeVisualIndex index = GraphCell.nodeVisualIndex;
+			for (Publication pub : hoveredNode.pubs) {
+				int ordinal = index.getOrdinal(distributedNetwork, pub.getID());
+				for (int v = 0; v < index.getCount(ordinal); v++) {
+					NodeVisual dupNode = index.get(ordinal, v);
+					if (dupNode.cell != hoveredCell)
+						setVisualStatus(dupNode, VisualStatus.HOVERED);
 				}
 			}
 			
@@ -1097,36 +1303,21 @@ public class GraphCanvas extends JPanel implements ComponentListener, MouseListe
 		clearVisualStatus();
 
 		// convert selected publications to nodes
-		for (int i = 0; i < graphCellRows.size(); i++) {
-			ArrayList<GraphCell> rowCells = graphCellRows.get(i).graphCells;
-			for (int j = 0; j < rowCells.size(); j++) {
-				for (Publication pub : selectedPublications) {
-					NodeVisual node = rowCells.get(j).nodeVisualMap.get(pub.getID());
-					if (node != null) {
-						node.status = VisualStatus.SELECTED;
-						selectedNodes.add(node);
-					}
-				}
+		NodeVisualIndex index = GraphCell.nodeVisualIndex;
+		for (Publication pub : selectedPublications) {
+			int ordinal = index.getOrdinal(distributedNetwork, pub.getID());
+			for (int v = 0; v < index.getCount(ordinal); v++) {
+				NodeVisual node = index.get(ordinal, v);
+				setVisualStatus(node, VisualStatus.SELECTED);
+				selectedNodes.add(node);
 			}
 		}
 		
 		// find neighbors and duplicated nodes
 		if (selectedNodes.size() != 0) {
-			// for each edge
-			for (EdgeVisual edge : GraphCell.edgeVisuals.values()) {
-				if (selectedNodes.contains(edge.edgeNodes.fromNode)) {
-					edge.status = VisualStatus.SELECTED;
-					if (!selectedNodes.contains(edge.edgeNodes.toNode)) {
-						edge.edgeNodes.toNode.status = VisualStatus.BRUSHED;
-						selectedNgbrNodes.add(edge.edgeNodes.toNode);
-					}
-				}
-				else if (selectedNodes.contains(edge.edgeNodes.toNode)) {
-					edge.status = VisualStatus.SELECTED;
-					edge.edgeNodes.fromNode.status = VisualStatus.BRUSHED;
-					selectedNgbrNodes.add(edge.edgeNodes.fromNode);
-				}
-			}
+			// for each edge of the selected nodes, once the pipeline built them
+			if (edgesReady)
+				selectNeighborNodes();
 			
 			// for each cell, find duplicated node
 			/*
@@ -1151,6 +1342,58 @@ public class GraphCanvas extends JPanel implements ComponentListener, MouseListe
 			rootFrame.logger.logAction("graphcanvas-select nodes");
 		}	
 		
+		updateCellRelationships();
+		if (selectedCell != null)
+			rootFrame.logger.logAction("graphcanvas-select cell");
+		
+		// repaint the layers
+		highlightRepaint = true;
+		repaintHighlightEdgesToImage();
+		backgroundLayer.repaint();
+		highlightLayer.repaint();
+		// update corresponding panels
+		rootFrame.infoPanel.displayPublication(selectedPublications, true);
+		rootFrame.gridPanel.updateDrawings();
+		rootFrame.opPanel.updateButtonStates();
+	}
+	
+	private void followSelectedEdges() {
+		// the parts of the selection that need the edges, which the pipeline has just built
+		selectedNgbrNodes.clear();
+		clearVisualStatus();
+		selectNeighborNodes();
+		updateCellRelationships();
+		
+		highlightRepaint = true;
+		repaintHighlightEdgesToImage();
+		backgroundLayer.repaint();
+		highlightLayer.repaint();
+		rootFrame.gridPanel.updateDrawings();
+	}
+	
+	private void selectNeighborNodes() {
+		EdgeStore edges = GraphCell.edgeVisuals;
+		for (NodeVisual node : selectedNodes) {
+			for (int e = edges.getFirstOutEdge(node); e != -1; e = edges.getNextOutEdge(e)) {
+				NodeVisual toNode = edges.getToNode(e);
+				edges.setStatus(e, VisualStatus.SELECTED);
+				if (!selectedNodes.contains(toNode)) {
+					setVisualStatus(toNode, VisualStatus.BRUSHED);
+					selectedNgbrNodes.add(toNode);
+				}
+			}
+			for (int e = edges.getFirstInEdge(node); e != -1; e = edges.getNextInEdge(e)) {
+				NodeVisual fromNode = edges.getFromNode(e);
+				if (!selectedNodes.contains(fromNode)) {
+					edges.setStatus(e, VisualStatus.SELECTED);
+					setVisualStatus(fromNode, VisualStatus.BRUSHED);
+					selectedNgbrNodes.add(fromNode);
+				}
+			}
+		}
+	}
+	
+	private void updateCellRelationships() {
 		// compute graphcell relationships
 		for (int i = 0; i < graphCellRows.size(); i++) {
 			ArrayList<GraphCell> rowCells = graphCellRows.get(i).graphCells;
@@ -1163,63 +1406,56 @@ public class GraphCanvas extends JPanel implements ComponentListener, MouseListe
 			}
 		}
 		
-		if (selectedCell != null) {
-			// compute edge distributions
-			for (EdgeVisual edge : GraphCell.edgeVisuals.values()) {
-				GraphCell fromCell = getGraphCellContainsNode(edge.edgeNodes.fromNode);
-				GraphCell toCell = getGraphCellContainsNode(edge.edgeNodes.toNode);
-				if (fromCell == toCell) {
-					if (fromCell == selectedCell) {
-						selectedCell.edgeCrossIn += edge.count;
-						selectedCell.edgeCrossOut += edge.count;
+		if (selectedCell == null)
+			return;
+		
+		// compute edge distributions, from the edges of the nodes in the selected cell, once the pipeline built them
+		if (edgesReady) {
+			EdgeStore edges = GraphCell.edgeVisuals;
+			for (NodeVisual node : selectedCell.nodeVisuals) {
+				for (int e = edges.getFirstOutEdge(node); e != -1; e = edges.getNextOutEdge(e)) {
+					GraphCell toCell = edges.getToNode(e).cell;
+					if (toCell == selectedCell) {
+						selectedCell.edgeCrossIn += edges.getCount(e);
+						selectedCell.edgeCrossOut += edges.getCount(e);
 					}
-					continue;
+					else
+						toCell.edgeCrossIn += edges.getCount(e);
+				}
+				for (int e = edges.getFirstInEdge(node); e != -1; e = edges.getNextInEdge(e)) {
+					GraphCell fromCell = edges.getFromNode(e).cell;
+					if (fromCell != selectedCell)
+						fromCell.edgeCrossOut += edges.getCount(e);
 				}
-				
-				if (fromCell == selectedCell) 
-					toCell.edgeCrossIn += edge.count;
-				else if (toCell == selectedCell) 
-					fromCell.edgeCrossOut += edge.count;
 			}
-			// compute node duplicates
-			for (int i = 0; i < graphCellRows.size(); i++) {
-				ArrayList<GraphCell> rowCells = graphCellRows.get(i).graphCells;
-				for (int j = 0; j < rowCells.size(); j++) {
-					if (rowCells.get(j) == selectedCell)
-						continue;
-					for (NodeVisual node : rowCells.get(j).nodeVisuals) {
-						for (Publication pub : node.pubs) {
-							if (selectedCell.nodeVisualMap.containsKey(pub.getID())) {
-								rowCells.get(j).dupNode++;
-								rowCells.get(j).dupNodeVisuals.add(rowCells.get(j).nodeVisualMap.get(pub.getID()));
-								//break;
-							}
-						}
-					}
+		}
+		// compute node duplicates, the other cells containing the publications of the selected cell
+		NodeVisualIndex index = GraphCell.nodeVisualIndex;
+		for (Long id : selectedCell.nodeVisualMap.keySet()) {
+			int ordinal = index.getOrdinal(distributedNetwork, id);
+			for (int v = 0; v < index.getCount(ordinal); v++) {
+				NodeVisual node = index.get(ordinal, v);
+				if (node.cell != selectedCell) {
+					node.cell.dupNode++;
+					node.cell.dupNodeVisuals.add(node);
 				}
 			}
-			
-			rootFrame.logger.logAction("graphcanvas-select cell");
 		}
-		
-		// repaint the layers
-		highlightRepaint = true;
-		repaintHighlightEdgesToImage();
-		backgroundLayer.repaint();
-		highlightLayer.repaint();
-		// update corresponding panels
-		rootFrame.infoPanel.displayPublication(selectedPublications, true);
-		rootFrame.gridPanel.updateDrawings();
-		rootFrame.opPanel.updateButtonStates();
 	}
 	
 	private void redistributePublications(boolean isRow, int index) {
+		DataSource.Network network = PivotSlice.dataSource.getNetwork();
 		if (isRow) {
+			CompressedBitmap rowSet = rootFrame.facetBrowserY.getFilterPublications(index);
+			rootFrame.facetBrowserY.getNodesFilter(index).setDistributedPublications(rowSet);
 			for (int i = 0; i < getColLength(); i++) {
 				// re-allocate publications
 				GraphCell defaultCell = getGraphCell(0, i);
 				GraphCell newCell = getGraphCell(index, i);
 				
+				CompressedBitmap cellSet = rootFrame.facetBrowserX.getFilterPublications(i);
+				cellSet.and(rowSet);
+				
 				LinkedList<Publication> allPubs = new LinkedList<Publication>();
 				allPubs.addAll(defaultCell.publications);
 				// remove duplicates
@@ -1228,7 +1464,7 @@ public class GraphCanvas extends JPanel implements ComponentListener, MouseListe
 					for (int j = 1; j < getRowLength(); j++) {
 						if (j == index)
 							continue;
-						if (getGraphCell(j, i).nodeVisualMap.containsKey(pub.getID())) {
+						if (getGraphCell(j, i).publications.contains(pub)) {
 							duplicated = true;
 							break;
 						}
@@ -1243,8 +1479,7 @@ public class GraphCanvas extends JPanel implements ComponentListener, MouseListe
 				newCell.publications.clear();
 				// do the allocation
 				for (Publication pub : allPubs) {
-					if (rootFrame.facetBrowserX.satisfyFilterConstraints(pub, i) && 
-							rootFrame.facetBrowserY.satisfyFilterConstraints(pub, index)) {
+					if (cellSet.contains(network.getOrdinal(pub))) {
 						newCell.publications.add(pub);
 					}
 					else
@@ -1255,24 +1490,28 @@ public class GraphCanvas extends JPanel implements ComponentListener, MouseListe
 					if (j == index)
 						continue;
 					for (Publication pub : getGraphCell(j, i).publications) {
-						if (rootFrame.facetBrowserX.satisfyFilterConstraints(pub, i) && 
-								rootFrame.facetBrowserY.satisfyFilterConstraints(pub, index)) {
+						if (cellSet.contains(network.getOrdinal(pub))) {
 							newCell.publications.add(pub);
 						}
 					}
 				}
 				
 				// create visuals and layout
-				defaultCell.createAndLayoutNodeVisuals();	
-				newCell.createAndLayoutNodeVisuals();
+				rebuildCells.add(defaultCell);
+				rebuildCells.add(newCell);
 			}
 		}
 		else {
+			CompressedBitmap colSet = rootFrame.facetBrowserX.getFilterPublications(index);
+			rootFrame.facetBrowserX.getNodesFilter(index).setDistributedPublications(colSet);
 			for (int i = 0; i < getRowLength(); i++) {
 				// re-allocate publications
 				GraphCell defaultCell = getGraphCell(i, 0);
 				GraphCell newCell = getGraphCell(i, index);
 				
+				CompressedBitmap cellSet = rootFrame.facetBrowserY.getFilterPublications(i);
+				cellSet.and(colSet);
+				
 				LinkedList<Publication> allPubs = new LinkedList<Publication>();
 				allPubs.addAll(defaultCell.publications);				
 				// remove duplicates
@@ -1281,7 +1520,7 @@ public class GraphCanvas extends JPanel implements ComponentListener, MouseListe
 					for (int j = 1; j < getColLength(); j++) {
 						if (j == index)
 							continue;
-						if (getGraphCell(i, j).nodeVisualMap.containsKey(pub.getID())) {
+						if (getGraphCell(i, j).publications.contains(pub)) {
 							duplicated = true;
 							break;
 						}							
@@ -1295,8 +1534,7 @@ public class GraphCanvas extends JPanel implements ComponentListener, MouseListe
 				newCell.publications.clear();
 				// do the allocation
 				for (Publication pub : allPubs) {
-					if (rootFrame.facetBrowserX.satisfyFilterConstraints(pub, index) && 
-							rootFrame.facetBrowserY.satisfyFilterConstraints(pub, i)) {
+					if (cellSet.contains(network.getOrdinal(pub))) {
 						newCell.publications.add(pub);
 					}
 					else
@@ -1307,26 +1545,135 @@ public class GraphCanvas extends JPanel implements ComponentListener, MouseListe
 					if (j == index)
 						continue;
 					for (Publication pub : getGraphCell(i, j).publications) {
-						if (rootFrame.facetBrowserX.satisfyFilterConstraints(pub, index) && 
-								rootFrame.facetBrowserY.satisfyFilterConstraints(pub, i)) {
+						if (cellSet.contains(network.getOrdinal(pub))) {
 							newCell.publications.add(pub);
 						}
 					}
 				}
 				
 				// create visuals and layout
-				defaultCell.createAndLayoutNodeVisuals();	
-				newCell.createAndLayoutNodeVisuals();
+				rebuildCells.add(defaultCell);
+				rebuildCells.add(newCell);
 			}
 		}
 	}
 	
-	private void repaintEdgesToImage() {
-		Graphics2D g2 = graphEdgesImage.createGraphics();
+	private void updatePublications(boolean isRow, int index) {
+		// move only the publications that entered or left the filter since its cells were built
+		NodesFilter filter = isRow ? rootFrame.facetBrowserY.getNodesFilter(index) 
+				: rootFrame.facetBrowserX.getNodesFilter(index);
+		CompressedBitmap oldSet = filter.getDistributedPublications();
+		if (index == 0 || oldSet == null) {
+			redistributePublications(isRow, index);
+			return;
+		}
+		
+		CompressedBitmap newSet = filter.getPublicationSet();
+		CompressedBitmap entered = newSet.clone();
+		entered.andNot(oldSet);
+		CompressedBitmap left = oldSet.clone();
+		left.andNot(newSet);
+		filter.setDistributedPublications(newSet);
+		
+		DataSource.Network network = PivotSlice.dataSource.getNetwork();
+		ArrayList<GraphCell> changedCells = new ArrayList<GraphCell>();
+		int cellCount = isRow ? getColLength() : getRowLength();
+		for (int i = 0; i < cellCount; i++) {
+			GraphCell defaultCell = getFilterCell(isRow, 0, i);
+			GraphCell newCell = getFilterCell(isRow, index, i);
+			boolean defaultChanged = false, newChanged = false;
+			
+			// from the default cell, or duplicated from the cells of the other filters
+			for (int o = entered.nextSetBit(0); o >= 0; o = entered.nextSetBit(o + 1)) {
+				Publication pub = network.getPublication(o);
+				if (defaultCell.publications.remove(pub)) {
+					defaultChanged = true;
+					newChanged |= newCell.publications.add(pub);
+				}
+				else if (isInOtherFilterCell(isRow, index, i, pub))
+					newChanged |= newCell.publications.add(pub);
+			}
+			// back to the default cell unless still in the cell of another filter
+			for (int o = left.nextSetBit(0); o >= 0; o = left.nextSetBit(o + 1)) {
+				Publication pub = network.getPublication(o);
+				if (newCell.publications.remove(pub)) {
+					newChanged = true;
+					if (!isInOtherFilterCell(isRow, index, i, pub))
+						defaultChanged |= defaultCell.publications.add(pub);
+				}
+			}
+			
+			if (defaultChanged)
+				changedCells.add(defaultCell);
+			if (newChanged)
+				changedCells.add(newCell);
+		}
+		
+		rebuildCells.addAll(changedCells);
+	}
+	
+	private GraphCell getFilterCell(boolean isRow, int filterIndex, int i) {
+		// the i-th cell of a row or column filter
+		return isRow ? getGraphCell(filterIndex, i) : getGraphCell(i, filterIndex);
+	}
+	
+	private boolean isInOtherFilterCell(boolean isRow, int index, int i, Publication pub) {
+		// the publications of the cells, which may not be laid out yet, so not through the node visual index
+		// (it only has the visuals committed). one lookup in each filter cell of the line
+		int filterCount = isRow ? getRowLength() : getColLength();
+		for (int j = 1; j < filterCount; j++) {
+			if (j != index && getFilterCell(isRow, j, i).publications.contains(pub))
+				return true;
+		}
+		return false;
+	}
+	
+	private GraphCell getGraphCellAt(Point p) {
+		// the cells of a column share the bounds of its filter in x, the cells of a row in y
+		if (graphCellRows.isEmpty())
+			return null;
+		int col = -1, row = -1;
+		for (int j = 0; j < getColLength() && col == -1; j++) {
+			Rectangle2D.Double bounds = getGraphCell(0, j).bounds;
+			if (p.x >= bounds.x && p.x < bounds.x + bounds.width)
+				col = j;
+		}
+		for (int i = 0; i < getRowLength() && row == -1; i++) {
+			Rectangle2D.Double bounds = getGraphCell(i, 0).bounds;
+			if (p.y >= bounds.y && p.y < bounds.y + bounds.height)
+				row = i;
+		}
+		if (col == -1 || row == -1)
+			return null;
+		GraphCell cell = getGraphCell(row, col);
+		return cell.bounds.contains(p) ? cell : null;
+	}
+	
+	private ArrayList<GraphCell> getGraphCells() {
+		ArrayList<GraphCell> cells = new ArrayList<GraphCell>();
+		for (GraphCellRow cellrow : graphCellRows)
+			cells.addAll(cellrow.graphCells);
+		return cells;
+	}
+	
+	private void indexNodeCircles() {
+		nodeGrid.build(getGraphCells());
+	}
+	
+	private void addPublications(GraphCell cell, CompressedBitmap set) {
+		DataSource.Network network = PivotSlice.dataSource.getNetwork();
+		for (int i = set.nextSetBit(0); i >= 0; i = set.nextSetBit(i + 1))
+			cell.publications.add(network.getPublication(i));
+	}
+	
+	private void repaintEdgesToImage(BufferedImage image, EdgeStore edges) {
+		// on the pipeline, into an image not shown yet
+		Graphics2D g2 = image.createGraphics();
 		g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
 		g2.setBackground(Color.white);
-		g2.clearRect(0, 0, graphEdgesImage.getWidth(), graphEdgesImage.getWidth());
-		drawGraphEdges(g2);
+		g2.clearRect(0, 0, image.getWidth(), image.getWidth());
+		drawGraphEdges(g2, edges);
+		g2.dispose();
 	}
 	
 	private void repaintHighlightEdgesToImage() {
@@ -1351,6 +1698,7 @@ public class GraphCanvas extends JPanel implements ComponentListener, MouseListe
 				}
 			}
 		}
+		indexNodeCircles();
 		
 		this.repaint();
 	}
@@ -1369,7 +1717,194 @@ public class GraphCanvas extends JPanel implements ComponentListener, MouseListe
 		
 		public ArrayList<GraphCell> graphCells = new ArrayList<GraphCell>();
 	}
+	
+	public static class CanvasState {
+		// the cells by row and column and the selection as recorded in the history
+		private final CellState[][] cells;
+		private final int selectedRow, selectedCol;
+		private final long[] selectedIds;
+		
+		private CanvasState(CellState[][] cells, int selectedRow, int selectedCol, long[] selectedIds) {
+			this.cells = cells;
+			this.selectedRow = selectedRow;
+			this.selectedCol = selectedCol;
+			this.selectedIds = selectedIds;
+		}
+	}
+	
+	private static class CellState {
+		// how a cell shows its publications and where, not changed once recorded
+		private final boolean xAggr, yAggr, matrixLayout;
+		private final GraphCell.NodePositions positions;
+		
+		public CellState(GraphCell cell) {
+			xAggr = cell.xAggr;
+			yAggr = cell.yAggr;
+			matrixLayout = cell.matrixLayout;
+			positions = new GraphCell.NodePositions(cell.nodeVisuals);
+		}
+		
+		public boolean matches(GraphCell cell) {
+			return xAggr == cell.xAggr && yAggr == cell.yAggr && matrixLayout == cell.matrixLayout 
+					&& positions.matches(cell.nodeVisuals);
+		}
+	}
 
+	private class RenderJob implements RenderPipeline.Job {
+		// the stages after a change of the cells, on the pipeline: lay out the changed cells, commit them
+		// and position the nodes on the event dispatch thread, build the edges of the cells whose nodes
+		// changed, and draw the edges into a new image that the event dispatch thread swaps in
+		private final int generation;
+		private final DataSource.Network network;
+		private final List<GraphCell> cells;
+		private final List<GraphCell.LayoutInput> rebuild, grow, relayout;
+		private final boolean animated, initial;
+		private final Dimension size;
+		private final Set<GraphCell> dirtyCells = Collections.newSetFromMap(new IdentityHashMap<GraphCell, Boolean>());
+		private NodeVisualIndex committedVisuals;		// snapshot of the index once the job committed
+		private EdgeStore edges;		// the job's copy of the edges, swapped in when it finishes
+		
+		public RenderJob(int generation, DataSource.Network network, List<GraphCell> cells, 
+				List<GraphCell.LayoutInput> rebuild, List<GraphCell.LayoutInput> grow, 
+				List<GraphCell.LayoutInput> relayout, boolean animated, boolean initial, Dimension size) {
+			this.generation = generation;
+			this.network = network;
+			this.cells = cells;
+			this.rebuild = rebuild;
+			this.grow = grow;
+			this.relayout = relayout;
+			this.animated = animated;
+			this.initial = initial;
+			this.size = size;
+		}
+		
+		@Override
+		public void run() {
+			// layout
+			layoutPool.invoke(new GraphCellTask(generation, network, 
+					rebuild.toArray(new GraphCell.LayoutInput[rebuild.size()]), GraphCellOp.UPDATE, 0, rebuild.size()));
+			layoutPool.invoke(new GraphCellTask(generation, network, 
+					grow.toArray(new GraphCell.LayoutInput[grow.size()]), GraphCellOp.ADD, 0, grow.size()));
+			layoutPool.invoke(new GraphCellTask(generation, network, 
+					relayout.toArray(new GraphCell.LayoutInput[relayout.size()]), GraphCellOp.RELAYOUT, 0, relayout.size()));
+			
+			// commit
+			GraphCell.renderPipeline.commit(generation, new Runnable() {
+				@Override
+				public void run() {
+					ArrayList<GraphCell> laidOutCells = new ArrayList<GraphCell>();
+					for (GraphCell.LayoutInput input : rebuild)
+						laidOutCells.add(input.cell);
+					for (GraphCell.LayoutInput input : grow)
+						laidOutCells.add(input.cell);
+					for (GraphCell.LayoutInput input : relayout)
+						laidOutCells.add(input.cell);
+					edges = commitDrawings(network, cells, laidOutCells, dirtyCells);
+					committedVisuals = GraphCell.nodeVisualIndex.snapshot();
+					if (animated)
+						repaintAnimation();
+					else
+						repaintImmediately();
+					if (restoredSelection) {
+						restoredSelection = false;
+						highlightSelectedNodes();
+					}
+				}
+			});
+			
+			// edges
+			createEdgeDrawings(generation, network, committedVisuals, edges, dirtyCells);
+			final int[] edgeTotals = new int[cells.size()];
+			for (int i = 0; i < edgeTotals.length; i++)
+				edgeTotals[i] = edges.getEdgeTotal(cells.get(i));
+			
+			// rasterize
+			GraphCell.renderPipeline.checkCurrent(generation);
+			final BufferedImage image = new BufferedImage(Math.max(1, size.width), Math.max(1, size.height), 
+					BufferedImage.TYPE_INT_ARGB);
+			repaintEdgesToImage(image, edges);
+			
+			GraphCell.renderPipeline.finish(generation, new Runnable() {
+				@Override
+				public void run() {
+					// the edges, their totals and the citations they were drawn from are swapped in together
+					GraphCell.edgeVisuals = edges;
+					drawnGraphEdges = network.graphEdges;
+					drawnNumbering = network.getNumbering();
+					for (int i = 0; i < edgeTotals.length; i++)
+						cells.get(i).edgeTotal = edgeTotals[i];
+					graphEdgesImage = image;
+					edgesReady = true;
+					if (initial) {
+						highlightSelectedNodes();
+						rootFrame.historyPanel.addState();
+					}
+					else if (!timer.isRunning())
+						followSelectedEdges();
+					graphLayer.repaint();
+				}
+			});
+		}
+		
+		@Override
+		public void recover(RuntimeException e) {
+			// the visuals may be committed without their edges, or only partly; no edges are shown
+			// until the next job builds them all again
+			GraphCell.edgeVisuals = new EdgeStore();
+			drawnGraphEdges = null;
+			for (GraphCell cell : cells)
+				cell.edgeTotal = 0;
+			graphEdgesImage = new BufferedImage(Math.max(1, size.width), Math.max(1, size.height), 
+					BufferedImage.TYPE_INT_ARGB);
+			edgesReady = true;
+			followSelectedEdges();
+			graphLayer.repaint();
+			rootFrame.showErrorMessage("Drawing error:\n" + e.toString());
+		}
+	}
+	
+	private class GraphCellTask extends RecursiveAction {
+		// lays out the cells in [start, end) for a pipeline job: rebuilds their visuals to update them,
+		// adds visuals for the publications added, or lays out the current visuals again
+		private static final long serialVersionUID = 5213804785264810371L;
+		
+		private final int generation;
+		private final DataSource.Network network;
+		private final GraphCell.LayoutInput[] inputs;
+		private final GraphCellOp op;
+		private final int start, end;
+		
+		public GraphCellTask(int generation, DataSource.Network network, GraphCell.LayoutInput[] inputs, 
+				GraphCellOp op, int start, int end) {
+			this.generation = generation;
+			this.network = network;
+			this.inputs = inputs;
+			this.op = op;
+			this.start = start;
+			this.end = end;
+		}
+		
+		@Override
+		protected void compute() {
+			if (end - start > 1) {
+				int mid = (start + end) >>> 1;
+				invokeAll(new GraphCellTask(generation, network, inputs, op, start, mid), 
+						new GraphCellTask(generation, network, inputs, op, mid, end));
+				return;
+			}
+			if (start == end)
+				return;
+			
+			GraphCell.LayoutInput input = inputs[start];
+			if (op == GraphCellOp.RELAYOUT)
+				input.cell.reLayoutNodeVisuals(generation, network, input);
+			else if (op == GraphCellOp.ADD)
+				input.cell.growNodeVisuals(generation, network, input);
+			else
+				input.cell.rebuildNodeVisuals(generation, network, input);
+		}
+	}
+	
 	private class RepaintActionListener implements ActionListener {
 		@Override
 		public void actionPerformed(ActionEvent arg0) {
@@ -1380,7 +1915,8 @@ public class GraphCanvas extends JPanel implements ComponentListener, MouseListe
 				timer.stop();
 				highlightSelectedNodes();
 				backgroundLayer.repaint();
-				rootFrame.historyPanel.addState();
+				if (!ingesting)
+					rootFrame.historyPanel.addState();
 			}
 			
 			for (GraphCellRow cellrow : graphCellRows) {
@@ -1399,6 +1935,9 @@ public class GraphCanvas extends JPanel implements ComponentListener, MouseListe
 					}
 				}
 			}
+			// the circles settled
+			if (currentStep >= stepNum)
+				indexNodeCircles();
 			
 			graphLayer.repaint();
 		}
@@ -1494,9 +2033,11 @@ public class GraphCanvas extends JPanel implements ComponentListener, MouseListe
 				DataSource.Network network = PivotSlice.dataSource.getNetwork();
 				selectedPublications.clear();
 				for (NodeVisual node : selectedNodes) 
-					for (Publication pub : node.pubs) 
-						for (Long id : network.graphEdgesIn.get(pub.getID()))
-							selectedPublications.add(network.graphNodes.get(id));
+					for (Publication pub : node.pubs) {
+						int row = network.getOrdinal(pub);
+						for (int i = 0; i < network.graphEdges.getCitationCount(row); i++)
+							selectedPublications.add(network.getPublication(network.graphEdges.getCitation(row, i)));
+					}
 				
 				highlightSelectedNodes();
 				
@@ -1506,9 +2047,11 @@ public class GraphCanvas extends JPanel implements ComponentListener, MouseListe
 				DataSource.Network network = PivotSlice.dataSource.getNetwork();
 				selectedPublications.clear();
 				for (NodeVisual node : selectedNodes) 
-					for (Publication pub : node.pubs) 
-						for (Long id : network.graphEdgesOut.get(pub.getID()))
-							selectedPublications.add(network.graphNodes.get(id));
+					for (Publication pub : node.pubs) {
+						int row = network.getOrdinal(pub);
+						for (int i = 0; i < network.graphEdges.getReferenceCount(row); i++)
+							selectedPublications.add(network.getPublication(network.graphEdges.getReference(row, i)));
+					}
 					
 				highlightSelectedNodes();
 				
@@ -1546,18 +2089,9 @@ public class GraphCanvas extends JPanel implements ComponentListener, MouseListe
 			else if(event.equals("Load data")) {
 				JFileChooser fc = new JFileChooser();
 				int returnVal = fc.showOpenDialog(rootFrame);
-				if (returnVal == JFileChooser.APPROVE_OPTION) {
-					try {
-						PivotSlice.dataSource.initNetwork(fc.getSelectedFile());
-					} catch (Exception e1) {
-						rootFrame.showErrorMessage("Open Error:\n" + e1.toString());
-						e1.printStackTrace();
-					}
-				}
-				
-				rootFrame.graphCanvas.initGraphCanvas();
-				rootFrame.historyPanel.addState();
-				
+				if (returnVal == JFileChooser.APPROVE_OPTION)
+					rootFrame.opPanel.loadData(fc.getSelectedFile());
+
 				rootFrame.logger.logAction("graphcanvas-load data");
 			}
 			else if (event.equals("Save data")) {
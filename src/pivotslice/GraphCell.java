@@ -1,16 +1,20 @@
 package pivotslice;
 
 import java.awt.geom.Ellipse2D;
-import java.awt.geom.QuadCurve2D;
 import java.awt.geom.Rectangle2D;
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
 import java.util.Random;
+import java.util.concurrent.RecursiveAction;
 
 import pivotslice.GraphCanvas.VisualStatus;
 
@@ -24,9 +28,12 @@ public class GraphCell implements Serializable {
 	private static final double dispRatio = 0.4;
     private static final double EPSILON = 0.000001D;
 	private static final double startTemp = 0.05;
+	private static final double openingAngle = 1.0;		// Barnes-Hut theta for the repulsive force
 	
 	public transient static PivotSlice rootFrame;
-	public static HashMap<EdgeVisual.Edge, EdgeVisual> edgeVisuals = new HashMap<EdgeVisual.Edge, EdgeVisual>();
+	public static EdgeStore edgeVisuals = new EdgeStore();
+	public static NodeVisualIndex nodeVisualIndex = new NodeVisualIndex();
+	public static RenderPipeline renderPipeline = new RenderPipeline();
 	
 	public boolean xAggr, yAggr;
 	public boolean matrixLayout;
@@ -40,8 +47,15 @@ public class GraphCell implements Serializable {
 	
 	public HashSet<Publication> publications = new HashSet<Publication>();
 	public HashMap<Long, NodeVisual> nodeVisualMap = new HashMap<Long, NodeVisual>();
-	public HashMap<Long, NodeVisual> oldNodeVisualMap;
 	public LinkedList<NodeVisual> nodeVisuals = new LinkedList<NodeVisual>();
+	// built off the event dispatch thread, shown once committed
+	public transient HashMap<Long, NodeVisual> newNodeVisualMap;
+	public transient LinkedList<NodeVisual> newNodeVisuals;
+	private transient int generation;		// of the pipeline job building the new visuals
+	private transient DataSource.Network network;		// the version of the network the job reads
+	private transient LayoutInput input;		// what the job lays out the cell from
+	private transient boolean scattered;		// isScattered of the new visuals
+	public transient NodePositions restoredPositions;		// positions the next rebuild gives the visuals
 	
 	///////////////////////////////////////////////////////////////////////////////////////////////////////////
 	// public methods
@@ -50,16 +64,19 @@ public class GraphCell implements Serializable {
 		gridx = col;
 	}
 	
-	public void createAndLayoutNodeVisuals() {
-		// save old node visual map
-		oldNodeVisualMap = (HashMap<Long, NodeVisual>) nodeVisualMap.clone();
-		nodeVisuals.clear();
-		nodeVisualMap.clear();
+	public void rebuildNodeVisuals(int generation, DataSource.Network network, LayoutInput input) {
+		// builds the new visuals of a pipeline job. only reads the current visuals and the snapshot of the index,
+		// which keep the previous visuals until commitNodeVisuals, so the cells of a job can be rebuilt concurrently
+		this.generation = generation;
+		this.network = network;
+		this.input = input;
+		newNodeVisuals = new LinkedList<NodeVisual>();
+		newNodeVisualMap = new HashMap<Long, NodeVisual>();
 		
-		boolean xcollapsed = rootFrame.facetBrowserX.getNodesFilter(gridx).isCollapsed || xAggr;
-		boolean ycollapsed = rootFrame.facetBrowserY.getNodesFilter(gridy).isCollapsed || yAggr;		
-		Facet xFacet = rootFrame.facetBrowserX.getNodesFilter(gridx).getLayoutFacet();
-		Facet yFacet = rootFrame.facetBrowserY.getNodesFilter(gridy).getLayoutFacet();
+		boolean xcollapsed = input.xcollapsed;
+		boolean ycollapsed = input.ycollapsed;
+		Facet xFacet = input.xFacet;
+		Facet yFacet = input.yFacet;
 		
 		if (!xcollapsed && !ycollapsed) {
 			// one visual for each pub
@@ -97,29 +114,125 @@ public class GraphCell implements Serializable {
 		}
 		
 		layoutNodeVisuals(xFacet, yFacet, xcollapsed, ycollapsed);
+		for (NodeVisual node : newNodeVisuals)
+			node.cell = this;
 	}
-
-	public void reLayoutNodeVisuals() {
-		boolean xcollapsed = rootFrame.facetBrowserX.getNodesFilter(gridx).isCollapsed || xAggr;
-		boolean ycollapsed = rootFrame.facetBrowserY.getNodesFilter(gridy).isCollapsed || yAggr;		
-		Facet xFacet = rootFrame.facetBrowserX.getNodesFilter(gridx).getLayoutFacet();
-		Facet yFacet = rootFrame.facetBrowserY.getNodesFilter(gridy).getLayoutFacet();
+	
+	public void growNodeVisuals(int generation, DataSource.Network network, LayoutInput input) {
+		// adds visuals for the publications put into the cell since its visuals were built, keeping those in
+		// place. a new visual starts next to its neighbors in the cell and is laid out among the others, which
+		// do not move; it is animated in from a neighbor, or from the center of the cell.
+		// a cell that groups its publications, or lost any of them, is rebuilt. the scattered visuals
+		// show one publication each, so none was lost if all of them are among the publications
+		boolean rebuild = input.xcollapsed || input.ycollapsed || input.matrixLayout || !isScattered 
+				|| nodeVisuals.isEmpty();
+		ArrayList<Publication> added = new ArrayList<Publication>();
+		if (!rebuild) {
+			int shown = 0;
+			for (Publication pub : input.publications) {
+				if (nodeVisualMap.containsKey(pub.getID()))
+					shown++;
+				else
+					added.add(pub);
+			}
+			rebuild = shown != nodeVisuals.size();
+		}
+		if (rebuild) {
+			rebuildNodeVisuals(generation, network, input);
+			return;
+		}
 		
-		layoutNodeVisuals(xFacet, yFacet, xcollapsed, ycollapsed);
+		this.generation = generation;
+		this.network = network;
+		this.input = input;
+		scattered = true;
+		newNodeVisuals = new LinkedList<NodeVisual>(nodeVisuals);
+		newNodeVisualMap = new HashMap<Long, NodeVisual>(nodeVisualMap);
+		int settled = newNodeVisuals.size();
+		
+		Facet xFacet = input.xFacet;
+		Facet yFacet = input.yFacet;
+		Random rand = new Random(46);
+		for (Publication pub : added) {
+			NodeVisual node = new NodeVisual();
+			node.pubs.add(pub);
+			node.cell = this;
+			placeByFacets(node, pub, xFacet, yFacet);
+			
+			// the free axes start at the mean position of the neighbors shown in the cell
+			ArrayList<NodeVisual> neighbors = new ArrayList<NodeVisual>();
+			int row = network.getOrdinal(pub);
+			for (int e = 0; e < network.graphEdges.getCitationCount(row); e++)
+				addShownNode(network.graphEdges.getCitation(row, e), neighbors);
+			for (int e = 0; e < network.graphEdges.getReferenceCount(row); e++)
+				addShownNode(network.graphEdges.getReference(row, e), neighbors);
+			double x = 0, y = 0;
+			for (NodeVisual neighbor : neighbors) {
+				x += neighbor.xpos / neighbors.size();
+				y += neighbor.ypos / neighbors.size();
+			}
+			if (xFacet == null)
+				node.xpos = neighbors.isEmpty() ? rand.nextDouble() : x + 0.02 * (rand.nextDouble() - 0.5);
+			if (yFacet == null)
+				node.ypos = neighbors.isEmpty() ? rand.nextDouble() : y + 0.02 * (rand.nextDouble() - 0.5);
+			node.xrenderp = neighbors.isEmpty() ? bounds.getCenterX() : neighbors.get(0).xrender;
+			node.yrenderp = neighbors.isEmpty() ? bounds.getCenterY() : neighbors.get(0).yrender;
+			
+			newNodeVisuals.add(node);
+			newNodeVisualMap.put(pub.getID(), node);
+		}
+		
+		if (newNodeVisuals.size() > settled && (xFacet == null || yFacet == null))
+			forceDirectedLayout(network, xFacet == null, yFacet == null, settled);
+	}
+	
+	public void reLayoutNodeVisuals(int generation, DataSource.Network network, LayoutInput input) {
+		// lays out copies of the current visuals, which stay shown and recorded as they are until the
+		// copies are committed as the new ones
+		this.generation = generation;
+		this.network = network;
+		this.input = input;
+		scattered = isScattered;
+		newNodeVisuals = new LinkedList<NodeVisual>();
+		newNodeVisualMap = new HashMap<Long, NodeVisual>();
+		IdentityHashMap<NodeVisual, NodeVisual> copies = new IdentityHashMap<NodeVisual, NodeVisual>();
+		for (NodeVisual node : nodeVisuals) {
+			NodeVisual copy = new NodeVisual(node);
+			copies.put(node, copy);
+			newNodeVisuals.add(copy);
+		}
+		for (Map.Entry<Long, NodeVisual> entry : nodeVisualMap.entrySet())
+			newNodeVisualMap.put(entry.getKey(), copies.get(entry.getValue()));
+		
+		layoutNodeVisuals(input.xFacet, input.yFacet, input.xcollapsed, input.ycollapsed);
+	}
+	
+	public void commitNodeVisuals() {
+		// on the event dispatch thread, once the cells of the job are done
+		if (newNodeVisuals == null)
+			return;
+		if (newNodeVisualMap != nodeVisualMap)
+			nodeVisualIndex.replace(network, nodeVisualMap, newNodeVisualMap);
+		nodeVisuals = newNodeVisuals;
+		nodeVisualMap = newNodeVisualMap;
+		isScattered = scattered;
+		newNodeVisuals = null;
+		newNodeVisualMap = null;
+		network = null;
+		input = null;
+		restoredPositions = null;
 	}
 	
 	///////////////////////////////////////////////////////////////////////////////////////////////////////////
 	// private methods
 	private void layoutNodeVisuals(Facet xFacet, Facet yFacet, boolean xcollapsed, boolean ycollapsed) {		
-		if (nodeVisuals.size() == 1) {
-			nodeVisuals.get(0).xpos = 0.5;
-			nodeVisuals.get(0).ypos = 0.5;
+		if (newNodeVisuals.size() == 1) {
+			newNodeVisuals.get(0).xpos = 0.5;
+			newNodeVisuals.get(0).ypos = 0.5;
 			return;
 		}
 		
-		DataSource.Network network = PivotSlice.dataSource.getNetwork();	
-		
-		if (matrixLayout) {
+		if (input.matrixLayout) {
 			/*
 			for (NodeVisual node : nodeVisuals) {
 				node.xpos = 0.5;
@@ -138,104 +251,64 @@ public class GraphCell implements Serializable {
 				}});
 			*/
 			// matrix-style view
-			double delta = 1.0 / (nodeVisuals.size() + 1);
+			double delta = 1.0 / (newNodeVisuals.size() + 1);
 			double pos = delta;
-			for (NodeVisual node : nodeVisuals) {
+			for (NodeVisual node : newNodeVisuals) {
 				node.xpos = pos;
 				node.ypos = pos;
 				pos += delta;
 			}
 			
-			isScattered = false;
+			scattered = false;
 		} 
 		else {	
 			// layout by attributes			
 			if (xFacet == null && yFacet == null) {
 				// force directed layout
-				forceDirectedLayout(network, true, true);
+				forceDirectedLayout(network, true, true, 0);
 			}
 			else if (xFacet != null && yFacet != null) {
 				// scatter plot: no need to layout
 			}
 			else if (xFacet != null && !ycollapsed) {
 				// vertical bar chart
-				forceDirectedLayout(network, false, true);
-
+				forceDirectedLayout(network, false, true, 0);
+				
 			}
 			else if (yFacet != null && !xcollapsed) {
 				// horizontal bar chart
-				forceDirectedLayout(network, true, false);
+				forceDirectedLayout(network, true, false, 0);
 			}
 		}	
 		
 	}
-
+	
 	private NodeVisual findPreviousNode(Long id) {
-		NodeVisual node = oldNodeVisualMap.get(id);
+		NodeVisual node = nodeVisualMap.get(id);
 		if (node != null)
 			return node;
 		
-		GraphCanvas parentCanvas = rootFrame.graphCanvas;
-		for (int i = 0; i < parentCanvas.getRowLength(); i++)
-			for (int j = 0; j < parentCanvas.getColLength(); j++) {
-				GraphCell cell = parentCanvas.getGraphCell(i, j);
-				if (cell != this) {
-					if (cell.oldNodeVisualMap != null)
-						node = cell.oldNodeVisualMap.get(id);
-					else
-						node = cell.nodeVisualMap.get(id);
-					
-					if (node != null)
-						return node;
-				}
-			}
+		// the visuals of the other cells before this rebuild
+		NodeVisualIndex index = input.previousVisuals;
+		int ordinal = index.getOrdinal(network, id);
+		for (int v = 0; v < index.getCount(ordinal); v++) {
+			node = index.get(ordinal, v);
+			if (node.cell != this)
+				return node;
+		}
 		
 		return null;
 	}
 	
 	private void createOneVisualForEach(Facet xFacet, Facet yFacet) {
-		Facet prexFacet = rootFrame.facetBrowserX.getNodesFilter(gridx).getPreLayoutFacet();
-		Facet preyFacet = rootFrame.facetBrowserY.getNodesFilter(gridy).getPreLayoutFacet();
+		Facet prexFacet = input.prexFacet;
+		Facet preyFacet = input.preyFacet;
 		
-		for (Publication pub : publications) {
+		for (Publication pub : input.publications) {
 			NodeVisual node = new NodeVisual();		
 			node.pubs.add(pub);
 			
-			if (xFacet != null) {	
-				Constraint.ConstraintData xcdata = rootFrame.facetBrowserX.getNodesFilter(gridx)
-						.getConstraint(xFacet.facetID).getConstraintData();
-				if (xFacet.facetType == Facet.FacetType.NUMERICAL) {
-					node.xpos = (Facet.getNumericalFacetValue(pub, xFacet) - xcdata.fromValue + 1) 
-							/ (double)(xcdata.toValue - xcdata.fromValue + 2);
-				}
-				else { 					
-					LinkedList<Long> ids = Facet.getCategoricalFacetValueIDs(pub, xFacet);
-					for (int i = 0; i < xcdata.valueIDs.size(); i++) {
-						if (ids.contains(xcdata.valueIDs.get(i))) {
-							node.xpos = 1.0 / (xcdata.valueIDs.size() + 1) * (i + 1);
-							break;
-						}
-					}
-				}
-			}
-			
-			if (yFacet != null) {	
-				Constraint.ConstraintData ycdata = rootFrame.facetBrowserY.getNodesFilter(gridy)
-						.getConstraint(yFacet.facetID).getConstraintData();
-				if (yFacet.facetType == Facet.FacetType.NUMERICAL) {
-					node.ypos = 1.0 - (Facet.getNumericalFacetValue(pub, yFacet) - ycdata.fromValue + 1) 
-							/ (double)(ycdata.toValue - ycdata.fromValue + 2);
-				}
-				else { 						
-					LinkedList<Long> ids = Facet.getCategoricalFacetValueIDs(pub, yFacet);
-					for (int i = 0; i < ycdata.valueIDs.size(); i++) {
-						if (ids.contains(ycdata.valueIDs.get(i))) {
-							node.ypos = 1.0 - 1.0 / (ycdata.valueIDs.size() + 1) * (i + 1);
-							break;
-						}
-					}
-				}
-			}
+			placeByFacets(node, pub, xFacet, yFacet);
 			
 			NodeVisual pnode = findPreviousNode(pub.getID());
 			if (pnode != null) {
@@ -243,218 +316,296 @@ public class GraphCell implements Serializable {
 				node.xrenderp = pnode.xrender;
 				node.yrenderp = pnode.yrender;
 				
-				if(isScattered && oldNodeVisualMap.containsKey(pub.getID()) 
+				if(isScattered && nodeVisualMap.containsKey(pub.getID()) 
 						&& xFacet == prexFacet && yFacet == preyFacet) {
 					node.xpos = pnode.xpos;
 					node.ypos = pnode.ypos;
 					node.isFixed = true;
 				}
 			}
+			if (input.restoredPositions != null && input.restoredPositions.restore(node, pub.getID()))
+				node.isFixed = true;
 			
-			nodeVisuals.add(node);
-			nodeVisualMap.put(pub.getID(), node);
+			newNodeVisuals.add(node);
+			newNodeVisualMap.put(pub.getID(), node);
 		}
 		
-		isScattered = true;
+		scattered = true;
+	}
+	
+	private void addShownNode(int ordinal, List<NodeVisual> nodes) {
+		NodeVisual node = nodeVisualMap.get(network.getID(ordinal));
+		if (node != null)
+			nodes.add(node);
+	}
+	
+	private void placeByFacets(NodeVisual node, Publication pub, Facet xFacet, Facet yFacet) {
+		// the position along the axes laid out by a facet, by the value of the publication
+		if (xFacet != null) {	
+			Constraint.ConstraintData xcdata = input.xcdata;
+			if (xFacet.facetType == Facet.FacetType.NUMERICAL) {
+				node.xpos = (Facet.getNumericalFacetValue(pub, xFacet) - xcdata.fromValue + 1) 
+						/ (double)(xcdata.toValue - xcdata.fromValue + 2);
+			}
+			else { 					
+				LinkedList<Long> ids = Facet.getCategoricalFacetValueIDs(pub, xFacet);
+				for (int i = 0; i < xcdata.valueIDs.size(); i++) {
+					if (ids.contains(xcdata.valueIDs.get(i))) {
+						node.xpos = 1.0 / (xcdata.valueIDs.size() + 1) * (i + 1);
+						break;
+					}
+				}
+			}
+		}
+		
+		if (yFacet != null) {	
+			Constraint.ConstraintData ycdata = input.ycdata;
+			if (yFacet.facetType == Facet.FacetType.NUMERICAL) {
+				node.ypos = 1.0 - (Facet.getNumericalFacetValue(pub, yFacet) - ycdata.fromValue + 1) 
+						/ (double)(ycdata.toValue - ycdata.fromValue + 2);
+			}
+			else { 						
+				LinkedList<Long> ids = Facet.getCategoricalFacetValueIDs(pub, yFacet);
+				for (int i = 0; i < ycdata.valueIDs.size(); i++) {
+					if (ids.contains(ycdata.valueIDs.get(i))) {
+						node.ypos = 1.0 - 1.0 / (ycdata.valueIDs.size() + 1) * (i + 1);
+						break;
+					}
+				}
+			}
+		}
 	}
 	
 	private void createOneVisualForAll() {
 		NodeVisual node = new NodeVisual();
-		node.pubs.addAll(publications);
+		node.pubs.addAll(input.publications);
 		node.xpos = 0.5;
 		node.ypos = 0.5;
-		nodeVisuals.add(node);
+		newNodeVisuals.add(node);
 		
-		for (Publication pub : publications)
-			nodeVisualMap.put(pub.getID(), node);
+		for (Publication pub : input.publications)
+			newNodeVisualMap.put(pub.getID(), node);
 		
-		isScattered = false;
+		scattered = false;
 	}
 	
 	private void createGroupedVisualCategorical(Facet xFacet, Facet yFacet, boolean xAggregation) {
 		// group by the first value of the attribute, e.g., the first author
 		if (xAggregation) {
-			Constraint.ConstraintData cdata = rootFrame.facetBrowserY.getNodesFilter(gridy)
-					.getConstraint(yFacet.facetID).getConstraintData();
+			Constraint.ConstraintData cdata = input.ycdata;
 			NodeVisual[] nodes = new NodeVisual[cdata.valueIDs.size()];
 			for (int i = 0; i < nodes.length; i++) {
 				nodes[i] = new NodeVisual();
 				nodes[i].xpos = 0.5;
 				nodes[i].ypos = 1.0 - 1.0 / (nodes.length + 1) * (i + 1);
-				nodeVisuals.add(nodes[i]);
+				newNodeVisuals.add(nodes[i]);
 			}
 			
-			for (Publication pub : publications) {
+			for (Publication pub : input.publications) {
 				LinkedList<Long> ids = Facet.getCategoricalFacetValueIDs(pub, yFacet);
 				for (int i = 0; i < cdata.valueIDs.size(); i++) {
 					if (ids.contains(cdata.valueIDs.get(i))) {
 						nodes[i].pubs.add(pub);
-						nodeVisualMap.put(pub.getID(), nodes[i]);
+						newNodeVisualMap.put(pub.getID(), nodes[i]);
 						break;
 					}
 				}
-
+				
 			}
 		}
 		else {
-			Constraint.ConstraintData cdata = rootFrame.facetBrowserX.getNodesFilter(gridx)
-					.getConstraint(xFacet.facetID).getConstraintData();
+			Constraint.ConstraintData cdata = input.xcdata;
 			NodeVisual[] nodes = new NodeVisual[cdata.valueIDs.size()];
 			for (int i = 0; i < nodes.length; i++) {
 				nodes[i] = new NodeVisual();
 				nodes[i].xpos = 1.0 / (nodes.length + 1) * (i + 1);
 				nodes[i].ypos = 0.5;
-				nodeVisuals.add(nodes[i]);
+				newNodeVisuals.add(nodes[i]);
 			}
 			
-			for (Publication pub : publications) {
+			for (Publication pub : input.publications) {
 				LinkedList<Long> ids = Facet.getCategoricalFacetValueIDs(pub, xFacet);
 				for (int i = 0; i < cdata.valueIDs.size(); i++) {
 					if (ids.contains(cdata.valueIDs.get(i))) {
 						nodes[i].pubs.add(pub);
-						nodeVisualMap.put(pub.getID(), nodes[i]);
+						newNodeVisualMap.put(pub.getID(), nodes[i]);
 						break;
 					}
 				}
 			}
 		}
 		
-		isScattered = false;
+		scattered = false;
 	}
 	
 	private void createGroupedVisualNumerical(Facet xFacet, Facet yFacet, boolean xAggregation) {
 		if (xAggregation) {
-			Constraint.ConstraintData cdata = rootFrame.facetBrowserY.getNodesFilter(gridy)
-					.getConstraint(yFacet.facetID).getConstraintData();
+			Constraint.ConstraintData cdata = input.ycdata;
 			NodeVisual[] nodes = new NodeVisual[cdata.toValue - cdata.fromValue + 1];
 			for (int i = 0; i < nodes.length; i++) {
 				nodes[i] = new NodeVisual();
 				nodes[i].xpos = 0.5;
 				nodes[i].ypos = 1.0 - 1.0 / (nodes.length + 1) * (i + 1);
-				nodeVisuals.add(nodes[i]);
+				newNodeVisuals.add(nodes[i]);
 			}
 			
-			for (Publication pub : publications) {
+			for (Publication pub : input.publications) {
 				int idx = Facet.getNumericalFacetValue(pub, yFacet) -  cdata.fromValue;
 				nodes[idx].pubs.add(pub);
-				nodeVisualMap.put(pub.getID(), nodes[idx]);
+				newNodeVisualMap.put(pub.getID(), nodes[idx]);
 			}
 		}
 		else {
-			Constraint.ConstraintData cdata = rootFrame.facetBrowserX.getNodesFilter(gridx)
-					.getConstraint(xFacet.facetID).getConstraintData();
+			Constraint.ConstraintData cdata = input.xcdata;
 			NodeVisual[] nodes = new NodeVisual[cdata.toValue - cdata.fromValue + 1];
 			for (int i = 0; i < nodes.length; i++) {
 				nodes[i] = new NodeVisual();
 				nodes[i].xpos = 1.0 / (nodes.length + 1) * (i + 1);
 				nodes[i].ypos = 0.5;
-				nodeVisuals.add(nodes[i]);
+				newNodeVisuals.add(nodes[i]);
 			}
 			
-			for (Publication pub : publications) {
+			for (Publication pub : input.publications) {
 				int idx = Facet.getNumericalFacetValue(pub, xFacet) -  cdata.fromValue;
 				nodes[idx].pubs.add(pub);
-				nodeVisualMap.put(pub.getID(), nodes[idx]);
+				newNodeVisualMap.put(pub.getID(), nodes[idx]);
 			}
 		}
 		
-		isScattered = false;
+		scattered = false;
 	}
-
-	private void forceDirectedLayout(DataSource.Network network, boolean xfree, boolean yfree) {
-		Random rand = new Random(46);
-		for (NodeVisual node : nodeVisuals) {
-			if (node.isFixed)
-				continue;
-			
-			if (xfree)
-				node.xpos = rand.nextDouble();
-			if (yfree)
-				node.ypos = rand.nextDouble();
+	
+	private void forceDirectedLayout(DataSource.Network network, boolean xfree, boolean yfree, int settled) {
+		// the first settled visuals keep their positions and only push and pull the others, which start
+		// where they are. without settled visuals, the free ones start at random
+		if (settled == 0) {
+			Random rand = new Random(46);
+			for (NodeVisual node : newNodeVisuals) {
+				if (node.isFixed)
+					continue;
+				
+				if (xfree)
+					node.xpos = rand.nextDouble();
+				if (yfree)
+					node.ypos = rand.nextDouble();
+			}
 		}
 		
-		if (nodeVisuals.size() == 0)
+		// nothing to lay out if all the visuals keep their positions
+		boolean free = false;
+		for (NodeVisual node : newNodeVisuals)
+			free |= !node.isFixed;
+		if (!free)
 			return;
 		
-		double k = Math.sqrt(1.0 / nodeVisuals.size());
+		// the visuals as an array, and the edges between them as pairs of indices
+		NodeVisual[] nodes = newNodeVisuals.toArray(new NodeVisual[newNodeVisuals.size()]);
+		IdentityHashMap<NodeVisual, Integer> nodeIndex = new IdentityHashMap<NodeVisual, Integer>();
+		for (int i = 0; i < nodes.length; i++)
+			nodeIndex.put(nodes[i], i);
+		EdgePairs inEdges = new EdgePairs();
+		EdgePairs outEdges = new EdgePairs();
+		for (int i = 0; i < nodes.length; i++) {
+			for (Publication pub : nodes[i].pubs) {
+				int row = network.getOrdinal(pub);
+				for (int e = 0; e < network.graphEdges.getCitationCount(row); e++) {
+					NodeVisual node2 = newNodeVisualMap.get(network.getID(network.graphEdges.getCitation(row, e)));
+					if (node2 != null)
+						inEdges.add(i, nodeIndex.get(node2));
+				}
+				for (int e = 0; e < network.graphEdges.getReferenceCount(row); e++) {
+					NodeVisual node2 = newNodeVisualMap.get(network.getID(network.graphEdges.getReference(row, e)));
+					if (node2 != null)
+						outEdges.add(i, nodeIndex.get(node2));
+				}
+			}
+		}
+		
+		double k = Math.sqrt(1.0 / nodes.length);
 		double temperature = startTemp;
+		double[] xs = new double[nodes.length];
+		double[] ys = new double[nodes.length];
+		double[] fxs = new double[nodes.length];
+		double[] fys = new double[nodes.length];
+		// displacements by index, the settled visuals may be shown while the others are laid out
+		double[] dxs = new double[nodes.length];
+		double[] dys = new double[nodes.length];
 		
 		for (int i = 0; i < layoutIteration; i++) {
-			for (NodeVisual node : nodeVisuals) {
-				node.xdisp = 0;
-				node.ydisp = 0;
+			// a newer job replaced this one
+			renderPipeline.checkCurrent(generation);
+			
+			for (int n = 0; n < nodes.length; n++) {
+				dxs[n] = 0;
+				dys[n] = 0;
+				xs[n] = nodes[n].xpos;
+				ys[n] = nodes[n].ypos;
+			}
+			
+			// repulsive force, approximated by a quadtree of the current positions
+			QuadTree tree = new QuadTree(xs, ys, nodes.length);
+			new RepulsionTask(tree, xs, ys, settled, nodes.length, k * k, fxs, fys).invoke();
+			for (int n = settled; n < nodes.length; n++) {
+				if (xfree)
+					dxs[n] += fxs[n];
+				if (yfree)
+					dys[n] += fys[n];
 			}
 			
-			for (NodeVisual node1 : nodeVisuals) {
-				// repulsive force
-				for (NodeVisual node2 : nodeVisuals) {
-					if (node1 == node2) 
-						continue;
-					double dx = node1.xpos - node2.xpos;
-					double dy = node1.ypos - node2.ypos;
-					double dist = Math.max(EPSILON, Math.sqrt(dx * dx + dy * dy));
-					double f = k * k / dist / dist ;
-					if (xfree)
-						node1.xdisp += f * dx;
-					if (yfree)
-						node1.ydisp += f * dy;
+			// attractive force
+			// in edges
+			for (int e = 0; e < inEdges.size; e++) {
+				int n1 = inEdges.sources[e];
+				int n2 = inEdges.targets[e];
+				NodeVisual node1 = nodes[n1];
+				NodeVisual node2 = nodes[n2];
+				double dx = (node1.xpos - node2.xpos);
+				double dy = (node1.ypos - node2.ypos);
+				double dist = Math.sqrt(dx * dx + dy * dy);
+				double f = dist * dist / k;
+				if (xfree) {
+					dxs[n1] -= f * dx;
+					dxs[n2] += f * dx;
+				}
+				if (yfree) {
+					dys[n1] -= f * dy;
+					dys[n2] += f * dy;
+				}
+			}
+			// out edges
+			for (int e = 0; e < outEdges.size; e++) {
+				int n1 = outEdges.sources[e];
+				int n2 = outEdges.targets[e];
+				NodeVisual node1 = nodes[n1];
+				NodeVisual node2 = nodes[n2];
+				double dx = node1.xpos - node2.xpos;
+				double dy = node1.ypos - node2.ypos;
+				double dist = Math.max(EPSILON, Math.sqrt(dx * dx + dy * dy));
+				double f = dist / k;
+				if (xfree) {
+					dxs[n1] -= f * dx;
+					dxs[n2] += f * dx;
+				}
+				if (yfree) {								
+					dys[n1] -= f * dy;								
+					dys[n2] += f * dy;
 				}
-				
-				// attractive force
-				for (Publication pub : node1.pubs) {
-					// in edges
-					for (Long toID : network.graphEdgesIn.get(pub.getID())) {
-						NodeVisual node2 = nodeVisualMap.get(toID);
-						if (node2 != null) {
-							double dx = (node1.xpos - node2.xpos);
-							double dy = (node1.ypos - node2.ypos);
-							double dist = Math.sqrt(dx * dx + dy * dy);
-							double f = dist * dist / k;
-							if (xfree) {
-								node1.xdisp -= f * dx;
-								node2.xdisp += f * dx;
-							}
-							if (yfree) {
-								node1.ydisp -= f * dy;
-								node2.ydisp += f * dy;
-							}
-						}
-					}
-					// out edges
-					for (Long toID : network.graphEdgesOut.get(pub.getID())) {
-						NodeVisual node2 = nodeVisualMap.get(toID);
-						if (node2 != null) {
-							double dx = node1.xpos - node2.xpos;
-							double dy = node1.ypos - node2.ypos;
-							double dist = Math.max(EPSILON, Math.sqrt(dx * dx + dy * dy));
-							double f = dist / k;
-							if (xfree) {
-								node1.xdisp -= f * dx;
-								node2.xdisp += f * dx;
-							}
-							if (yfree) {								
-								node1.ydisp -= f * dy;								
-								node2.ydisp += f * dy;
-							}
-
-						}
-					}
-				}	
 			}
 			
 			// apply force
-			for (NodeVisual node : nodeVisuals) {
+			for (int n = settled; n < nodes.length; n++) {
+				NodeVisual node = nodes[n];
 				if (node.isFixed)
 					continue;
 				
-				double disp = Math.max(EPSILON, Math.sqrt(node.xdisp * node.xdisp + node.ydisp * node.ydisp));
+				double disp = Math.max(EPSILON, Math.sqrt(dxs[n] * dxs[n] + dys[n] * dys[n]));
 				if (xfree) {
-					node.xpos += node.xdisp / disp * Math.min(temperature, dispRatio * disp);
+					node.xpos += dxs[n] / disp * Math.min(temperature, dispRatio * disp);
 					node.xpos = node.xpos < 0 ? 0.2 * Math.random() : node.xpos;
 					node.xpos = node.xpos > 1 ? 1 - 0.2 * Math.random() : node.xpos;
 				}
 				if (yfree) {
-					node.ypos += node.ydisp / disp * Math.min(temperature, dispRatio * disp);	
+					node.ypos += dys[n] / disp * Math.min(temperature, dispRatio * disp);	
 					node.ypos = node.ypos < 0 ? 0.2 * Math.random() : node.ypos;				
 					node.ypos = node.ypos > 1 ? 1 - 0.2 * Math.random() : node.ypos;
 				}
@@ -465,6 +616,139 @@ public class GraphCell implements Serializable {
 		}
 	}
 	
+	///////////////////////////////////////////////////////////////////////////////////////////////////////////
+	// inner classes
+	private static class RepulsionTask extends RecursiveAction {
+		// repulsive forces of a range of nodes, split further when running in a fork/join pool
+		private static final long serialVersionUID = -2305946431786210935L;
+		private static final int chunkSize = 2048;
+		
+		private final QuadTree tree;
+		private final double[] xs, ys, fxs, fys;
+		private final int start, end;
+		private final double k2;
+		
+		public RepulsionTask(QuadTree tree, double[] xs, double[] ys, int start, int end, double k2, 
+				double[] fxs, double[] fys) {
+			this.tree = tree;
+			this.xs = xs;
+			this.ys = ys;
+			this.start = start;
+			this.end = end;
+			this.k2 = k2;
+			this.fxs = fxs;
+			this.fys = fys;
+		}
+		
+		@Override
+		protected void compute() {
+			if (end - start > chunkSize && inForkJoinPool()) {
+				int mid = (start + end) >>> 1;
+				invokeAll(new RepulsionTask(tree, xs, ys, start, mid, k2, fxs, fys), 
+						new RepulsionTask(tree, xs, ys, mid, end, k2, fxs, fys));
+			}
+			else
+				tree.getRepulsion(xs, ys, start, end, k2, openingAngle, EPSILON, fxs, fys);
+		}
+	}
+	
+	private static class EdgePairs {
+		// growable list of edges between node visuals, by index
+		private int[] sources = new int[16];
+		private int[] targets = new int[16];
+		private int size;
+		
+		private void add(int from, int to) {
+			if (size == sources.length) {
+				sources = Arrays.copyOf(sources, size * 2);
+				targets = Arrays.copyOf(targets, size * 2);
+			}
+			sources[size] = from;
+			targets[size] = to;
+			size++;
+		}
+	}
+	
+	public static class LayoutInput {
+		// what a pipeline job lays out a cell from, taken on the event dispatch thread when the job is
+		// submitted, so that the publications of the cell and the filters can change while the job runs
+		public final GraphCell cell;
+		private final ArrayList<Publication> publications;
+		private final boolean xcollapsed, ycollapsed, matrixLayout;
+		private final Facet xFacet, yFacet, prexFacet, preyFacet;
+		private final Constraint.ConstraintData xcdata, ycdata;		// of the layout facets
+		private final NodePositions restoredPositions;
+		private final NodeVisualIndex previousVisuals;		// snapshot of the index, shared by the cells of a job
+		
+		public LayoutInput(GraphCell cell, NodeVisualIndex previousVisuals) {
+			NodesFilter xFilter = rootFrame.facetBrowserX.getNodesFilter(cell.gridx);
+			NodesFilter yFilter = rootFrame.facetBrowserY.getNodesFilter(cell.gridy);
+			this.cell = cell;
+			publications = new ArrayList<Publication>(cell.publications);
+			xcollapsed = xFilter.isCollapsed || cell.xAggr;
+			ycollapsed = yFilter.isCollapsed || cell.yAggr;
+			matrixLayout = cell.matrixLayout;
+			xFacet = xFilter.getLayoutFacet();
+			yFacet = yFilter.getLayoutFacet();
+			prexFacet = xFilter.getPreLayoutFacet();
+			preyFacet = yFilter.getPreLayoutFacet();
+			xcdata = xFacet == null ? null 
+					: new Constraint.ConstraintData(xFilter.getConstraint(xFacet.facetID).getConstraintData());
+			ycdata = yFacet == null ? null 
+					: new Constraint.ConstraintData(yFilter.getConstraint(yFacet.facetID).getConstraintData());
+			restoredPositions = cell.restoredPositions;
+			this.previousVisuals = previousVisuals;
+		}
+	}
+	
+	public static class NodePositions {
+		// the positions of the visuals showing a single publication, by the id of the publication
+		private final long[] ids;
+		private final double[] xs, ys;
+		
+		public NodePositions(List<NodeVisual> nodes) {
+			long[] keys = new long[nodes.size()];
+			int count = 0;
+			for (NodeVisual node : nodes) {
+				if (node.pubs.size() == 1)
+					keys[count++] = node.pubs.get(0).getID();
+			}
+			ids = Arrays.copyOf(keys, count);
+			Arrays.sort(ids);
+			xs = new double[count];
+			ys = new double[count];
+			for (NodeVisual node : nodes) {
+				if (node.pubs.size() == 1) {
+					int i = Arrays.binarySearch(ids, node.pubs.get(0).getID());
+					xs[i] = node.xpos;
+					ys[i] = node.ypos;
+				}
+			}
+		}
+		
+		public boolean matches(List<NodeVisual> nodes) {
+			int count = 0;
+			for (NodeVisual node : nodes) {
+				if (node.pubs.size() != 1)
+					continue;
+				int i = Arrays.binarySearch(ids, node.pubs.get(0).getID());
+				if (i < 0 || xs[i] != node.xpos || ys[i] != node.ypos)
+					return false;
+				count++;
+			}
+			return count == ids.length;
+		}
+		
+		public boolean restore(NodeVisual node, long id) {
+			int i = Arrays.binarySearch(ids, id);
+			if (i < 0)
+				return false;
+			node.xpos = xs[i];
+			node.ypos = ys[i];
+			return true;
+		}
+	}
+	
 	public static class NodeVisual implements Serializable {
 		private static final long serialVersionUID = 1639343932650767865L;
 		
@@ -472,68 +756,31 @@ public class GraphCell implements Serializable {
 		public double xpos, ypos;
 		public double xrender, yrender;
 		public double xrenderp, yrenderp;
-		public double xdisp, ydisp;
 		public double xlayout, ylayout;
 		public boolean isNew;
 		public boolean isFixed;
+		public transient int edgeIndex;		// index in the edge store, set when the drawings are created
+		public GraphCell cell;		// the cell showing the node
 		public Ellipse2D.Double circle;
 		public ArrayList<Publication> pubs = new ArrayList<Publication>();	
-	}
-	
-	public static class EdgeVisual implements Serializable {
-		private static final long serialVersionUID = 286473153530261535L;
 		
-		public VisualStatus status = VisualStatus.DEFAULT;
-		public Edge edgeNodes = new Edge();
-		public int count;
-		public boolean isCrossing;
-		public QuadCurve2D.Double line;
-		public Rectangle2D.Double rect;
-		
-		public EdgeVisual(NodeVisual node1, NodeVisual node2, QuadCurve2D.Double curve) {
-			edgeNodes.fromNode = node1;
-			edgeNodes.toNode = node2;
-			line = curve;
-			count = 1;
+		public NodeVisual() {
 		}
 		
-		public EdgeVisual(NodeVisual node1, NodeVisual node2, Rectangle2D.Double square) {
-			edgeNodes.fromNode = node1;
-			edgeNodes.toNode = node2;
-			rect = square;
-			count = 1;
-		}
-		
-		public static class Edge implements Serializable {
-			private static final long serialVersionUID = 3058092947843865445L;
-			
-			public NodeVisual fromNode;
-			public NodeVisual toNode;
-			
-			@Override
-			public boolean equals(Object other) {
-				if (other == this)
-					return true;
-				
-				if (other == null || other.getClass() != this.getClass())
-					return false;
-				
-				Edge oe = (Edge) other;
-				return fromNode == oe.fromNode && toNode == oe.toNode;
-
-			}
-			
-			@Override
-			public int hashCode() {
-				final int prime = 31;
-				int result = 1;
-				result = prime * result + String.format("%f", fromNode.xrender).hashCode();
-				result = prime * result + String.format("%f", fromNode.yrender).hashCode();
-				result = prime * result + fromNode.pubs.hashCode();
-				result = prime * result + toNode.pubs.hashCode();
-				
-				return result;
-			}
+		public NodeVisual(NodeVisual node) {
+			// a copy to lay out while the node is shown
+			status = node.status;
+			xpos = node.xpos;
+			ypos = node.ypos;
+			xrender = node.xrender;
+			yrender = node.yrender;
+			xrenderp = node.xrenderp;
+			yrenderp = node.yrenderp;
+			isNew = node.isNew;
+			isFixed = node.isFixed;
+			cell = node.cell;
+			circle = node.circle == null ? null : (Ellipse2D.Double) node.circle.clone();
+			pubs.addAll(node.pubs);
 		}
 	}
 }
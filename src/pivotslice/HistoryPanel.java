@@ -22,14 +22,11 @@ import java.awt.event.MouseEvent;
 import java.awt.event.MouseListener;
 import java.awt.event.MouseMotionListener;
 import java.awt.image.BufferedImage;
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.HashSet;
 
 import javax.swing.BorderFactory;
 import javax.swing.JLabel;
@@ -50,8 +47,7 @@ public class HistoryPanel extends JPanel implements MouseMotionListener, MouseLi
 	private static final Font font = new Font("SansSerif", Font.BOLD, 9);
 	private static final Border border = BorderFactory.createLineBorder(Color.BLACK);
 	private static final int maxOperationSize = 30;
-	
-	private static int maxStateSize = 5;
+	private static final int maxNumberings = 4;		// of the network versions kept by the states
 	
 	private JPanel statePanel = new JPanel(new FlowLayout(FlowLayout.LEADING));
 	private ArrayList<HistoryState> states = new ArrayList<HistoryState>();
@@ -74,7 +70,13 @@ public class HistoryPanel extends JPanel implements MouseMotionListener, MouseLi
 		
 		statePanel.addMouseListener(this);
 		statePanel.addMouseMotionListener(this);	
-		statePanel.setBorder(BorderFactory.createEtchedBorder());
+		
+		JScrollPane statePane = new JScrollPane(statePanel);
+		statePane.setVerticalScrollBarPolicy(JScrollPane.VERTICAL_SCROLLBAR_NEVER);
+		statePane.setHorizontalScrollBarPolicy(JScrollPane.HORIZONTAL_SCROLLBAR_AS_NEEDED);
+		statePane.setBorder(BorderFactory.createEtchedBorder());
+		this.setPreferredSize(new Dimension(400, this.getPreferredSize().height 
+				+ statePane.getHorizontalScrollBar().getPreferredSize().height));
 		
 		operationPanel.setPreferredSize(new Dimension(180, 10));
 		operationPanel.setLayout(new GridBagLayout());
@@ -99,22 +101,16 @@ public class HistoryPanel extends JPanel implements MouseMotionListener, MouseLi
 		ds.addDragSourceMotionListener(rootFrame.dragListener);
 		ds.addDragSourceListener(rootFrame.dragListener);
 		
-		this.add(statePanel, BorderLayout.CENTER);
+		this.add(statePane, BorderLayout.CENTER);
 		this.add(pane, BorderLayout.EAST);
 		
 		this.addComponentListener(this);
 	}
 	
 	public void addState() {
-		HistoryState newState = new HistoryState();
+		final HistoryState newState = new HistoryState(currentIndex == -1 ? null : states.get(currentIndex));
 		
 		if (currentIndex == states.size() - 1) {
-			if (states.size() >= maxStateSize) {
-				HistoryState oldState = states.remove(0);
-				statePanel.remove(oldState);
-				currentIndex--;
-			}
-			
 			states.add(newState);
 			statePanel.add(newState);
 			currentIndex++;
@@ -130,9 +126,17 @@ public class HistoryPanel extends JPanel implements MouseMotionListener, MouseLi
 			statePanel.add(newState);
 			currentIndex++;
 		}	
+		releaseNetworks();
 		
-		statePanel.validate();
+		statePanel.revalidate();
 		statePanel.repaint();
+		
+		SwingUtilities.invokeLater(new Runnable(){
+			@Override
+			public void run() {
+				statePanel.scrollRectToVisible(newState.getBounds());
+			}	
+		});
 	}
 	
 	public void addOperation(Constraint.ConstraintData cdata) {
@@ -203,6 +207,22 @@ public class HistoryPanel extends JPanel implements MouseMotionListener, MouseLi
 		return label;
 	}
 	
+	private void releaseNetworks() {
+		// the versions of a numbering share their data, each numbering holds its own. the states keep
+		// the versions of the latest numberings they recorded, the older states let theirs go
+		HashSet<Integer> kept = new HashSet<Integer>();
+		for (int i = states.size() - 1; i >= 0; i--) {
+			HistoryState state = states.get(i);
+			if (state.network == null)
+				continue;
+			int numbering = state.network.getNumbering();
+			if (kept.contains(numbering) || kept.size() < maxNumberings)
+				kept.add(numbering);
+			else
+				state.network = null;
+		}
+	}
+	
 	///////////////////////////////////////////////////////////////////////////////////////////////////////////
 	// event handler
 	@Override
@@ -212,18 +232,7 @@ public class HistoryPanel extends JPanel implements MouseMotionListener, MouseLi
 	public void componentMoved(ComponentEvent e) {}
 
 	@Override
-	public void componentResized(ComponentEvent e) {
-		int num = (this.getWidth() - 220) / stateImageSize;
-		if (num < states.size()) {
-			for (int i = 0; i < states.size() - num; i++) {
-				HistoryState oldState = states.remove(0);
-				statePanel.remove(oldState);
-				currentIndex--;
-			}
-		}
-		
-		maxStateSize = num;
-	}
+	public void componentResized(ComponentEvent e) {}
 
 	@Override
 	public void componentShown(ComponentEvent e) {}
@@ -306,18 +315,18 @@ public class HistoryPanel extends JPanel implements MouseMotionListener, MouseLi
 	// inner classes
 	public class HistoryState extends JPanel {
 		
+		// a state keeps the version of the network, which is not changed once published, and records of the
+		// filters and the cells; the parts unchanged since the previous state are shared with it.
+		// a state that let its version go restores the filters and the cells on the current network
 		public String timeString;
 		public BufferedImage stateImage;
 		
-		private byte[] storage;
+		private DataSource.Network network;		// null once released
+		private FacetBrowser.BrowserState xBrowser, yBrowser;
+		private GraphCanvas.CanvasState canvas;
 		
-		public HistoryState() {	
-			try {
-				putState();
-			} catch (IOException e) {
-				e.printStackTrace();
-				rootFrame.showErrorMessage("Storing states error:\n" + e.toString());
-			}
+		public HistoryState(HistoryState previous) {	
+			putState(previous);
 			
 			timeString = new SimpleDateFormat("HH:mm:ss").format(Calendar.getInstance().getTime());
 			BufferedImage image = PivotSlice.getScreenShot(rootFrame.centerPanel);
@@ -349,35 +358,20 @@ public class HistoryPanel extends JPanel implements MouseMotionListener, MouseLi
 			g2.dispose();
 		}
 		
-		public void putState() throws IOException {
-			ByteArrayOutputStream byteStream = new ByteArrayOutputStream();
-			ObjectOutputStream obStream = new ObjectOutputStream(byteStream);
-			// serializing objects
-			PivotSlice.dataSource.writeObjects(obStream);
-			rootFrame.graphCanvas.writeObjects(obStream);
-			rootFrame.facetBrowserX.writeObjects(obStream);
-			rootFrame.facetBrowserY.writeObjects(obStream);
-			
-			
-			obStream.close();
-			
-			byteStream.flush();
-			storage = byteStream.toByteArray();
-			byteStream.close();
+		public void putState(HistoryState previous) {
+			network = PivotSlice.dataSource.getNetwork();
+			xBrowser = rootFrame.facetBrowserX.saveState(previous == null ? null : previous.xBrowser);
+			yBrowser = rootFrame.facetBrowserY.saveState(previous == null ? null : previous.yBrowser);
+			canvas = rootFrame.graphCanvas.saveState(previous == null ? null : previous.canvas);
 		}
 		
-		public void getState() throws IOException, ClassNotFoundException {
-			ByteArrayInputStream byteStream = new ByteArrayInputStream(storage);
-			ObjectInputStream obStream = new ObjectInputStream(byteStream);
-			// deserializing objects
-			PivotSlice.dataSource.readObjects(obStream);
-			rootFrame.graphCanvas.readObjects(obStream);
-			rootFrame.facetBrowserX.readObjects(obStream);
-			rootFrame.facetBrowserY.readObjects(obStream);
-			
-			
-			obStream.close();
-			byteStream.close();
+		public void getState() throws IOException {
+			// only what differs from the current state is restored; the cells are filled again if the
+			// network or the filters changed
+			boolean changed = network == null || PivotSlice.dataSource.restoreNetwork(network);
+			changed |= rootFrame.facetBrowserX.restoreState(xBrowser);
+			changed |= rootFrame.facetBrowserY.restoreState(yBrowser);
+			rootFrame.graphCanvas.restoreState(canvas, changed);
 		}
 	}
 
@@ -0,0 +1,106 @@
+package pivotslice;
+
+import java.util.Arrays;
+
+public class IdSpace {
+	
+	// assigns dense ordinals 0, 1, 2, ... to long ids in the order they are added.
+	// ordinals never change, so arrays indexed by ordinal stay valid while the space grows.
+	// one writer adds while others look up the ordinals below a limit, the size of the network
+	// version they read: arrays are replaced rather than resized, through volatile fields, and
+	// a slot whose ordinal is not visible yet is skipped as if it held another id
+	
+	private volatile long[] ids = new long[16];		// ordinal -> id
+	private volatile int[] slots = new int[32];		// open addressing on ids, holds ordinal + 1 or 0 if empty
+	private int size;
+	
+	///////////////////////////////////////////////////////////////////////////////////////////////////////////
+	// public methods
+	public int add(long id) {
+		int slot = findSlot(id);
+		if (slots[slot] != 0)
+			return slots[slot] - 1;
+		
+		if (size == ids.length)
+			ids = Arrays.copyOf(ids, size * 2);
+		ids[size] = id;
+		slots[slot] = ++size;		// after the id, so a reader finding the slot can match it
+		
+		if (size * 2 > slots.length)
+			rehash(slots.length * 2);
+		return size - 1;
+	}
+	
+	public int getOrdinal(long id) {
+		return slots[findSlot(id)] - 1;
+	}
+	
+	public int getOrdinal(long id, int limit) {
+		// -1 unless the id was among the first limit added, safe while the writer adds
+		int[] table = slots;
+		long[] column = ids;
+		int mask = table.length - 1;
+		int slot = hash(id) & mask;
+		while (table[slot] != 0) {
+			int ordinal = table[slot] - 1;
+			if (ordinal < column.length && column[ordinal] == id)
+				return ordinal < limit ? ordinal : -1;
+			slot = (slot + 1) & mask;
+		}
+		return -1;
+	}
+	
+	public boolean contains(long id) {
+		return slots[findSlot(id)] != 0;
+	}
+	
+	public long getID(int ordinal) {
+		return ids[ordinal];
+	}
+	
+	public int size() {
+		return size;
+	}
+	
+	public IdSpace copy(int length) {
+		// the first ordinals in a space that grows independently
+		IdSpace space = new IdSpace();
+		space.ids = Arrays.copyOf(ids, Math.max(length, 16));
+		space.size = length;
+		int capacity = 32;
+		while (length * 2 > capacity)
+			capacity *= 2;
+		space.rehash(capacity);
+		return space;
+	}
+	
+	///////////////////////////////////////////////////////////////////////////////////////////////////////////
+	// private methods
+	private int findSlot(long id) {
+		int[] table = slots;
+		long[] column = ids;
+		int mask = table.length - 1;
+		int slot = hash(id) & mask;
+		while (table[slot] != 0 && column[table[slot] - 1] != id)
+			slot = (slot + 1) & mask;
+		return slot;
+	}
+	
+	private static int hash(long id) {
+		long h = id * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32));
+	}
+	
+	private void rehash(int capacity) {
+		// filled before it replaces the old table, which the readers may still probe
+		int[] table = new int[capacity];
+		int mask = capacity - 1;
+		for (int i = 0; i < size; i++) {
+			int slot = hash(ids[i]) & mask;
+			while (table[slot] != 0)
+				slot = (slot + 1) & mask;
+			table[slot] = i + 1;
+		}
+		slots = table;
+	}
+}
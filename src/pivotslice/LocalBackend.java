@@ -0,0 +1,114 @@
+package pivotslice;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import com.microsoft.research.Publication;
+
+public class LocalBackend implements PublicationBackend {
+	
+	// answers from a corpus on disk in the network file format, such as a citation dump converted once.
+	// citations and references are looked up in the mapped adjacency section. full-text search matches
+	// all the words of the text in the titles, most cited first, through an inverted index of the title
+	// words that is built in one pass over the records at the first search
+	
+	private final NetworkFile.Corpus corpus;
+	private HashMap<String, CompressedBitmap> titleIndex;
+	
+	///////////////////////////////////////////////////////////////////////////////////////////////////////////
+	// public methods
+	public LocalBackend(File f) throws IOException {
+		corpus = new NetworkFile.Corpus(f);
+	}
+	
+	@Override
+	public List<Publication> search(String text, int start, int end) throws IOException {
+		HashMap<String, CompressedBitmap> index = getTitleIndex();
+		CompressedBitmap rows = null;
+		for (String word : getWords(text)) {
+			CompressedBitmap postings = index.get(word);
+			if (postings == null)
+				return Collections.emptyList();
+			if (rows == null)
+				rows = postings.clone();
+			else
+				rows.and(postings);
+		}
+		if (rows == null)
+			return Collections.emptyList();
+		
+		// by citations in the corpus, then by row
+		AdjacencyStore store = corpus.getStore();
+		int[] matches = rows.toArray();
+		long[] keys = new long[matches.length];
+		for (int i = 0; i < matches.length; i++)
+			keys[i] = ((long) (Integer.MAX_VALUE - store.getCitationCount(matches[i])) << 32) | matches[i];
+		Arrays.sort(keys);
+		
+		List<Publication> result = new ArrayList<Publication>();
+		for (int i = Math.max(start, 1) - 1; i < Math.min(end, keys.length); i++)
+			result.add(corpus.getPublication((int) keys[i]));
+		return result;
+	}
+	
+	@Override
+	public List<Publication> getCitations(Publication pub, int start, int end) throws IOException {
+		AdjacencyStore store = corpus.getStore();
+		int row = corpus.getRow(pub.getID());
+		List<Publication> result = new ArrayList<Publication>();
+		for (int i = Math.max(start, 1) - 1; i < Math.min(end, store.getCitationCount(row)); i++)
+			result.add(corpus.getPublication(store.getCitation(row, i)));
+		return result;
+	}
+	
+	@Override
+	public List<Publication> getReferences(Publication pub, int start, int end) throws IOException {
+		AdjacencyStore store = corpus.getStore();
+		int row = corpus.getRow(pub.getID());
+		List<Publication> result = new ArrayList<Publication>();
+		for (int i = Math.max(start, 1) - 1; i < Math.min(end, store.getReferenceCount(row)); i++)
+			result.add(corpus.getPublication(store.getReference(row, i)));
+		return result;
+	}
+	
+	///////////////////////////////////////////////////////////////////////////////////////////////////////////
+	// private methods
+	private synchronized HashMap<String, CompressedBitmap> getTitleIndex() throws IOException {
+		if (titleIndex == null) {
+			// rows come in order, so each bitmap is only appended to
+			final HashMap<String, CompressedBitmap> index = new HashMap<String, CompressedBitmap>();
+			corpus.readTitles(new NetworkFile.TitleReceiver() {
+				@Override
+				public void receive(int row, String title) {
+					if (title == null)
+						return;
+					for (String word : getWords(title)) {
+						CompressedBitmap postings = index.get(word);
+						if (postings == null) {
+							postings = new CompressedBitmap();
+							index.put(word, postings);
+						}
+						postings.add(row);
+					}
+				}
+			});
+			titleIndex = index;
+		}
+		return titleIndex;
+	}
+	
+	private static Set<String> getWords(String text) {
+		Set<String> words = new LinkedHashSet<String>();
+		for (String word : text.toLowerCase().split("[^\\p{L}\\p{Nd}]+"))
+			if (word.length() > 0)
+				words.add(word);
+		return words;
+	}
+}
@@ -0,0 +1,765 @@
+package pivotslice;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.datacontract.schemas._2004._07.libra_service.PublicationType;
+
+import com.microsoft.research.Author;
+import com.microsoft.research.Conference;
+import com.microsoft.research.Journal;
+import com.microsoft.research.Keyword;
+import com.microsoft.research.Publication;
+
+public class NetworkFile {
+	
+	// file layout (big-endian), publications are addressed by their row in the file:
+	//   header			int magic, int version, int pubCount n, int edgeCount m
+	//   adjacency		int[n + 1] outOffsets, int[m] outTargets, int[n + 1] inOffsets, int[m] inTargets
+	//   scalars		long[n] ids, int[n] year, int[n] citationCount, int[n] referenceCount
+	//   facets			int[n] journal, int[n] conference,
+	//					int[n + 1] authorOffsets, int[] authors, int[n + 1] keywordOffsets, int[] keywords
+	//   dictionaries	authors, journals, conferences, keywords
+	//   records		title, abstract, doi, type and urls of each publication
+	//   trailer		long[n] recordPositions, long recordPositionsStart
+	public static final int MAGIC = 0x50534C43;	// "PSLC"
+	public static final int VERSION = 1;
+	public static final int HEADER_SIZE = 16;
+	
+	private static final int NULL_VALUE = Integer.MIN_VALUE;
+	private static final int bufferSize = 1 << 20;
+	private static final Charset charset = Charset.forName("UTF-8");
+	
+	///////////////////////////////////////////////////////////////////////////////////////////////////////////
+	// public methods
+	public static boolean isNetworkFile(File f) throws IOException {
+		if (f.length() < HEADER_SIZE)
+			return false;
+		
+		RandomAccessFile raf = new RandomAccessFile(f, "r");
+		try {
+			return raf.readInt() == MAGIC;
+		}
+		finally {
+			raf.close();
+		}
+	}
+	
+	public static void write(DataSource.Network network, File f) throws IOException {
+		// publication rows are their ordinals, the rows of the adjacency store
+		AdjacencyStore store = network.getCompactedEdges();
+		int n = store.size();
+		Publication[] pubs = new Publication[n];
+		for (int i = 0; i < n; i++)
+			pubs[i] = network.getPublication(i);
+		
+		// dictionaries of facet values
+		LinkedHashMap<Long, Author> authors = new LinkedHashMap<Long, Author>();
+		LinkedHashMap<Long, Journal> journals = new LinkedHashMap<Long, Journal>();
+		LinkedHashMap<Long, Conference> conferences = new LinkedHashMap<Long, Conference>();
+		LinkedHashMap<Long, Keyword> keywords = new LinkedHashMap<Long, Keyword>();
+		for (Publication pub : pubs) {
+			for (Author au : pub.getAuthor())
+				if (!authors.containsKey(au.getID()))
+					authors.put(au.getID(), au);
+			if (pub.getJournal() != null && !journals.containsKey(pub.getJournal().getID()))
+				journals.put(pub.getJournal().getID(), pub.getJournal());
+			if (pub.getConference() != null && !conferences.containsKey(pub.getConference().getID()))
+				conferences.put(pub.getConference().getID(), pub.getConference());
+			for (Keyword key : pub.getKeyword())
+				if (!keywords.containsKey(key.getID()))
+					keywords.put(key.getID(), key);
+		}
+		HashMap<Long, Integer> authorIDs = indexKeys(authors);
+		HashMap<Long, Integer> journalIDs = indexKeys(journals);
+		HashMap<Long, Integer> conferenceIDs = indexKeys(conferences);
+		HashMap<Long, Integer> keywordIDs = indexKeys(keywords);
+		
+		// written beside the file and moved over it, so a corpus that has the file mapped keeps the old one
+		File temp = new File(f.getPath() + ".tmp");
+		ChannelWriter out = new ChannelWriter(new FileOutputStream(temp).getChannel());
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(n);
+			out.writeInt(store.getEdgeCount());
+			
+			// the store file holds the adjacency section and the id column
+			out.writeStore(store);
+			
+			for (Publication pub : pubs)
+				out.writeInt(pub.getYear() == null ? NULL_VALUE : pub.getYear().intValue());
+			for (Publication pub : pubs)
+				out.writeInt(pub.getCitationCount() == null ? NULL_VALUE : pub.getCitationCount().intValue());
+			for (Publication pub : pubs)
+				out.writeInt(pub.getReferenceCount() == null ? NULL_VALUE : pub.getReferenceCount().intValue());
+			
+			for (Publication pub : pubs)
+				out.writeInt(pub.getJournal() == null ? -1 : journalIDs.get(pub.getJournal().getID()));
+			for (Publication pub : pubs)
+				out.writeInt(pub.getConference() == null ? -1 : conferenceIDs.get(pub.getConference().getID()));
+			
+			int offset = 0;
+			out.writeInt(0);
+			for (Publication pub : pubs) {
+				offset += pub.getAuthor().size();
+				out.writeInt(offset);
+			}
+			for (Publication pub : pubs)
+				for (Author au : pub.getAuthor())
+					out.writeInt(authorIDs.get(au.getID()));
+			
+			offset = 0;
+			out.writeInt(0);
+			for (Publication pub : pubs) {
+				offset += pub.getKeyword().size();
+				out.writeInt(offset);
+			}
+			for (Publication pub : pubs)
+				for (Keyword key : pub.getKeyword())
+					out.writeInt(keywordIDs.get(key.getID()));
+			
+			out.writeInt(authors.size());
+			for (Author au : authors.values())
+				writeAuthor(out, au);
+			out.writeInt(journals.size());
+			for (Journal jo : journals.values())
+				writeJournal(out, jo);
+			out.writeInt(conferences.size());
+			for (Conference co : conferences.values())
+				writeConference(out, co);
+			out.writeInt(keywords.size());
+			for (Keyword key : keywords.values())
+				writeKeyword(out, key);
+			
+			long[] recordPositions = new long[n];
+			for (int i = 0; i < n; i++) {
+				recordPositions[i] = out.position();
+				writeRecord(out, pubs[i]);
+			}
+			
+			long start = out.position();
+			for (long pos : recordPositions)
+				out.writeLong(pos);
+			out.writeLong(start);
+		}
+		finally {
+			out.close();
+		}
+		Files.move(temp.toPath(), f.toPath(), StandardCopyOption.REPLACE_EXISTING);
+	}
+	
+	public static DataSource.Network read(File f, DataSource.ProgressTask task) throws IOException {
+		ChannelReader in = new ChannelReader(new FileInputStream(f).getChannel(), f.length(), task);
+		try {
+			if (in.readInt() != MAGIC)
+				throw new IOException("Not a network file: " + f.getName());
+			int version = in.readInt();
+			if (version != VERSION)
+				throw new IOException("Unsupported network file version: " + version);
+			
+			int n = in.readInt();
+			int m = in.readInt();
+			
+			// the adjacency section is copied to a mapped store, not read into the heap
+			AdjacencyStore store = in.readStore(HEADER_SIZE, n, m);
+			long[] ids = in.readLongs(n);
+			int[] years = in.readInts(n);
+			int[] citationCounts = in.readInts(n);
+			int[] referenceCounts = in.readInts(n);
+			int[] journalRefs = in.readInts(n);
+			int[] conferenceRefs = in.readInts(n);
+			int[] authorOffsets = in.readInts(n + 1);
+			int[] authorRefs = in.readInts(authorOffsets[n]);
+			int[] keywordOffsets = in.readInts(n + 1);
+			int[] keywordRefs = in.readInts(keywordOffsets[n]);
+			
+			Author[] authors = new Author[in.readInt()];
+			for (int i = 0; i < authors.length; i++)
+				authors[i] = readAuthor(in);
+			Journal[] journals = new Journal[in.readInt()];
+			for (int i = 0; i < journals.length; i++)
+				journals[i] = readJournal(in);
+			Conference[] conferences = new Conference[in.readInt()];
+			for (int i = 0; i < conferences.length; i++)
+				conferences[i] = readConference(in);
+			Keyword[] keywords = new Keyword[in.readInt()];
+			for (int i = 0; i < keywords.length; i++)
+				keywords[i] = readKeyword(in);
+			
+			// assemble the publications
+			DataSource.Network network = new DataSource.Network();
+			for (int i = 0; i < n; i++) {
+				Publication pub = new Publication();
+				pub.setID(ids[i]);
+				pub.setYear(years[i] == NULL_VALUE ? null : Integer.valueOf(years[i]));
+				pub.setCitationCount(citationCounts[i] == NULL_VALUE ? null : Long.valueOf(citationCounts[i]));
+				pub.setReferenceCount(referenceCounts[i] == NULL_VALUE ? null : Long.valueOf(referenceCounts[i]));
+				pub.setJournal(journalRefs[i] == -1 ? null : journals[journalRefs[i]]);
+				pub.setConference(conferenceRefs[i] == -1 ? null : conferences[conferenceRefs[i]]);
+				for (int j = authorOffsets[i]; j < authorOffsets[i + 1]; j++)
+					pub.getAuthor().add(authors[authorRefs[j]]);
+				for (int j = keywordOffsets[i]; j < keywordOffsets[i + 1]; j++)
+					pub.getKeyword().add(keywords[keywordRefs[j]]);
+				
+				readRecord(in, pub);
+				network.addPublication(pub);
+			}
+			
+			network.graphEdges = store;
+			
+			return network;
+		}
+		finally {
+			in.close();
+		}
+	}
+	
+	static void writePublication(ChannelWriter out, Publication pub) throws IOException {
+		// one publication on its own, with its facet values in place of references to the dictionaries
+		out.writeLong(pub.getID());
+		out.writeInt(pub.getYear() == null ? NULL_VALUE : pub.getYear().intValue());
+		out.writeInt(pub.getCitationCount() == null ? NULL_VALUE : pub.getCitationCount().intValue());
+		out.writeInt(pub.getReferenceCount() == null ? NULL_VALUE : pub.getReferenceCount().intValue());
+		out.writeInt(pub.getAuthor().size());
+		for (Author au : pub.getAuthor())
+			writeAuthor(out, au);
+		out.writeInt(pub.getJournal() == null ? 0 : 1);
+		if (pub.getJournal() != null)
+			writeJournal(out, pub.getJournal());
+		out.writeInt(pub.getConference() == null ? 0 : 1);
+		if (pub.getConference() != null)
+			writeConference(out, pub.getConference());
+		out.writeInt(pub.getKeyword().size());
+		for (Keyword key : pub.getKeyword())
+			writeKeyword(out, key);
+		writeRecord(out, pub);
+	}
+	
+	static Publication readPublication(ChannelReader in) throws IOException {
+		Publication pub = new Publication();
+		pub.setID(in.readLong());
+		int year = in.readInt();
+		pub.setYear(year == NULL_VALUE ? null : Integer.valueOf(year));
+		int citationCount = in.readInt();
+		pub.setCitationCount(citationCount == NULL_VALUE ? null : Long.valueOf(citationCount));
+		int referenceCount = in.readInt();
+		pub.setReferenceCount(referenceCount == NULL_VALUE ? null : Long.valueOf(referenceCount));
+		for (int count = in.readInt(); count > 0; count--)
+			pub.getAuthor().add(readAuthor(in));
+		if (in.readInt() != 0)
+			pub.setJournal(readJournal(in));
+		if (in.readInt() != 0)
+			pub.setConference(readConference(in));
+		for (int count = in.readInt(); count > 0; count--)
+			pub.getKeyword().add(readKeyword(in));
+		readRecord(in, pub);
+		return pub;
+	}
+	
+	///////////////////////////////////////////////////////////////////////////////////////////////////////////
+	// private methods
+	private static <T> HashMap<Long, Integer> indexKeys(LinkedHashMap<Long, T> map) {
+		HashMap<Long, Integer> index = new HashMap<Long, Integer>(map.size() * 2);
+		for (Map.Entry<Long, T> entry : map.entrySet())
+			index.put(entry.getKey(), index.size());
+		return index;
+	}
+	
+	private static void writeRecord(ChannelWriter out, Publication pub) throws IOException {
+		out.writeString(pub.getTitle());
+		out.writeString(pub.getAbstract());
+		out.writeString(pub.getDOI());
+		out.writeString(pub.getType() == null ? null : pub.getType().name());
+		
+		List<String> urls = pub.getFullVersionURL();
+		out.writeInt(urls.size());
+		for (String url : urls)
+			out.writeString(url);
+	}
+	
+	private static void writeAuthor(ChannelWriter out, Author au) throws IOException {
+		out.writeLong(au.getID());
+		out.writeString(au.getFirstName());
+		out.writeString(au.getMiddleName());
+		out.writeString(au.getLastName());
+	}
+	
+	private static void writeJournal(ChannelWriter out, Journal jo) throws IOException {
+		out.writeLong(jo.getID());
+		out.writeString(jo.getFullName());
+		out.writeString(jo.getShortName());
+	}
+	
+	private static void writeConference(ChannelWriter out, Conference co) throws IOException {
+		out.writeLong(co.getID());
+		out.writeString(co.getFullName());
+		out.writeString(co.getShortName());
+	}
+	
+	private static void writeKeyword(ChannelWriter out, Keyword key) throws IOException {
+		out.writeLong(key.getID());
+		out.writeString(key.getName());
+	}
+	
+	private static Author readAuthor(ChannelReader in) throws IOException {
+		Author au = new Author();
+		au.setID(in.readLong());
+		au.setFirstName(in.readString());
+		au.setMiddleName(in.readString());
+		au.setLastName(in.readString());
+		return au;
+	}
+	
+	private static Journal readJournal(ChannelReader in) throws IOException {
+		Journal jo = new Journal();
+		jo.setID(in.readLong());
+		jo.setFullName(in.readString());
+		jo.setShortName(in.readString());
+		return jo;
+	}
+	
+	private static Conference readConference(ChannelReader in) throws IOException {
+		Conference co = new Conference();
+		co.setID(in.readLong());
+		co.setFullName(in.readString());
+		co.setShortName(in.readString());
+		return co;
+	}
+	
+	private static Keyword readKeyword(ChannelReader in) throws IOException {
+		Keyword key = new Keyword();
+		key.setID(in.readLong());
+		key.setName(in.readString());
+		return key;
+	}
+	
+	private static void readRecord(ChannelReader in, Publication pub) throws IOException {
+		pub.setTitle(in.readString());
+		pub.setAbstract(in.readString());
+		pub.setDOI(in.readString());
+		String type = in.readString();
+		pub.setType(type == null ? null : PublicationType.valueOf(type));
+		
+		int count = in.readInt();
+		for (int i = 0; i < count; i++)
+			pub.getFullVersionURL().add(in.readString());
+	}
+	
+	///////////////////////////////////////////////////////////////////////////////////////////////////////////
+	// inner classes
+	public static class Corpus {
+		// random access to the publications of a network file, for files too large to read into the heap.
+		// the adjacency section and the columns are mapped, the records and the dictionary entries are read
+		// when a publication is asked for, and publications are found by id through a sorted copy of the ids.
+		// reads are positional, so several threads can use a corpus at once
+		
+		private final FileChannel channel;
+		private final int n;
+		private final AdjacencyStore store;
+		private final IntBuffer years, citationCounts, referenceCounts, journalRefs, conferenceRefs;
+		private final IntBuffer authorOffsets, authorRefs, keywordOffsets, keywordRefs;
+		private final long[][] entryPositions = new long[4][];		// authors, journals, conferences, keywords
+		private final LongBuffer recordPositions;
+		private final long recordsEnd;
+		private final long[] sortedIDs;
+		private final int[] sortedRows;
+		private final File file;
+		private final Object fileKey;
+		private final long fileSize, fileModified;
+		
+		public Corpus(File f) throws IOException {
+			channel = new RandomAccessFile(f, "r").getChannel();
+			file = f;
+			BasicFileAttributes attributes = Files.readAttributes(f.toPath(), BasicFileAttributes.class);
+			fileKey = attributes.fileKey();
+			fileModified = attributes.lastModifiedTime().toMillis();
+			fileSize = channel.size();
+			ByteBuffer header = read(0, HEADER_SIZE);
+			if (header.getInt() != MAGIC)
+				throw new IOException("Not a network file: " + f.getName());
+			int version = header.getInt();
+			if (version != VERSION)
+				throw new IOException("Unsupported network file version: " + version);
+			n = header.getInt();
+			int m = header.getInt();
+			if (fileSize < HEADER_SIZE + AdjacencyStore.getFileSize(n, m) + 4L * 7 * n + 8)
+				throw new IOException("Network file cut short: " + f.getName());
+			
+			// the columns follow the adjacency section and its id column
+			store = AdjacencyStore.open(f, HEADER_SIZE, n, m);
+			long pos = HEADER_SIZE + AdjacencyStore.getFileSize(n, m);
+			years = mapInts(pos, n);
+			pos += 4L * n;
+			citationCounts = mapInts(pos, n);
+			pos += 4L * n;
+			referenceCounts = mapInts(pos, n);
+			pos += 4L * n;
+			journalRefs = mapInts(pos, n);
+			pos += 4L * n;
+			conferenceRefs = mapInts(pos, n);
+			pos += 4L * n;
+			authorOffsets = mapInts(pos, n + 1);
+			pos += 4L * (n + 1);
+			authorRefs = mapInts(pos, authorOffsets.get(n));
+			pos += 4L * authorOffsets.get(n);
+			keywordOffsets = mapInts(pos, n + 1);
+			pos += 4L * (n + 1);
+			keywordRefs = mapInts(pos, keywordOffsets.get(n));
+			pos += 4L * keywordOffsets.get(n);
+			
+			// one pass over the dictionaries for the positions of their entries
+			int[] stringCounts = {3, 2, 2, 1};
+			channel.position(pos);
+			ChannelReader in = new ChannelReader(channel, 0, null);
+			for (int d = 0; d < entryPositions.length; d++) {
+				long[] positions = new long[in.readInt() + 1];
+				for (int i = 0; i < positions.length - 1; i++) {
+					positions[i] = in.position();
+					in.readLong();
+					for (int s = 0; s < stringCounts[d]; s++)
+						in.skipString();
+				}
+				positions[positions.length - 1] = in.position();
+				entryPositions[d] = positions;
+			}
+			
+			recordsEnd = read(channel.size() - 8, 8).getLong();
+			recordPositions = channel.map(FileChannel.MapMode.READ_ONLY, recordsEnd, checkSize(8L * n)).asLongBuffer();
+			
+			// ids are unique, so the row of each id has a place of its own in the sorted ids
+			sortedIDs = new long[n];
+			for (int i = 0; i < n; i++)
+				sortedIDs[i] = store.getID(i);
+			Arrays.sort(sortedIDs);
+			sortedRows = new int[n];
+			for (int i = 0; i < n; i++)
+				sortedRows[Arrays.binarySearch(sortedIDs, store.getID(i))] = i;
+		}
+		
+		public int size() {
+			return n;
+		}
+		
+		public AdjacencyStore getStore() throws IOException {
+			checkUnchanged();
+			return store;
+		}
+		
+		public int getRow(long id) throws IOException {
+			// -1 if the publication is not in the corpus
+			checkUnchanged();
+			int i = Arrays.binarySearch(sortedIDs, id);
+			return i < 0 ? -1 : sortedRows[i];
+		}
+		
+		public Publication getPublication(int row) throws IOException {
+			checkUnchanged();
+			Publication pub = new Publication();
+			pub.setID(store.getID(row));
+			pub.setYear(years.get(row) == NULL_VALUE ? null : Integer.valueOf(years.get(row)));
+			pub.setCitationCount(citationCounts.get(row) == NULL_VALUE ? null : Long.valueOf(citationCounts.get(row)));
+			pub.setReferenceCount(referenceCounts.get(row) == NULL_VALUE ? null : Long.valueOf(referenceCounts.get(row)));
+			pub.setJournal(journalRefs.get(row) == -1 ? null : readJournal(readEntry(1, journalRefs.get(row))));
+			pub.setConference(conferenceRefs.get(row) == -1 ? null : 
+					readConference(readEntry(2, conferenceRefs.get(row))));
+			for (int j = authorOffsets.get(row); j < authorOffsets.get(row + 1); j++)
+				pub.getAuthor().add(readAuthor(readEntry(0, authorRefs.get(j))));
+			for (int j = keywordOffsets.get(row); j < keywordOffsets.get(row + 1); j++)
+				pub.getKeyword().add(readKeyword(readEntry(3, keywordRefs.get(j))));
+			
+			long start = recordPositions.get(row);
+			long end = row + 1 < n ? recordPositions.get(row + 1) : recordsEnd;
+			readRecord(new ChannelReader(read(start, (int) (end - start))), pub);
+			return pub;
+		}
+		
+		public void readTitles(TitleReceiver receiver) throws IOException {
+			// the titles of all the publications in row order, in one pass over the records
+			checkUnchanged();
+			ChannelReader in = new ChannelReader(channel, 0, null);
+			channel.position(n == 0 ? recordsEnd : recordPositions.get(0));
+			for (int row = 0; row < n; row++) {
+				receiver.receive(row, in.readString());
+				in.skipString();
+				in.skipString();
+				in.skipString();
+				for (int count = in.readInt(); count > 0; count--)
+					in.skipString();
+			}
+		}
+		
+		public void close() throws IOException {
+			channel.close();
+		}
+		
+		private void checkUnchanged() throws IOException {
+			// the file is mapped in place, a file cut short under the mapping would fault on the next read.
+			// a file replaced by another (as write does) leaves this one mapped and is fine
+			if (channel.size() != fileSize)
+				throw new IOException("Network file changed while open: " + file.getName());
+			if (fileKey != null) {
+				BasicFileAttributes attributes = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+				if (fileKey.equals(attributes.fileKey()) && attributes.lastModifiedTime().toMillis() != fileModified)
+					throw new IOException("Network file changed while open: " + file.getName());
+			}
+		}
+		
+		private ChannelReader readEntry(int dictionary, int i) throws IOException {
+			long[] positions = entryPositions[dictionary];
+			return new ChannelReader(read(positions[i], (int) (positions[i + 1] - positions[i])));
+		}
+		
+		private ByteBuffer read(long position, int length) throws IOException {
+			ByteBuffer bytes = ByteBuffer.allocate(length);
+			while (bytes.hasRemaining()) {
+				if (channel.read(bytes, position + bytes.position()) == -1)
+					throw new IOException("Unexpected end of network file");
+			}
+			bytes.flip();
+			return bytes;
+		}
+		
+		private IntBuffer mapInts(long position, int length) throws IOException {
+			return channel.map(FileChannel.MapMode.READ_ONLY, position, checkSize(4L * length)).asIntBuffer();
+		}
+		
+		private static long checkSize(long size) throws IOException {
+			if (size > Integer.MAX_VALUE)
+				throw new IOException("Network file column too large to map");
+			return size;
+		}
+	}
+	
+	public static interface TitleReceiver {
+		public void receive(int row, String title);
+	}
+	
+	static class ChannelWriter {
+		private final FileChannel channel;
+		private final ByteBuffer buffer = ByteBuffer.allocateDirect(bufferSize);
+		private long written;
+		
+		public ChannelWriter(FileChannel ch) throws IOException {
+			// writes on from the position of the channel
+			channel = ch;
+			written = ch.position();
+		}
+		
+		public long position() {
+			return written + buffer.position();
+		}
+		
+		public void writeInt(int v) throws IOException {
+			ensure(4);
+			buffer.putInt(v);
+		}
+		
+		public void writeLong(long v) throws IOException {
+			ensure(8);
+			buffer.putLong(v);
+		}
+		
+		public void writeIntAt(long position, int v) throws IOException {
+			// over an int written before, such as a length known only after what follows it
+			if (position >= written)
+				buffer.putInt((int) (position - written), v);
+			else {
+				ByteBuffer bytes = ByteBuffer.allocate(4);
+				bytes.putInt(v);
+				bytes.flip();
+				while (bytes.hasRemaining())
+					channel.write(bytes, position + bytes.position());
+			}
+		}
+		
+		public void writeBytes(byte[] bytes) throws IOException {
+			int i = 0;
+			while (i < bytes.length) {
+				ensure(1);
+				int count = Math.min(buffer.remaining(), bytes.length - i);
+				buffer.put(bytes, i, count);
+				i += count;
+			}
+		}
+		
+		public void writeStore(AdjacencyStore store) throws IOException {
+			flush();
+			written += store.transferTo(channel);
+		}
+		
+		public void writeString(String s) throws IOException {
+			if (s == null) {
+				writeInt(-1);
+				return;
+			}
+			byte[] bytes = s.getBytes(charset);
+			writeInt(bytes.length);
+			writeBytes(bytes);
+		}
+		
+		public void flush() throws IOException {
+			buffer.flip();
+			while (buffer.hasRemaining())
+				written += channel.write(buffer);
+			buffer.clear();
+		}
+		
+		public void close() throws IOException {
+			flush();
+			channel.close();
+		}
+		
+		private void ensure(int bytes) throws IOException {
+			if (buffer.remaining() < bytes)
+				flush();
+		}
+	}
+	
+	static class ChannelReader {
+		private final FileChannel channel;
+		private final ByteBuffer buffer;
+		private final long totalBytes;
+		private final DataSource.ProgressTask task;
+		private int progress;
+		
+		public ChannelReader(FileChannel ch, long total, DataSource.ProgressTask progressTask) {
+			channel = ch;
+			buffer = ByteBuffer.allocateDirect(bufferSize);
+			totalBytes = total;
+			task = progressTask;
+			buffer.limit(0);
+		}
+		
+		public ChannelReader(ByteBuffer bytes) {
+			// reads the bytes only, for a record or an entry read on its own
+			channel = null;
+			buffer = bytes;
+			totalBytes = 0;
+			task = null;
+		}
+		
+		public long position() throws IOException {
+			return channel.position() - buffer.remaining();
+		}
+		
+		public int readInt() throws IOException {
+			ensure(4);
+			return buffer.getInt();
+		}
+		
+		public long readLong() throws IOException {
+			ensure(8);
+			return buffer.getLong();
+		}
+		
+		public AdjacencyStore readStore(long position, int n, int m) throws IOException {
+			// copy the section, then skip it and read on with its id column
+			AdjacencyStore store = AdjacencyStore.copyOf(channel, position, n, m);
+			long skip = AdjacencyStore.getFileSize(n, m) - 8L * n;
+			if (skip <= buffer.remaining())
+				buffer.position(buffer.position() + (int) skip);
+			else {
+				channel.position(channel.position() + skip - buffer.remaining());
+				buffer.limit(0);
+			}
+			return store;
+		}
+		
+		public int[] readInts(int length) throws IOException {
+			int[] values = new int[length];
+			int i = 0;
+			while (i < length) {
+				ensure(4);
+				int count = Math.min(buffer.remaining() / 4, length - i);
+				buffer.asIntBuffer().get(values, i, count);
+				buffer.position(buffer.position() + count * 4);
+				i += count;
+			}
+			return values;
+		}
+		
+		public long[] readLongs(int length) throws IOException {
+			long[] values = new long[length];
+			int i = 0;
+			while (i < length) {
+				ensure(8);
+				int count = Math.min(buffer.remaining() / 8, length - i);
+				buffer.asLongBuffer().get(values, i, count);
+				buffer.position(buffer.position() + count * 8);
+				i += count;
+			}
+			return values;
+		}
+		
+		public String readString() throws IOException {
+			int length = readInt();
+			if (length == -1)
+				return null;
+			byte[] bytes = new byte[length];
+			int i = 0;
+			while (i < length) {
+				ensure(1);
+				int count = Math.min(buffer.remaining(), length - i);
+				buffer.get(bytes, i, count);
+				i += count;
+			}
+			return new String(bytes, charset);
+		}
+		
+		public void skipString() throws IOException {
+			skipBytes(readInt());
+		}
+		
+		public void skipBytes(long length) throws IOException {
+			while (length > 0) {
+				ensure(1);
+				int count = (int) Math.min(buffer.remaining(), length);
+				buffer.position(buffer.position() + count);
+				length -= count;
+			}
+		}
+		
+		public void close() throws IOException {
+			channel.close();
+		}
+		
+		private void ensure(int bytes) throws IOException {
+			if (buffer.remaining() >= bytes)
+				return;
+			if (channel == null)
+				throw new IOException("Unexpected end of network file record");
+			
+			buffer.compact();
+			while (buffer.position() < bytes) {
+				if (channel.read(buffer) == -1)
+					throw new IOException("Unexpected end of network file");
+			}
+			buffer.flip();
+			
+			if (task != null && totalBytes > 0) {
+				int p = (int) (Math.min(channel.position(), totalBytes) * 100 / totalBytes);
+				if (p != progress) {
+					progress = p;
+					task.advanceProgress(progress);
+				}
+			}
+		}
+	}
+}
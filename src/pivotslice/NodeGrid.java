@@ -0,0 +1,133 @@
+package pivotslice;
+
+import java.awt.Shape;
+import java.awt.geom.Rectangle2D;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import pivotslice.GraphCell.NodeVisual;
+
+public class NodeGrid {
+	
+	// uniform grid over the circles of the node visuals for hit testing. each node is listed in
+	// the buckets its circle overlaps, in the order the nodes were added, so the first node found
+	// in a bucket is the one a scan over all the cells would find.
+	// the circles move during animations, so the grid is rebuilt when they settle
+	
+	private NodeVisual[] nodes = new NodeVisual[0];
+	private int[] marks = new int[0];		// last query that visited the node
+	private int mark;
+	private double originX, originY, bucketSize = 1;
+	private int columns, rows;
+	private int[] bucketStart = new int[1];		// entries of bucket b are in [bucketStart[b], bucketStart[b + 1])
+	private int[] entries = new int[0];
+	
+	///////////////////////////////////////////////////////////////////////////////////////////////////////////
+	// public methods
+	public void build(List<GraphCell> cells) {
+		ArrayList<NodeVisual> list = new ArrayList<NodeVisual>();
+		for (GraphCell cell : cells)
+			list.addAll(cell.nodeVisuals);
+		nodes = list.toArray(new NodeVisual[list.size()]);
+		marks = new int[nodes.length];
+		mark = 0;
+		
+		// extent of the circles and their mean size
+		double minX = Double.POSITIVE_INFINITY, minY = Double.POSITIVE_INFINITY;
+		double maxX = Double.NEGATIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY;
+		double diameters = 0;
+		for (NodeVisual node : nodes) {
+			minX = Math.min(minX, node.circle.x);
+			minY = Math.min(minY, node.circle.y);
+			maxX = Math.max(maxX, node.circle.x + node.circle.width);
+			maxY = Math.max(maxY, node.circle.y + node.circle.height);
+			diameters += node.circle.width;
+		}
+		if (nodes.length == 0) {
+			columns = rows = 0;
+			bucketStart = new int[1];
+			entries = new int[0];
+			return;
+		}
+		
+		// about one node per bucket, buckets no smaller than a circle
+		double width = maxX - minX, height = maxY - minY;
+		bucketSize = Math.max(Math.sqrt(width * height / nodes.length), diameters / nodes.length);
+		bucketSize = Math.max(bucketSize, 1);
+		originX = minX;
+		originY = minY;
+		columns = (int) (width / bucketSize) + 1;
+		rows = (int) (height / bucketSize) + 1;
+		
+		// counts, then offsets, then the entries in node order
+		bucketStart = new int[columns * rows + 1];
+		for (NodeVisual node : nodes)
+			for (int r = getRow(node.circle.y); r <= getRow(node.circle.y + node.circle.height); r++)
+				for (int c = getColumn(node.circle.x); c <= getColumn(node.circle.x + node.circle.width); c++)
+					bucketStart[r * columns + c + 1]++;
+		for (int b = 0; b < columns * rows; b++)
+			bucketStart[b + 1] += bucketStart[b];
+		entries = new int[bucketStart[columns * rows]];
+		int[] next = Arrays.copyOf(bucketStart, columns * rows);
+		for (int i = 0; i < nodes.length; i++) {
+			NodeVisual node = nodes[i];
+			for (int r = getRow(node.circle.y); r <= getRow(node.circle.y + node.circle.height); r++)
+				for (int c = getColumn(node.circle.x); c <= getColumn(node.circle.x + node.circle.width); c++)
+					entries[next[r * columns + c]++] = i;
+		}
+	}
+	
+	public NodeVisual find(double x, double y, GraphCell cell) {
+		// the first node of the cell whose circle contains the point, null if none
+		if (columns == 0 || x < originX || y < originY)
+			return null;
+		int c = (int) ((x - originX) / bucketSize);
+		int r = (int) ((y - originY) / bucketSize);
+		if (c >= columns || r >= rows)
+			return null;
+		int b = r * columns + c;
+		for (int k = bucketStart[b]; k < bucketStart[b + 1]; k++) {
+			NodeVisual node = nodes[entries[k]];
+			if (node.cell == cell && node.circle.contains(x, y))
+				return node;
+		}
+		return null;
+	}
+	
+	public void findInShape(Shape area, Collection<NodeVisual> result) {
+		// the nodes whose render position is in the area
+		if (columns == 0)
+			return;
+		if (++mark == 0) {
+			Arrays.fill(marks, 0);
+			mark = 1;
+		}
+		Rectangle2D bounds = area.getBounds2D();
+		int fromRow = getRow(bounds.getMinY()), toRow = getRow(bounds.getMaxY());
+		int fromColumn = getColumn(bounds.getMinX()), toColumn = getColumn(bounds.getMaxX());
+		for (int r = fromRow; r <= toRow; r++)
+			for (int c = fromColumn; c <= toColumn; c++) {
+				int b = r * columns + c;
+				for (int k = bucketStart[b]; k < bucketStart[b + 1]; k++) {
+					int i = entries[k];
+					if (marks[i] == mark)
+						continue;
+					marks[i] = mark;
+					if (area.contains(nodes[i].xrender, nodes[i].yrender))
+						result.add(nodes[i]);
+				}
+			}
+	}
+	
+	///////////////////////////////////////////////////////////////////////////////////////////////////////////
+	// private methods
+	private int getColumn(double x) {
+		return Math.max(0, Math.min(columns - 1, (int) ((x - originX) / bucketSize)));
+	}
+	
+	private int getRow(double y) {
+		return Math.max(0, Math.min(rows - 1, (int) ((y - originY) / bucketSize)));
+	}
+}
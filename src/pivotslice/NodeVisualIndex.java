@@ -0,0 +1,125 @@
+package pivotslice;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import pivotslice.GraphCell.NodeVisual;
+
+public class NodeVisualIndex {
+	
+	// the node visuals showing each publication, across all graph cells, by publication ordinal.
+	// a cell shows a publication in at most one visual, so with the cell of each visual this is
+	// also the set of cells containing the publication.
+	// a publication is usually shown once, so the first visual is kept in an array and
+	// only the publications duplicated in several cells use the overflow map.
+	// cells update it when a pipeline job commits their rebuilds, so during the rebuild it has the previous visuals.
+	// ordinals are looked up in the version of the network the caller works from, not the latest published one.
+	// the index is changed and read on the event dispatch thread; pipeline jobs read snapshots of it
+	
+	private NodeVisual[] first = new NodeVisual[0];
+	private HashMap<Integer, ArrayList<NodeVisual>> others = new HashMap<Integer, ArrayList<NodeVisual>>();
+	private int numbering;		// of the network versions whose ordinals the index refers to
+	
+	///////////////////////////////////////////////////////////////////////////////////////////////////////////
+	// public methods
+	public synchronized void clear() {
+		first = new NodeVisual[0];
+		others.clear();
+		numbering = 0;
+	}
+	
+	public synchronized void replace(DataSource.Network network, Map<Long, NodeVisual> oldVisuals, 
+			Map<Long, NodeVisual> newVisuals) {
+		// the visuals of a cell before and after it is rebuilt from the network
+		if (numbering != network.getNumbering()) {
+			// renumbered network, every cell is rebuilt
+			clear();
+			numbering = network.getNumbering();
+		}
+		else if (oldVisuals != null) {
+			for (Map.Entry<Long, NodeVisual> entry : oldVisuals.entrySet())
+				remove(network.getOrdinal(entry.getKey()), entry.getValue());
+		}
+		for (Map.Entry<Long, NodeVisual> entry : newVisuals.entrySet())
+			add(network.getOrdinal(entry.getKey()), entry.getValue());
+	}
+	
+	public synchronized void removeAll(DataSource.Network network, Map<Long, NodeVisual> visuals) {
+		// the visuals of a cell that is removed
+		if (numbering != network.getNumbering())
+			return;
+		for (Map.Entry<Long, NodeVisual> entry : visuals.entrySet())
+			remove(network.getOrdinal(entry.getKey()), entry.getValue());
+	}
+	
+	public synchronized NodeVisualIndex snapshot() {
+		// a copy that is never changed, for a pipeline job to read while later jobs commit
+		NodeVisualIndex copy = new NodeVisualIndex();
+		copy.first = Arrays.copyOf(first, first.length);
+		for (Map.Entry<Integer, ArrayList<NodeVisual>> entry : others.entrySet())
+			copy.others.put(entry.getKey(), new ArrayList<NodeVisual>(entry.getValue()));
+		copy.numbering = numbering;
+		return copy;
+	}
+	
+	public int getOrdinal(DataSource.Network network, Long id) {
+		// ordinal of the publication in the network versions the index refers to, -1 if none or if the network
+		// was renumbered since; the visuals of a pruned or reloaded network are not previous visuals
+		if (numbering != network.getNumbering())
+			return -1;
+		return network.getOrdinal(id);
+	}
+	
+	public int getCount(int ordinal) {
+		if (ordinal < 0 || ordinal >= first.length || first[ordinal] == null)
+			return 0;
+		ArrayList<NodeVisual> list = others.get(ordinal);
+		return list == null ? 1 : list.size() + 1;
+	}
+	
+	public NodeVisual get(int ordinal, int i) {
+		return i == 0 ? first[ordinal] : others.get(ordinal).get(i - 1);
+	}
+	
+	///////////////////////////////////////////////////////////////////////////////////////////////////////////
+	// private methods
+	private void add(int ordinal, NodeVisual node) {
+		if (ordinal < 0)
+			return;
+		if (ordinal >= first.length)
+			first = Arrays.copyOf(first, Math.max(ordinal + 1, first.length * 2));
+		if (first[ordinal] == null) {
+			first[ordinal] = node;
+			return;
+		}
+		if (first[ordinal] == node)
+			return;
+		
+		ArrayList<NodeVisual> list = others.get(ordinal);
+		if (list == null) {
+			list = new ArrayList<NodeVisual>(2);
+			others.put(ordinal, list);
+		}
+		if (!list.contains(node))
+			list.add(node);
+	}
+	
+	private void remove(int ordinal, NodeVisual node) {
+		if (ordinal < 0 || ordinal >= first.length)
+			return;
+		ArrayList<NodeVisual> list = others.get(ordinal);
+		if (first[ordinal] == node) {
+			if (list == null)
+				first[ordinal] = null;
+			else {
+				first[ordinal] = list.remove(list.size() - 1);
+				if (list.isEmpty())
+					others.remove(ordinal);
+			}
+		}
+		else if (list != null && list.remove(node) && list.isEmpty())
+			others.remove(ordinal);
+	}
+}
@@ -61,6 +61,9 @@ public class NodesFilter extends JPanel implements ComponentListener, MouseListe
 	public RoundRectangle2D.Double filterVisual;
 	
 	private ArrayList<Constraint> constraints = new ArrayList<Constraint>();
+	private transient CompressedBitmap distributedSet;		// publications the graph cells were last built with
+	private transient FacetIndex distributedIndex;
+	private transient int distributedSize;
 	private JLabel resizeButton;
 	private JLabel closeButton;
 	private RotateLabel layoutLabel;
@@ -122,6 +125,29 @@ public class NodesFilter extends JPanel implements ComponentListener, MouseListe
 			mergeConstraint(new Constraint.ConstraintData(cons.getConstraintData()));
 	}
 	
+	public NodesFilter(FacetBrowser parent, FilterState state) {
+		this(parent);
+		for (Constraint.ConstraintData cdata : state.constraints)
+			replaceConstraint(new Constraint.ConstraintData(cdata));
+		setLayoutFacet(state.layoutFacetID);
+		isCollapsed = state.isCollapsed;
+	}
+	
+	public FilterState getState() {
+		return new FilterState(this);
+	}
+	
+	public boolean matches(FilterState state) {
+		if (layoutFacetID != state.layoutFacetID || isCollapsed != state.isCollapsed 
+				|| constraints.size() != state.constraints.length)
+			return false;
+		for (int i = 0; i < constraints.size(); i++) {
+			if (!constraints.get(i).getConstraintData().equals(state.constraints[i]))
+				return false;
+		}
+		return true;
+	}
+	
 	public boolean isEmptyFilter() {
 		boolean result = true;
 		for (Constraint cons : constraints) {
@@ -185,12 +211,51 @@ public class NodesFilter extends JPanel implements ComponentListener, MouseListe
 	}
 	
 	public boolean satisfyConstraint(Publication pub) {
+		// for a single publication; compile once with getPredicate to test many
+		return getPredicate().test(PivotSlice.dataSource.getNetwork().getOrdinal(pub));
+	}
+	
+	public PublicationPredicate getPredicate() {
+		// conjunction of the constraints, ordered by estimated selectivity
+		FacetIndex index = PivotSlice.dataSource.getFacetIndex();
+		ArrayList<PublicationPredicate> predicates = new ArrayList<PublicationPredicate>();
 		for (Constraint cons : constraints) {
-			if (!cons.satisfyConstraint(pub))
-				return false;
+			PublicationPredicate predicate = cons.getConstraintData().compile(index);
+			if (predicate != null)
+				predicates.add(predicate);
 		}
-		
-		return true;
+		return PublicationPredicate.and(predicates, index);
+	}
+	
+	public CompressedBitmap getPublicationSet() {
+		return getPredicate().select();
+	}
+	
+	public void setDistributedPublications(CompressedBitmap set) {
+		distributedSet = set;
+		distributedIndex = PivotSlice.dataSource.getFacetIndex();
+		distributedSize = distributedIndex.size();
+	}
+	
+	public void addDistributedPublications(FacetIndex previous, CompressedBitmap added) {
+		// the publications appended to the network since the previous index and put into the graph cells.
+		// if the cells were not built against the previous index, the set is unknown. the set is only read
+		// outside, so the added ordinals, all past the previous ones, are appended to it in place
+		FacetIndex index = PivotSlice.dataSource.getFacetIndex();
+		if (distributedSet != null && distributedIndex == previous && distributedSize == previous.size())
+			distributedSet.or(added);
+		else
+			distributedSet = null;
+		distributedIndex = index;
+		distributedSize = index.size();
+	}
+	
+	public CompressedBitmap getDistributedPublications() {
+		// null if the graph cells were built against other data
+		FacetIndex index = PivotSlice.dataSource.getFacetIndex();
+		if (distributedIndex != index || distributedSize != index.size())
+			return null;
+		return distributedSet;
 	}
 	
 	public void splitConstraint(Constraint cons) {
@@ -410,6 +475,21 @@ public class NodesFilter extends JPanel implements ComponentListener, MouseListe
 		
 	}
 	
+	public static class FilterState {
+		// the constraints and the layout of a filter as recorded in the history, not changed once made
+		private final Constraint.ConstraintData[] constraints;
+		private final int layoutFacetID;
+		private final boolean isCollapsed;
+		
+		private FilterState(NodesFilter filter) {
+			constraints = new Constraint.ConstraintData[filter.constraints.size()];
+			for (int i = 0; i < constraints.length; i++)
+				constraints[i] = new Constraint.ConstraintData(filter.constraints.get(i).getConstraintData());
+			layoutFacetID = filter.layoutFacetID;
+			isCollapsed = filter.isCollapsed;
+		}
+	}
+	
 	public static class TransferableNodesFilter implements Transferable {
 		private NodesFilter filter;
 		
@@ -0,0 +1,143 @@
+package pivotslice;
+
+import java.util.Arrays;
+
+public class NumericColumn {
+	
+	// values of a numerical facet by publication ordinal, with the ordinals sorted by value
+	// so that a range resolves by binary search. the values are either appended to a log that
+	// the columns of the later network versions share, each column reading up to its size,
+	// or the degrees in an edge store. the permutation is sorted on the first query; the column
+	// of the next version takes it over and merges only the values appended since
+	
+	public static final int NULL_VALUE = Integer.MIN_VALUE;
+	
+	private final AppendLog.Ints values;		// null for degrees
+	private final AdjacencyStore edges;
+	private final boolean citations;
+	private final int size;
+	private int[] sorted;		// ordinals ordered by value, then ordinal; guarded by this
+	private int sortedSize;
+	
+	///////////////////////////////////////////////////////////////////////////////////////////////////////////
+	// public methods
+	public NumericColumn(AppendLog.Ints values, int size, NumericColumn previous) {
+		// the first size values of the log, sorted from where the previous column of the log got
+		this.values = values;
+		edges = null;
+		citations = false;
+		this.size = size;
+		if (previous != null && previous.values == values) {
+			synchronized (previous) {
+				sorted = previous.sorted;
+				sortedSize = previous.sortedSize;
+			}
+		}
+	}
+	
+	public NumericColumn(AdjacencyStore edges, boolean citations, int size) {
+		// the citation or reference counts of the first size rows of the store
+		values = null;
+		this.edges = edges;
+		this.citations = citations;
+		this.size = size;
+	}
+	
+	public int get(int ordinal) {
+		if (values != null)
+			return values.get(ordinal);
+		if (ordinal >= edges.size())
+			return 0;
+		return citations ? edges.getCitationCount(ordinal) : edges.getReferenceCount(ordinal);
+	}
+	
+	public int size() {
+		return size;
+	}
+	
+	public synchronized CompressedBitmap range(int from, int to) {
+		// ordinals with from <= value <= to
+		sort();
+		int lo = lowerBound(from);
+		int hi = upperBound(to);
+		
+		CompressedBitmap result = new CompressedBitmap();
+		if (lo >= hi)
+			return result;
+		int[] ordinals = Arrays.copyOfRange(sorted, lo, hi);
+		Arrays.sort(ordinals);
+		for (int ordinal : ordinals)
+			result.add(ordinal);
+		return result;
+	}
+	
+	public synchronized int count(int from, int to) {
+		// number of ordinals in the range, without building it
+		sort();
+		return Math.max(upperBound(to) - lowerBound(from), 0);
+	}
+	
+	public synchronized int estimateCount(int from, int to) {
+		// the count once the column was sorted for a query, else an upper bound that does not sort it
+		if (sortedSize != size)
+			return size;
+		return Math.max(upperBound(to) - lowerBound(from), 0);
+	}
+	
+	///////////////////////////////////////////////////////////////////////////////////////////////////////////
+	// private methods
+	private int upperBound(int value) {
+		return value == Integer.MAX_VALUE ? size : lowerBound(value + 1);
+	}
+	
+	private int lowerBound(int value) {
+		// first position in the permutation whose value is not less than value
+		int lo = 0, hi = size;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (get(sorted[mid]) < value)
+				lo = mid + 1;
+			else
+				hi = mid;
+		}
+		return lo;
+	}
+	
+	private void sort() {
+		if (sorted != null && sortedSize == size)
+			return;
+		int head = sorted == null ? 0 : sortedSize;
+		
+		// sort the new tail as (value, ordinal) pairs packed in longs
+		int tail = size - head;
+		long[] keys = new long[tail];
+		for (int i = 0; i < tail; i++) {
+			int ordinal = head + i;
+			keys[i] = ((long) get(ordinal) << 32) | ordinal;
+		}
+		Arrays.sort(keys);
+		
+		// merge it with the sorted head
+		int[] merged = new int[size];
+		int i = 0, j = 0, k = 0;
+		while (i < head || j < tail) {
+			if (j == tail)
+				merged[k++] = sorted[i++];
+			else if (i == head)
+				merged[k++] = (int) keys[j++];
+			else {
+				int a = sorted[i];
+				int b = (int) keys[j];
+				int va = get(a), vb = get(b);
+				if (va < vb || (va == vb && a < b))
+					merged[k++] = sorted[i++];
+				else {
+					merged[k++] = b;
+					j++;
+				}
+			}
+		}
+		sorted = merged;
+		sortedSize = size;
+	}
+}
@@ -3,6 +3,7 @@ package pivotslice;
 import java.awt.BorderLayout;
 import java.awt.Dimension;
 import java.awt.FlowLayout;
+import java.awt.GridLayout;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.awt.event.ItemEvent;
@@ -10,8 +11,7 @@ import java.awt.event.ItemListener;
 import java.beans.PropertyChangeEvent;
 import java.beans.PropertyChangeListener;
 import java.io.File;
-import java.util.LinkedList;
-import java.util.List;
+import java.io.IOException;
 import java.util.Set;
 
 import javax.swing.ImageIcon;
@@ -21,18 +21,15 @@ import javax.swing.JLabel;
 import javax.swing.JOptionPane;
 import javax.swing.JPanel;
 import javax.swing.JProgressBar;
+import javax.swing.JSpinner;
 import javax.swing.JToggleButton;
-import javax.swing.SwingUtilities;
+import javax.swing.SpinnerNumberModel;
 import javax.swing.SwingWorker;
 
-
-import org.datacontract.schemas._2004._07.libra_service.ReferenceRelationship;
-
 import pivotslice.GraphCell.NodeVisual;
 
 import com.microsoft.research.PagedList;
 import com.microsoft.research.Publication;
-import com.microsoft.research.query.AcademicSearchQuery;
 
 public class OperationPanel extends JPanel {
 
@@ -42,6 +39,8 @@ public class OperationPanel extends JPanel {
 	private JButton citeButton = new JButton(new ImageIcon(PivotSlice.class.getResource("/images/cite-icon.png")));
 	private JButton cutButton = new JButton(new ImageIcon(PivotSlice.class.getResource("/images/cut-icon.png")));
 	private JButton layoutButton = new JButton(new ImageIcon(PivotSlice.class.getResource("/images/layout-icon.png")));
+	private JButton crawlButton = new JButton(new ImageIcon(PivotSlice.class.getResource("/images/network-icon.png")));
+	private JToggleButton pauseButton = new JToggleButton("||");
 	
 	private JToggleButton viewButton = new JToggleButton(new ImageIcon(PivotSlice.class.getResource("/images/square-icon.png")));
 	private JToggleButton xAggrButton = new JToggleButton(new ImageIcon(PivotSlice.class.getResource("/images/resize-icon2.png")));
@@ -51,6 +50,7 @@ public class OperationPanel extends JPanel {
 	private JComboBox edgeComboBox = new JComboBox(comboStr);
 	
 	private JProgressBar progressBar = new JProgressBar(0, 100);
+	private CrawlScheduler crawl;		// the crawl running, if any
 	
 	public OperationPanel(PivotSlice frame) {
 		rootFrame = frame;
@@ -117,6 +117,32 @@ public class OperationPanel extends JPanel {
 			
 		});
 		
+		crawlButton.setPreferredSize(dim);
+		crawlButton.setToolTipText("Crawl Citation Graph");
+		crawlButton.addActionListener(new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent arg0) {
+				crawlPublications();
+				
+				rootFrame.logger.logAction("oppanel-crawl");
+			}
+		});
+		
+		pauseButton.setPreferredSize(dim);
+		pauseButton.setToolTipText("Pause Crawl");
+		pauseButton.setEnabled(false);
+		pauseButton.addItemListener(new ItemListener() {
+			@Override
+			public void itemStateChanged(ItemEvent arg0) {
+				if (crawl == null)
+					return;
+				crawl.setPaused(pauseButton.isSelected());
+				pauseButton.setToolTipText(pauseButton.isSelected() ? "Resume Crawl" : "Pause Crawl");
+				
+				rootFrame.logger.logAction(pauseButton.isSelected() ? "oppanel-pause crawl" : "oppanel-resume crawl");
+			}
+		});
+		
 		layoutButton.setPreferredSize(dim);
 		layoutButton.setToolTipText("Re-Layout");
 		layoutButton.addActionListener(new ActionListener(){
@@ -194,6 +220,8 @@ public class OperationPanel extends JPanel {
 		JPanel north = new JPanel(new FlowLayout(FlowLayout.LEADING));
 		north.add(citeButton);
 		north.add(refButton);
+		north.add(crawlButton);
+		north.add(pauseButton);
 		north.add(cutButton);
 		north.add(viewButton);
 		north.add(xAggrButton);
@@ -223,6 +251,77 @@ public class OperationPanel extends JPanel {
 		task.execute();	
 	}
 	
+	public void crawlPublications() {
+		Set<Publication> pubs = rootFrame.graphCanvas.getSelectedPublications();
+		if (pubs == null || pubs.isEmpty()) {
+			rootFrame.showInfoMessage("No publication is selected.");
+			return;
+		}
+		
+		// the settings of the crawl
+		JComboBox<String> directionBox = new JComboBox<String>(new String[]{"citations", "references", "both"});
+		JComboBox<String> priorityBox = new JComboBox<String>(new String[]{"citation count", "links to the network"});
+		JSpinner hopsSpinner = new JSpinner(new SpinnerNumberModel(CrawlScheduler.defaultHops, 1, 10, 1));
+		JSpinner budgetSpinner = new JSpinner(new SpinnerNumberModel(CrawlScheduler.defaultBudget, 1, 1000000, 1000));
+		JSpinner hopBudgetSpinner = new JSpinner(new SpinnerNumberModel(CrawlScheduler.defaultBudget, 1, 1000000, 1000));
+		JSpinner limitSpinner = new JSpinner(new SpinnerNumberModel(CrawlScheduler.defaultResultLimit, 
+				FetchEngine.pageSize, 100000, FetchEngine.pageSize));
+		JPanel panel = new JPanel(new GridLayout(6, 2, 5, 5));
+		panel.add(new JLabel("Follow"));
+		panel.add(directionBox);
+		panel.add(new JLabel("Hops"));
+		panel.add(hopsSpinner);
+		panel.add(new JLabel("Publications to add"));
+		panel.add(budgetSpinner);
+		panel.add(new JLabel("Publications to add per hop"));
+		panel.add(hopBudgetSpinner);
+		panel.add(new JLabel("Results per publication"));
+		panel.add(limitSpinner);
+		panel.add(new JLabel("Add first by"));
+		panel.add(priorityBox);
+		int result = JOptionPane.showConfirmDialog(rootFrame, panel, "Crawl Citation Graph", 
+				JOptionPane.OK_CANCEL_OPTION, JOptionPane.PLAIN_MESSAGE);
+		if (result != JOptionPane.OK_OPTION)
+			return;
+		
+		int direction = directionBox.getSelectedIndex();
+		crawl = new CrawlScheduler(PivotSlice.dataSource, pubs, direction != 1, direction != 0);
+		crawl.setHops((Integer) hopsSpinner.getValue());
+		crawl.setBudget((Integer) budgetSpinner.getValue());
+		crawl.setHopBudget((Integer) hopBudgetSpinner.getValue());
+		crawl.setResultLimit((Integer) limitSpinner.getValue());
+		crawl.setPriority(priorityBox.getSelectedIndex() == 0 ? CrawlScheduler.Priority.CITATIONS 
+				: CrawlScheduler.Priority.LINKS);
+		
+		citeButton.setEnabled(false);
+		refButton.setEnabled(false);
+		crawlButton.setEnabled(false);
+		pauseButton.setEnabled(true);
+		final CrawlTask task = new CrawlTask(crawl);
+		task.addPropertyChangeListener(new PropertyChangeListener() {
+			@Override
+			public void propertyChange(PropertyChangeEvent evt) {
+				if("progress".equals(evt.getPropertyName())) {
+					rootFrame.opPanel.setProgressValue(task.getProgress());
+				}						
+			}
+		});
+		task.execute();
+	}
+	
+	public void loadData(File file) {
+		final LoadTask task = new LoadTask(file);
+		task.addPropertyChangeListener(new PropertyChangeListener() {
+			@Override
+			public void propertyChange(PropertyChangeEvent evt) {
+				if("progress".equals(evt.getPropertyName())) {
+					rootFrame.opPanel.setProgressValue(task.getProgress());
+				}						
+			}
+		});
+		task.execute();
+	}
+	
 	public void updateButtonStates() {
 		GraphCell cell = rootFrame.graphCanvas.getSelectedCell();
 		if (cell != null) {
@@ -251,28 +350,63 @@ public class OperationPanel extends JPanel {
 		}
 		
 		// data source
-		if (rootFrame.graphCanvas.getSelectedNodes().isEmpty()) 
-			PivotSlice.dataSource.pruneNetwork(cell.publications);	
-		else 
-			PivotSlice.dataSource.pruneNetwork(rootFrame.graphCanvas.getSelectedPublications());
+		try {
+			if (rootFrame.graphCanvas.getSelectedNodes().isEmpty()) 
+				PivotSlice.dataSource.pruneNetwork(cell.publications);	
+			else 
+				PivotSlice.dataSource.pruneNetwork(rootFrame.graphCanvas.getSelectedPublications());
+		} catch (IOException e) {
+			e.printStackTrace();
+			rootFrame.showErrorMessage("Prune error:\n" + e.toString());
+			return;
+		}
 		
 		// GUI
 		rootFrame.graphCanvas.initialized = false;
 		rootFrame.facetBrowserX.initNodesFilter();					
 		rootFrame.facetBrowserY.initNodesFilter();
+		// the state is recorded once the canvas is drawn
 		rootFrame.graphCanvas.initGraphCanvas();
-	
-		SwingUtilities.invokeLater(new Runnable(){
-			@Override
-			public void run() {	
-				rootFrame.historyPanel.addState();	
-			}});
 		
 		//if (rootFrame.graphCanvas.getSelectedNode() != null) {
 		//	rootFrame.graphCanvas.setSelectedPublication(rootFrame.graphCanvas.getSelectedNode().pubs.get(0).getID());
 		//}
 	}
 	
+	public class LoadTask extends SwingWorker<Void, Void> implements DataSource.ProgressTask {
+		
+		private File file;
+		
+		public LoadTask(File f) {
+			file = f;
+		}
+		
+		@Override
+		public void advanceProgress(int progress) {
+			this.setProgress(progress);
+		}
+		
+		@Override
+		public void done() {
+			try {
+				get();
+			} catch (Exception e) {
+				e.printStackTrace();
+				rootFrame.showErrorMessage("Open Error:\n" + e.toString());
+			}
+			
+			this.setProgress(100);
+			rootFrame.graphCanvas.initGraphCanvas();
+		}
+		
+		@Override
+		protected Void doInBackground() throws Exception {
+			this.setProgress(0);
+			PivotSlice.dataSource.initNetwork(file, this);
+			return null;
+		}
+	}
+	
 	public class MSSearchTask extends SwingWorker<Void, Void> implements DataSource.ProgressTask {
 		
 		private Set<Publication> publication;
@@ -292,8 +426,7 @@ public class OperationPanel extends JPanel {
         @Override
         public void done() {
         	this.setProgress(100);
-        	PivotSlice.dataSource.updateAttributeMaps();
-        	rootFrame.graphCanvas.reDistributeNodesToAllGraphCells();
+        	rootFrame.graphCanvas.finishIngest();
 			citeButton.setEnabled(true);
 			refButton.setEnabled(true);
         }
@@ -303,30 +436,9 @@ public class OperationPanel extends JPanel {
 			citeButton.setEnabled(false);
 			refButton.setEnabled(false);
 			
-			List<Publication> response = new LinkedList<Publication>();
-			
 			try {
 				this.setProgress(1);
-				for (Publication pub : publication) {
-					AcademicSearchQuery<Publication> query = null;
-					if (isCitation) {
-						query = PivotSlice.dataSource.getNewQuery().withPublicationId(pub.getID().intValue())
-							.withReferenceRelationship(ReferenceRelationship.CITATION)
-							.withStartIndex(1).withEndIndex(100);
-					}
-					else {
-						query = PivotSlice.dataSource.getNewQuery().withPublicationId(pub.getID().intValue())
-							.withReferenceRelationship(ReferenceRelationship.REFERENCE)
-							.withStartIndex(1).withEndIndex(100);
-					}
-					
-					response.addAll(PivotSlice.dataSource.executeQuery(query));
-					this.setProgress(this.getProgress() + 98 / publication.size());
-				}
-	
-				this.setProgress(1);
-				if (response.size() > 0)
-					PivotSlice.dataSource.addToNetwork(response, this);
+				PivotSlice.dataSource.expand(publication, isCitation, rootFrame.graphCanvas, this);
 			}
 			catch (Exception e) {
 				e.printStackTrace();
@@ -336,4 +448,45 @@ public class OperationPanel extends JPanel {
 			return null;
 		}
 	}
+	
+	public class CrawlTask extends SwingWorker<Void, Void> implements DataSource.ProgressTask {
+		
+		private CrawlScheduler scheduler;
+		
+		public CrawlTask(CrawlScheduler crawl) {
+			scheduler = crawl;
+		}
+		
+		@Override
+		public void advanceProgress(int progress) {
+			this.setProgress(progress);
+		}
+		
+		@Override
+		public void done() {
+			this.setProgress(100);
+			rootFrame.graphCanvas.finishIngest();
+			crawl = null;
+			pauseButton.setSelected(false);
+			pauseButton.setToolTipText("Pause Crawl");
+			pauseButton.setEnabled(false);
+			citeButton.setEnabled(true);
+			refButton.setEnabled(true);
+			crawlButton.setEnabled(true);
+		}
+		
+		@Override
+		protected Void doInBackground() throws Exception {
+			try {
+				this.setProgress(1);
+				scheduler.run(rootFrame.graphCanvas, this);
+			}
+			catch (Exception e) {
+				e.printStackTrace();
+				rootFrame.showErrorMessage("Crawl error:\n" + e.toString());
+			}
+			
+			return null;
+		}
+	}
 }
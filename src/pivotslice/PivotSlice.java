@@ -167,19 +167,13 @@ public class PivotSlice extends JFrame {
 	
 	public void renderDefaultDataset(String defaultDataPath) {
 		if (defaultDataPath != null) {
-		    // load initial dataset
-			try {
-				dataSource.initNetwork(new File(defaultDataPath));
-			} catch (Exception e) {
-				showErrorMessage("IO error:\n" + e.toString());
-				e.printStackTrace();
-			}
+		    // load initial dataset in the background, and render it when done
+			opPanel.loadData(new File(defaultDataPath));
+		}
+		else {
+			// ready to render the default dataset
+			graphCanvas.initGraphCanvas();
 		}
-		// ready to render the default dataset
-		graphCanvas.initGraphCanvas();
-		
-		if (defaultDataPath != null)
-			historyPanel.addState();
 	}
 	
 	public void showErrorMessage(String msg) {
@@ -195,6 +189,12 @@ public class PivotSlice extends JFrame {
 		return result;
 	}
 	
+	private static void exitWithError(String msg) {
+		// before the frame is shown
+		JOptionPane.showMessageDialog(null, msg, appTitle, JOptionPane.ERROR_MESSAGE);
+		System.exit(1);
+	}
+	
 	public static BufferedImage getScreenShot(Component component) {
 		BufferedImage image = new BufferedImage(component.getWidth(),
 				component.getHeight(), BufferedImage.TYPE_INT_ARGB);
@@ -269,17 +269,43 @@ public class PivotSlice extends JFrame {
 	///////////////////////////////////////////////////////////////////////////////////////////////////////////
 	// the main method
 	public static void main(String[] args) {
-		if (args.length == 0) {
-			showFrame(null, false);
-		}
-		else if (args.length == 1) {
-			if (args[0].equals("-l"))
-				showFrame(null, true);
+		// [-l] [-c corpus] [-q cache [-o]] [data file]: logging, the network file to search and expand from 
+		// instead of the web service, the file caching the answers of queries and replaying them offline
+		boolean logging = false, offline = false;
+		String filename = null, corpus = null, cache = null;
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("-l"))
+				logging = true;
+			else if (args[i].equals("-o"))
+				offline = true;
+			else if (args[i].equals("-c") && i + 1 < args.length)
+				corpus = args[++i];
+			else if (args[i].equals("-q") && i + 1 < args.length)
+				cache = args[++i];
 			else
-				showFrame(args[0], false);
+				filename = args[i];
 		}
-		else if (args.length == 2 && args[0].equals("-l")) {
-			showFrame(args[1], true);
+		
+		// the backend asked for or none, rather than the web service in its place
+		if (offline && cache == null)
+			exitWithError("Offline mode (-o) replays a query cache, give one with -q.");
+		try {
+			if (corpus != null)
+				dataSource.setBackend(new LocalBackend(new File(corpus)));
+		} catch (Exception e) {
+			e.printStackTrace();
+			exitWithError("Opening corpus error:\n" + e.toString());
+		}
+		try {
+			if (cache != null) {
+				CachingBackend backend = new CachingBackend(dataSource.getBackend(), new QueryCache(new File(cache)));
+				backend.setOffline(offline);
+				dataSource.setBackend(backend);
+			}
+		} catch (Exception e) {
+			e.printStackTrace();
+			exitWithError("Opening query cache error:\n" + e.toString());
 		}
+		showFrame(filename, logging);
 	}
 }
@@ -0,0 +1,20 @@
+package pivotslice;
+
+import java.util.List;
+
+import com.microsoft.research.Publication;
+
+public interface PublicationBackend {
+	
+	// where publications are searched and expanded. the fetch engine calls the methods concurrently.
+	// results are ranges from the start-th to the end-th, both counted from 1
+	
+	// publications matching the text
+	public List<Publication> search(String text, int start, int end) throws Exception;
+	
+	// publications citing pub
+	public List<Publication> getCitations(Publication pub, int start, int end) throws Exception;
+	
+	// publications cited by pub
+	public List<Publication> getReferences(Publication pub, int start, int end) throws Exception;
+}
@@ -0,0 +1,203 @@
+package pivotslice;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+public abstract class PublicationPredicate {
+	
+	// a constraint compiled against a FacetIndex: tests publications by ordinal and knows roughly
+	// how many it accepts. predicates are immutable; they read the index, which only grows, so a
+	// predicate stays valid for the publications indexed when it was compiled
+	
+	///////////////////////////////////////////////////////////////////////////////////////////////////////////
+	// public methods
+	public abstract boolean test(int ordinal);
+	
+	// upper bound of the number of publications accepted
+	public abstract int estimateCount();
+	
+	// ordinals of the publications accepted, a new bitmap the caller may modify
+	public abstract CompressedBitmap select();
+	
+	public static PublicationPredicate and(List<PublicationPredicate> predicates, FacetIndex index) {
+		if (predicates.isEmpty())
+			return new All(index);
+		if (predicates.size() == 1)
+			return predicates.get(0);
+		return new Conjunction(predicates);
+	}
+	
+	///////////////////////////////////////////////////////////////////////////////////////////////////////////
+	// inner classes
+	public static final class All extends PublicationPredicate {
+		private final FacetIndex index;
+		private final int size;
+		
+		public All(FacetIndex index) {
+			this.index = index;
+			size = index.size();
+		}
+		
+		@Override
+		public boolean test(int ordinal) {
+			return ordinal >= 0;
+		}
+		
+		@Override
+		public int estimateCount() {
+			return size;
+		}
+		
+		@Override
+		public CompressedBitmap select() {
+			return index.getAllPublications();
+		}
+	}
+	
+	public static final class Categorical extends PublicationPredicate {
+		// publications having any of the values, the values as a set of value ordinals
+		private final FacetIndex index;
+		private final FacetIndex.ValueLists lists;
+		private final int facetID;
+		private final int size;
+		private final BitSet values = new BitSet();
+		private final int estimate;
+		
+		public Categorical(FacetIndex index, int facetID, List<Long> valueIDs) {
+			this.index = index;
+			this.facetID = facetID;
+			lists = index.getValueLists(facetID);
+			size = index.size();
+			
+			int count = 0;
+			for (Long id : valueIDs) {
+				int value = index.getValueOrdinal(facetID, id);
+				if (value != -1 && !values.get(value)) {
+					values.set(value);
+					CompressedBitmap postings = index.getPostings(facetID, value);
+					if (postings != null)
+						count += postings.cardinality();
+				}
+			}
+			// any of the publications indexed after the postings were folded may have the values
+			estimate = Math.min(count + size - index.getFoldSize(), size);
+		}
+		
+		@Override
+		public boolean test(int ordinal) {
+			if (ordinal < 0 || ordinal >= size)
+				return false;
+			for (int k = lists.getStart(ordinal); k < lists.getEnd(ordinal); k++)
+				if (values.get(lists.getValue(k)))
+					return true;
+			return false;
+		}
+		
+		@Override
+		public int estimateCount() {
+			return estimate;
+		}
+		
+		@Override
+		public CompressedBitmap select() {
+			// union of the postings of the values, then the publications indexed after they were folded
+			CompressedBitmap result = new CompressedBitmap();
+			for (int value = values.nextSetBit(0); value >= 0; value = values.nextSetBit(value + 1)) {
+				CompressedBitmap postings = index.getPostings(facetID, value);
+				if (postings != null)
+					result.or(postings);
+			}
+			for (int ordinal = index.getFoldSize(); ordinal < size; ordinal++)
+				if (test(ordinal))
+					result.add(ordinal);
+			return result;
+		}
+	}
+	
+	public static final class Range extends PublicationPredicate {
+		// publications with fromValue <= value <= toValue in a numerical column
+		private final NumericColumn column;
+		private final int size;
+		private final int fromValue, toValue;
+		private final int estimate;
+		
+		public Range(FacetIndex index, int facetID, int fromValue, int toValue) {
+			column = index.getNumericColumn(facetID);
+			size = index.size();
+			this.fromValue = fromValue;
+			this.toValue = toValue;
+			estimate = column.estimateCount(fromValue, toValue);
+		}
+		
+		@Override
+		public boolean test(int ordinal) {
+			if (ordinal < 0 || ordinal >= size)
+				return false;
+			int value = column.get(ordinal);
+			return fromValue <= value && value <= toValue;
+		}
+		
+		@Override
+		public int estimateCount() {
+			return estimate;
+		}
+		
+		@Override
+		public CompressedBitmap select() {
+			// binary search in the sorted column
+			return column.range(fromValue, toValue);
+		}
+	}
+	
+	public static final class Conjunction extends PublicationPredicate {
+		// all of the predicates, the most selective first so that it rejects first
+		private final PublicationPredicate[] predicates;
+		
+		public Conjunction(List<PublicationPredicate> list) {
+			ArrayList<PublicationPredicate> sorted = new ArrayList<PublicationPredicate>(list);
+			Collections.sort(sorted, new Comparator<PublicationPredicate>() {
+				@Override
+				public int compare(PublicationPredicate p1, PublicationPredicate p2) {
+					return p1.estimateCount() - p2.estimateCount();
+				}
+			});
+			predicates = sorted.toArray(new PublicationPredicate[sorted.size()]);
+		}
+		
+		@Override
+		public boolean test(int ordinal) {
+			for (PublicationPredicate p : predicates)
+				if (!p.test(ordinal))
+					return false;
+			return true;
+		}
+		
+		@Override
+		public int estimateCount() {
+			return predicates[0].estimateCount();
+		}
+		
+		@Override
+		public CompressedBitmap select() {
+			// build the set of the most selective predicate, then for each next one either probe
+			// the remaining candidates or intersect with its set, whichever is smaller
+			CompressedBitmap result = predicates[0].select();
+			for (int i = 1; i < predicates.length && !result.isEmpty(); i++) {
+				PublicationPredicate p = predicates[i];
+				if (result.cardinality() < p.estimateCount()) {
+					CompressedBitmap kept = new CompressedBitmap();
+					for (int ordinal = result.nextSetBit(0); ordinal >= 0; ordinal = result.nextSetBit(ordinal + 1))
+						if (p.test(ordinal))
+							kept.add(ordinal);
+					result = kept;
+				}
+				else
+					result.and(p.select());
+			}
+			return result;
+		}
+	}
+}
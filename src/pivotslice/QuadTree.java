@@ -0,0 +1,170 @@
+package pivotslice;
+
+import java.util.Arrays;
+
+public class QuadTree {
+	
+	// Barnes-Hut quadtree for the repulsive forces of the force directed layout.
+	// each square keeps the number of points in it and their center of mass; a square far
+	// enough from the point, size / distance < theta, acts as a single point of that mass.
+	// points closer than the maximum depth are merged into one leaf
+	
+	private static final int maxDepth = 24;
+	
+	// fields of a square, interleaved in one array
+	private static final int ORIGIN_X = 0, ORIGIN_Y = 1, SIZE = 2, MASS = 3, MASS_X = 4, MASS_Y = 5;
+	private static final int STRIDE = 6;
+	
+	private double[] squares = new double[STRIDE * 64];
+	private int[] firstChild = new int[64];		// the four children are consecutive, 0 for a leaf
+	private int[] depth = new int[64];
+	private int count;
+	
+	///////////////////////////////////////////////////////////////////////////////////////////////////////////
+	// public methods
+	public QuadTree(double[] xs, double[] ys, int n) {
+		double minX = Double.POSITIVE_INFINITY, minY = Double.POSITIVE_INFINITY;
+		double maxX = Double.NEGATIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY;
+		for (int i = 0; i < n; i++) {
+			minX = Math.min(minX, xs[i]);
+			minY = Math.min(minY, ys[i]);
+			maxX = Math.max(maxX, xs[i]);
+			maxY = Math.max(maxY, ys[i]);
+		}
+		if (n == 0)
+			minX = minY = maxX = maxY = 0;
+		newSquare(minX, minY, Math.max(Math.max(maxX - minX, maxY - minY), 1e-9), 0);
+		for (int i = 0; i < n; i++)
+			add(xs[i], ys[i]);
+	}
+	
+	public void getRepulsion(double[] xs, double[] ys, int start, int end, double k2, double theta, double epsilon, 
+			double[] fxs, double[] fys) {
+		// for each point in [start, end), the sum of k2 * m * d / |d|^2 over the squares, d from the
+		// square's center of mass to the point. the tree is only read, so ranges can run concurrently
+		double[] sq = squares;
+		double theta2 = theta * theta;
+		double epsilon2 = epsilon * epsilon;
+		int[] stack = new int[3 * maxDepth + 4];
+		for (int i = start; i < end; i++) {
+			double x = xs[i], y = ys[i];
+			double fx = 0, fy = 0;
+			int top = 0;
+			stack[top++] = 0;
+			while (top > 0) {
+				int s = stack[--top];
+				int base = s * STRIDE;
+				double m = sq[base + MASS];
+				if (m == 0)
+					continue;
+				double dx = x - sq[base + MASS_X];
+				double dy = y - sq[base + MASS_Y];
+				double dist2 = Math.max(epsilon2, dx * dx + dy * dy);
+				int child = firstChild[s];
+				double size = sq[base + SIZE];
+				if (child == 0 || (size * size < theta2 * dist2 && !contains(base, x, y))) {
+					double f = k2 * m / dist2;
+					fx += f * dx;
+					fy += f * dy;
+				}
+				else {
+					stack[top++] = child;
+					stack[top++] = child + 1;
+					stack[top++] = child + 2;
+					stack[top++] = child + 3;
+				}
+			}
+			fxs[i] = fx;
+			fys[i] = fy;
+		}
+	}
+	
+	///////////////////////////////////////////////////////////////////////////////////////////////////////////
+	// private methods
+	private void add(double x, double y) {
+		int s = 0;
+		while (true) {
+			int base = s * STRIDE;
+			if (squares[base + MASS] == 0) {
+				// empty leaf
+				squares[base + MASS] = 1;
+				squares[base + MASS_X] = x;
+				squares[base + MASS_Y] = y;
+				return;
+			}
+			if (firstChild[s] == 0) {
+				double px = squares[base + MASS_X];
+				double py = squares[base + MASS_Y];
+				if (depth[s] == maxDepth || (px == x && py == y)) {
+					// merge with the points already here
+					addMass(s, x, y);
+					return;
+				}
+				// split: move the points of the leaf one level down
+				split(s);
+				base = s * STRIDE;
+				int child = firstChild[s] + getQuadrant(s, px, py);
+				int childBase = child * STRIDE;
+				squares[childBase + MASS] = squares[base + MASS];
+				squares[childBase + MASS_X] = px;
+				squares[childBase + MASS_Y] = py;
+			}
+			addMass(s, x, y);
+			s = firstChild[s] + getQuadrant(s, x, y);
+		}
+	}
+	
+	private void addMass(int s, double x, double y) {
+		int base = s * STRIDE;
+		double m = squares[base + MASS] + 1;
+		squares[base + MASS_X] += (x - squares[base + MASS_X]) / m;
+		squares[base + MASS_Y] += (y - squares[base + MASS_Y]) / m;
+		squares[base + MASS] = m;
+	}
+	
+	private boolean contains(int base, double x, double y) {
+		double ox = squares[base + ORIGIN_X];
+		double oy = squares[base + ORIGIN_Y];
+		double size = squares[base + SIZE];
+		return x >= ox && x <= ox + size && y >= oy && y <= oy + size;
+	}
+	
+	private int getQuadrant(int s, double x, double y) {
+		int base = s * STRIDE;
+		double half = squares[base + SIZE] / 2;
+		int q = 0;
+		if (x >= squares[base + ORIGIN_X] + half)
+			q |= 1;
+		if (y >= squares[base + ORIGIN_Y] + half)
+			q |= 2;
+		return q;
+	}
+	
+	private void split(int s) {
+		int base = s * STRIDE;
+		double ox = squares[base + ORIGIN_X];
+		double oy = squares[base + ORIGIN_Y];
+		double half = squares[base + SIZE] / 2;
+		int level = depth[s] + 1;
+		int child = newSquare(ox, oy, half, level);
+		newSquare(ox + half, oy, half, level);
+		newSquare(ox, oy + half, half, level);
+		newSquare(ox + half, oy + half, half, level);
+		firstChild[s] = child;
+	}
+	
+	private int newSquare(double x, double y, double size, int level) {
+		if (count == firstChild.length) {
+			int capacity = count * 2;
+			squares = Arrays.copyOf(squares, STRIDE * capacity);
+			firstChild = Arrays.copyOf(firstChild, capacity);
+			depth = Arrays.copyOf(depth, capacity);
+		}
+		int base = count * STRIDE;
+		squares[base + ORIGIN_X] = x;
+		squares[base + ORIGIN_Y] = y;
+		squares[base + SIZE] = size;
+		depth[count] = level;
+		return count++;
+	}
+}
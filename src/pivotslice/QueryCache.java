@@ -0,0 +1,358 @@
+package pivotslice;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+import com.microsoft.research.Publication;
+
+public class QueryCache {
+	
+	// the answers of queries on disk, by a key naming the query. the file is a log only appended to:
+	//   header			int magic, int version
+	//   records		int kind, int length, then length bytes of
+	//					publication: long id, long time, the publication with its facet values
+	//					answer: string key, long time, int count, long[count] ids of the publications
+	// a publication is written once and shared by the answers listing it, a later record of the same
+	// publication or key replaces the earlier one. the answers are kept under a size budget, the least
+	// recently used are dropped first, and the file is rewritten with the records still used when it has
+	// grown to twice their size. answers older than the time to live are not returned unless asked for
+	
+	public static final int MAGIC = 0x50535143;	// "PSQC"
+	public static final int VERSION = 1;
+	public static final int HEADER_SIZE = 8;
+	public static final long defaultBudget = 64L << 20;
+	public static final long defaultTimeToLive = 7L * 24 * 60 * 60 * 1000;
+	
+	private static final int PUBLICATION = 1;
+	private static final int ANSWER = 2;
+	private static final int RECORD_HEADER_SIZE = 8;
+	private static final long minCompactSize = 1 << 20;
+	
+	private final File file;
+	private final long budget;
+	private final long timeToLive;
+	private FileChannel channel;
+	private NetworkFile.ChannelWriter out;
+	private final HashMap<Long, Stored> publications = new HashMap<Long, Stored>();
+	private final LinkedHashMap<String, Answer> answers = new LinkedHashMap<String, Answer>(16, 0.75f, true);
+	private long liveBytes;
+	
+	///////////////////////////////////////////////////////////////////////////////////////////////////////////
+	// public methods
+	public QueryCache(File f) throws IOException {
+		this(f, defaultBudget, defaultTimeToLive);
+	}
+	
+	public QueryCache(File f, long budget, long timeToLive) throws IOException {
+		file = f;
+		this.budget = budget;
+		this.timeToLive = timeToLive;
+		channel = new RandomAccessFile(f, "rw").getChannel();
+		// the file is closed again if it is not a cache that can be opened
+		boolean opened = false;
+		try {
+			if (channel.size() == 0) {
+				ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+				header.putInt(MAGIC).putInt(VERSION).flip();
+				while (header.hasRemaining())
+					channel.write(header);
+			}
+			else
+				load();
+			channel.position(channel.size());
+			out = new NetworkFile.ChannelWriter(channel);
+			evict();
+			opened = true;
+		}
+		finally {
+			if (!opened)
+				channel.close();
+		}
+	}
+	
+	public synchronized List<Publication> get(String key, boolean expired) throws IOException {
+		// null if the key has no answer, or only an expired one and expired answers are not asked for
+		Answer answer = answers.get(key);
+		if (answer == null || (!expired && isExpired(answer.time)))
+			return null;
+		
+		List<Publication> result = new ArrayList<Publication>(answer.ids.length);
+		for (long id : answer.ids) {
+			Stored stored = publications.get(id);
+			ByteBuffer bytes = read(stored.position + RECORD_HEADER_SIZE, stored.size - RECORD_HEADER_SIZE);
+			bytes.position(16);
+			result.add(NetworkFile.readPublication(new NetworkFile.ChannelReader(bytes.slice())));
+		}
+		return result;
+	}
+	
+	public synchronized void put(String key, List<Publication> pubs) throws IOException {
+		long now = System.currentTimeMillis();
+		Answer answer = new Answer();
+		answer.time = now;
+		answer.ids = new long[pubs.size()];
+		for (int i = 0; i < pubs.size(); i++) {
+			Publication pub = pubs.get(i);
+			answer.ids[i] = pub.getID();
+			
+			// a publication written before is written again once expired, its counts may have changed
+			Stored stored = publications.get(pub.getID());
+			if (stored == null) {
+				stored = new Stored();
+				publications.put(pub.getID(), stored);
+			}
+			if (stored.size == 0 || isExpired(stored.time)) {
+				long position = beginRecord(PUBLICATION);
+				out.writeLong(pub.getID());
+				out.writeLong(now);
+				NetworkFile.writePublication(out, pub);
+				int size = endRecord(position);
+				if (stored.refs > 0)
+					liveBytes += size - stored.size;
+				stored.position = position;
+				stored.size = size;
+				stored.time = now;
+			}
+			if (stored.refs++ == 0)
+				liveBytes += stored.size;
+		}
+		
+		answer.position = beginRecord(ANSWER);
+		out.writeString(key);
+		out.writeLong(now);
+		out.writeInt(answer.ids.length);
+		for (long id : answer.ids)
+			out.writeLong(id);
+		answer.size = endRecord(answer.position);
+		out.flush();
+		
+		Answer old = answers.put(key, answer);
+		if (old != null)
+			release(old);
+		liveBytes += answer.size;
+		evict();
+	}
+	
+	public synchronized int size() {
+		return answers.size();
+	}
+	
+	public synchronized void close() throws IOException {
+		out.close();
+	}
+	
+	///////////////////////////////////////////////////////////////////////////////////////////////////////////
+	// private methods
+	private void load() throws IOException {
+		ByteBuffer header = read(0, HEADER_SIZE);
+		if (header.getInt() != MAGIC)
+			throw new IOException("Not a query cache file: " + file.getName());
+		int version = header.getInt();
+		if (version != VERSION)
+			throw new IOException("Unsupported query cache file version: " + version);
+		
+		// the records in the order written. the log ends at a record cut short or garbled by a crash,
+		// which is truncated with what follows it
+		long size = channel.size();
+		long position = HEADER_SIZE;
+		while (position + RECORD_HEADER_SIZE <= size) {
+			ByteBuffer recordHeader = read(position, RECORD_HEADER_SIZE);
+			int kind = recordHeader.getInt();
+			int length = recordHeader.getInt();
+			if (length < 16 || position + RECORD_HEADER_SIZE + length > size)
+				break;
+			NetworkFile.ChannelReader in = new NetworkFile.ChannelReader(read(position + RECORD_HEADER_SIZE, 
+					kind == PUBLICATION ? 16 : length));
+			
+			if (kind == PUBLICATION) {
+				long id = in.readLong();
+				Stored stored = publications.get(id);
+				if (stored == null) {
+					stored = new Stored();
+					publications.put(id, stored);
+				}
+				else if (stored.refs > 0)
+					liveBytes -= stored.size;
+				stored.position = position;
+				stored.size = RECORD_HEADER_SIZE + length;
+				stored.time = in.readLong();
+				if (stored.refs > 0)
+					liveBytes += stored.size;
+			}
+			else if (kind == ANSWER) {
+				Answer answer = new Answer();
+				answer.position = position;
+				answer.size = RECORD_HEADER_SIZE + length;
+				String key;
+				try {
+					key = in.readString();
+					answer.time = in.readLong();
+					int count = in.readInt();
+					if (count < 0 || count > length / 8)
+						break;
+					answer.ids = in.readLongs(count);
+				} catch (IOException e) {
+					break;
+				} catch (RuntimeException e) {
+					break;
+				}
+				if (!isListed(answer.ids))
+					break;
+				
+				for (long id : answer.ids) {
+					Stored stored = publications.get(id);
+					if (stored.refs++ == 0)
+						liveBytes += stored.size;
+				}
+				Answer old = answers.put(key, answer);
+				if (old != null)
+					release(old);
+				liveBytes += answer.size;
+			}
+			else
+				break;
+			position += RECORD_HEADER_SIZE + length;
+		}
+		if (position < size)
+			channel.truncate(position);
+		
+		// publications no answer lists any more
+		Iterator<Stored> it = publications.values().iterator();
+		while (it.hasNext()) {
+			if (it.next().refs == 0)
+				it.remove();
+		}
+	}
+	
+	private boolean isListed(long[] ids) {
+		for (long id : ids) {
+			if (!publications.containsKey(id))
+				return false;
+		}
+		return true;
+	}
+	
+	private long beginRecord(int kind) throws IOException {
+		long position = out.position();
+		out.writeInt(kind);
+		out.writeInt(0);
+		return position;
+	}
+	
+	private int endRecord(long position) throws IOException {
+		int size = (int) (out.position() - position);
+		out.writeIntAt(position + 4, size - RECORD_HEADER_SIZE);
+		return size;
+	}
+	
+	private void release(Answer answer) {
+		liveBytes -= answer.size;
+		for (long id : answer.ids) {
+			Stored stored = publications.get(id);
+			if (--stored.refs == 0) {
+				liveBytes -= stored.size;
+				publications.remove(id);
+			}
+		}
+	}
+	
+	private void evict() throws IOException {
+		// least recently used first, the answer just put stays
+		Iterator<Answer> it = answers.values().iterator();
+		while (liveBytes > budget && answers.size() > 1) {
+			Answer answer = it.next();
+			it.remove();
+			release(answer);
+		}
+		
+		if (out.position() > minCompactSize && out.position() > 2 * liveBytes)
+			compact();
+	}
+	
+	private void compact() throws IOException {
+		// the publications still listed, then the answers from the least recently used, into a new file
+		// that replaces the old one. the records keep their old positions until the new file is in place
+		File temp = new File(file.getPath() + ".tmp");
+		FileChannel tempChannel = new RandomAccessFile(temp, "rw").getChannel();
+		tempChannel.truncate(0);
+		NetworkFile.ChannelWriter tempOut = new NetworkFile.ChannelWriter(tempChannel);
+		long[] storedPositions = new long[publications.size()];
+		long[] answerPositions = new long[answers.size()];
+		try {
+			tempOut.writeInt(MAGIC);
+			tempOut.writeInt(VERSION);
+			int i = 0;
+			for (Stored stored : publications.values())
+				storedPositions[i++] = copyRecord(stored.position, stored.size, tempOut);
+			i = 0;
+			for (Answer answer : answers.values())
+				answerPositions[i++] = copyRecord(answer.position, answer.size, tempOut);
+		}
+		finally {
+			tempOut.close();
+		}
+		
+		out.close();
+		try {
+			Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+		finally {
+			channel = new RandomAccessFile(file, "rw").getChannel();
+			channel.position(channel.size());
+			out = new NetworkFile.ChannelWriter(channel);
+		}
+		
+		int i = 0;
+		for (Stored stored : publications.values())
+			stored.position = storedPositions[i++];
+		i = 0;
+		for (Answer answer : answers.values())
+			answer.position = answerPositions[i++];
+	}
+	
+	private long copyRecord(long position, int size, NetworkFile.ChannelWriter to) throws IOException {
+		long copied = to.position();
+		to.writeBytes(read(position, size).array());
+		return copied;
+	}
+	
+	private ByteBuffer read(long position, int length) throws IOException {
+		ByteBuffer bytes = ByteBuffer.allocate(length);
+		while (bytes.hasRemaining()) {
+			if (channel.read(bytes, position + bytes.position()) == -1)
+				throw new IOException("Unexpected end of query cache file");
+		}
+		bytes.flip();
+		return bytes;
+	}
+	
+	private boolean isExpired(long time) {
+		return System.currentTimeMillis() - time > timeToLive;
+	}
+	
+	///////////////////////////////////////////////////////////////////////////////////////////////////////////
+	// inner classes
+	private static class Stored {
+		private long position;
+		private int size;		// with the record header, 0 until written
+		private long time;
+		private int refs;		// answers listing the publication
+	}
+	
+	private static class Answer {
+		private long position;
+		private int size;
+		private long time;
+		private long[] ids;
+	}
+}
@@ -0,0 +1,116 @@
+package pivotslice;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.swing.SwingUtilities;
+
+public class RenderPipeline {
+	
+	// runs the jobs computing the drawings off the event dispatch thread, one at a time.
+	// each user action starts a new generation on the event dispatch thread; the jobs of the older
+	// generations are skipped if they have not started, stop at their next check if they have, and
+	// never hand their results over, so only the work of the latest action reaches the screen.
+	// a job hands its results to the event dispatch thread with commit, which waits for the swap,
+	// or finish, which does not. the event dispatch thread never waits for the pipeline.
+	// a job that fails is recovered on the event dispatch thread, so what it committed is not left half done
+	
+	private final AtomicInteger generation = new AtomicInteger();
+	private final ExecutorService executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, "RenderPipeline");
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+	
+	///////////////////////////////////////////////////////////////////////////////////////////////////////////
+	// public methods
+	public int nextGeneration() {
+		// on the event dispatch thread, before changing anything the jobs in flight read
+		return generation.incrementAndGet();
+	}
+	
+	public int getGeneration() {
+		return generation.get();
+	}
+	
+	public boolean isCurrent(int gen) {
+		return generation.get() == gen;
+	}
+	
+	public void checkCurrent(int gen) {
+		// stops a job replaced by a newer one
+		if (generation.get() != gen)
+			throw new CancellationException();
+	}
+	
+	public void submit(final int gen, final Job job) {
+		executor.execute(new Runnable() {
+			@Override
+			public void run() {
+				if (!isCurrent(gen))
+					return;
+				try {
+					job.run();
+				} catch (CancellationException e) {
+					// replaced by a newer job
+				} catch (final RuntimeException e) {
+					// a job only reads what it was given when submitted, stale or not it fails on a bug
+					e.printStackTrace();
+					finish(gen, new Runnable() {
+						@Override
+						public void run() {
+							job.recover(e);
+						}
+					});
+				}
+			}
+		});
+	}
+	
+	public void commit(final int gen, final Runnable swap) {
+		// runs swap on the event dispatch thread and waits for it, the job stops if it was replaced
+		final boolean[] swapped = new boolean[1];
+		try {
+			SwingUtilities.invokeAndWait(new Runnable() {
+				@Override
+				public void run() {
+					if (isCurrent(gen)) {
+						swap.run();
+						swapped[0] = true;
+					}
+				}
+			});
+		} catch (InterruptedException e) {
+			throw new CancellationException();
+		} catch (InvocationTargetException e) {
+			throw new RuntimeException(e.getCause());
+		}
+		if (!swapped[0])
+			throw new CancellationException();
+	}
+	
+	public void finish(final int gen, final Runnable swap) {
+		// runs swap on the event dispatch thread later, unless the job was replaced by then
+		SwingUtilities.invokeLater(new Runnable() {
+			@Override
+			public void run() {
+				if (isCurrent(gen))
+					swap.run();
+			}
+		});
+	}
+	
+	///////////////////////////////////////////////////////////////////////////////////////////////////////////
+	// inner classes
+	public static interface Job extends Runnable {
+		// on the event dispatch thread after run failed, unless the job was replaced by then
+		public void recover(RuntimeException e);
+	}
+}
@@ -25,9 +25,7 @@ import javax.swing.ListCellRenderer;
 import javax.swing.SwingWorker;
 
 import com.microsoft.research.Author;
-import com.microsoft.research.PagedList;
 import com.microsoft.research.Publication;
-import com.microsoft.research.query.AcademicSearchQuery;
 
 public class SearchDialog extends JDialog {
 	
@@ -174,7 +172,7 @@ public class SearchDialog extends JDialog {
 	private class SearchTask extends SwingWorker<Void, Publication> {
 
 		private String queryText;
-		private PagedList<Publication> response;
+		private List<Publication> response = new LinkedList<Publication>();
 		
 		public SearchTask(String text) {
 			queryText = text;
@@ -195,11 +193,8 @@ public class SearchDialog extends JDialog {
 			this.setProgress(30);
 			addButton.setEnabled(false);
 			
-			AcademicSearchQuery<Publication> query = PivotSlice.dataSource.getNewQuery().withFullTextQuery(queryText)
-					.withStartIndex(1).withEndIndex(maxResultNum);
-			
 			try {
-				response = PivotSlice.dataSource.executeQuery(query);
+				response = PivotSlice.dataSource.search(queryText, 1, maxResultNum);
 			}
 			catch (Exception e) {
 				e.printStackTrace();
@@ -222,7 +217,7 @@ public class SearchDialog extends JDialog {
 		@Override
 		protected Void doInBackground() throws Exception {
 			this.setProgress(1);
-			PivotSlice.dataSource.addToNetwork(publications, this);
+			PivotSlice.dataSource.addToNetwork(publications, rootFrame.graphCanvas, this);
 			return null;
 		}
 
@@ -234,8 +229,7 @@ public class SearchDialog extends JDialog {
 		@Override
         public void done() {
         	this.setProgress(100);
-        	PivotSlice.dataSource.updateAttributeMaps();
-        	rootFrame.graphCanvas.reDistributeNodesToAllGraphCells();
+        	rootFrame.graphCanvas.finishIngest();
         	SearchDialog.this.dispose();
         }
 		
@@ -14,7 +14,6 @@ import java.awt.event.FocusEvent;
 import java.awt.event.FocusListener;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
-import java.util.HashMap;
 import java.util.List;
 
 import javax.swing.BorderFactory;
@@ -331,8 +330,7 @@ public class SearchPanel extends JPanel implements DragGestureListener {
 		}
 		
 		private void searchAttributes(int fid) {
-			HashMap<Long, Object> hashmap = PivotSlice.dataSource.getAttributeMaps(fid);
-			for(Object ob : hashmap.values()) {
+			for(Object ob : PivotSlice.dataSource.getAttributes(fid)) {
 				String content = null;
 				Long id = null;
 				switch (fid) {
@@ -370,7 +368,7 @@ public class SearchPanel extends JPanel implements DragGestureListener {
 				int[] fidArray = new int[] {0, 1, 2, 4};
 				for (int id : fidArray)
 					searchAttributes(id);
-				for (Publication pub : PivotSlice.dataSource.getNetwork().graphNodes.values()) {
+				for (Publication pub : PivotSlice.dataSource.getNetwork().getPublications()) {
 					if (pub.getTitle().toLowerCase().contains(queryText))
 						this.publish(new SearchItem(pub.getTitle(), -1, pub.getID()));
 				}
@@ -0,0 +1,57 @@
+package pivotslice;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.microsoft.research.Publication;
+
+public class SimulatedBackend implements PublicationBackend {
+	
+	// stand-in for a remote backend: answers the queries from a network after a fixed latency,
+	// so that fetching can be exercised and timed offline
+	
+	private final DataSource.Network network;
+	private final long latency;
+	
+	///////////////////////////////////////////////////////////////////////////////////////////////////////////
+	// public methods
+	public SimulatedBackend(DataSource.Network network, long latency) {
+		this.network = network;
+		this.latency = latency;
+	}
+	
+	@Override
+	public List<Publication> search(String text, int start, int end) throws Exception {
+		// titles containing the text
+		Thread.sleep(latency);
+		List<Publication> result = new ArrayList<Publication>();
+		int found = 0;
+		for (Publication pub : network.getPublications()) {
+			if (pub.getTitle() == null || !pub.getTitle().toLowerCase().contains(text.toLowerCase()))
+				continue;
+			found++;
+			if (found >= start && found <= end)
+				result.add(pub);
+		}
+		return result;
+	}
+	
+	@Override
+	public List<Publication> getCitations(Publication pub, int start, int end) throws Exception {
+		Thread.sleep(latency);
+		int row = network.getOrdinal(pub);
+		List<Publication> result = new ArrayList<Publication>();
+		for (int i = Math.max(start, 1) - 1; i < Math.min(end, network.graphEdges.getCitationCount(row)); i++)
+			result.add(network.getPublication(network.graphEdges.getCitation(row, i)));
+		return result;
+	}
+	
+	@Override
+	public List<Publication> getReferences(Publication pub, int start, int end) throws Exception {
+		Thread.sleep(latency);
+		int row = network.getOrdinal(pub);
+		List<Publication> result = new ArrayList<Publication>();
+		for (int i = Math.max(start, 1) - 1; i < Math.min(end, network.graphEdges.getReferenceCount(row)); i++)
+			result.add(network.getPublication(network.graphEdges.getReference(row, i)));
+		return result;
+	}}